@@ -107,12 +107,56 @@ CREATE TABLE IF NOT EXISTS consumption_records (
     cost DECIMAL(10,2) NOT NULL COMMENT 'Стоимость',
     tariff_type ENUM('peak', 'night', 'shoulder', 'flat') COMMENT 'Тип тарифа',
     usage_hours DECIMAL(5,2) COMMENT 'Часы использования',
+    ingest_key VARCHAR(40) NULL COMMENT 'Ключ показания в журнале очереди записи (повтор после сбоя не дублирует запись)',
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (appliance_id) REFERENCES appliances(id) ON DELETE SET NULL,
-    INDEX idx_user_date (user_id, record_date)
+    INDEX idx_user_date (user_id, record_date),
+    UNIQUE KEY uk_ingest_key (ingest_key)
 ) ENGINE=InnoDB COMMENT='Записи потребления электроэнергии';
 
+-- Для существующей базы:
+-- ALTER TABLE consumption_records ADD COLUMN ingest_key VARCHAR(40) NULL AFTER usage_hours,
+--     ADD UNIQUE KEY uk_ingest_key (ingest_key);
+
+-- =====================================================
+-- ТАБЛИЦЫ: Предагрегированное потребление
+-- Обновляются в одной транзакции со вставкой в consumption_records
+-- (RollupDAO.apply); полный пересчёт - RollupDAO.rebuildAll
+-- =====================================================
+CREATE TABLE IF NOT EXISTS consumption_daily_rollup (
+    user_id INT NOT NULL,
+    record_date DATE NOT NULL COMMENT 'Дата',
+    total_kwh DECIMAL(14,4) NOT NULL DEFAULT 0 COMMENT 'Потребление за день в кВт·ч',
+    total_cost DECIMAL(14,2) NOT NULL DEFAULT 0 COMMENT 'Стоимость за день',
+    record_count INT NOT NULL DEFAULT 0 COMMENT 'Количество исходных записей',
+    PRIMARY KEY (user_id, record_date),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB COMMENT='Потребление по дням';
+
+CREATE TABLE IF NOT EXISTS consumption_monthly_rollup (
+    user_id INT NOT NULL,
+    month_start DATE NOT NULL COMMENT 'Первый день месяца',
+    total_kwh DECIMAL(16,4) NOT NULL DEFAULT 0 COMMENT 'Потребление за месяц в кВт·ч',
+    total_cost DECIMAL(16,2) NOT NULL DEFAULT 0 COMMENT 'Стоимость за месяц',
+    record_count INT NOT NULL DEFAULT 0 COMMENT 'Количество исходных записей',
+    days_recorded INT NOT NULL DEFAULT 0 COMMENT 'Количество дней с данными',
+    PRIMARY KEY (user_id, month_start),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB COMMENT='Потребление по месяцам';
+
+CREATE TABLE IF NOT EXISTS consumption_appliance_monthly_rollup (
+    user_id INT NOT NULL,
+    appliance_id INT NOT NULL COMMENT 'ID прибора (0 для общих записей)',
+    month_start DATE NOT NULL COMMENT 'Первый день месяца',
+    total_kwh DECIMAL(16,4) NOT NULL DEFAULT 0 COMMENT 'Потребление за месяц в кВт·ч',
+    total_cost DECIMAL(16,2) NOT NULL DEFAULT 0 COMMENT 'Стоимость за месяц',
+    record_count INT NOT NULL DEFAULT 0 COMMENT 'Количество исходных записей',
+    PRIMARY KEY (user_id, appliance_id, month_start),
+    INDEX idx_rollup_appliance (appliance_id),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB COMMENT='Потребление по приборам и месяцам';
+
 -- =====================================================
 -- ТАБЛИЦА: Расписание использования приборов
 -- Планируемое время использования приборов
@@ -235,6 +279,22 @@ CROSS JOIN (
 ) n
 WHERE a.user_id = 1;
 
+-- Заполнение агрегатов по сгенерированным записям
+INSERT INTO consumption_daily_rollup (user_id, record_date, total_kwh, total_cost, record_count)
+SELECT user_id, record_date, SUM(consumption_kwh), SUM(cost), COUNT(*)
+FROM consumption_records
+GROUP BY user_id, record_date;
+
+INSERT INTO consumption_monthly_rollup (user_id, month_start, total_kwh, total_cost, record_count, days_recorded)
+SELECT user_id, DATE_FORMAT(record_date, '%Y-%m-01'), SUM(total_kwh), SUM(total_cost), SUM(record_count), COUNT(*)
+FROM consumption_daily_rollup
+GROUP BY user_id, DATE_FORMAT(record_date, '%Y-%m-01');
+
+INSERT INTO consumption_appliance_monthly_rollup (user_id, appliance_id, month_start, total_kwh, total_cost, record_count)
+SELECT user_id, COALESCE(appliance_id, 0), DATE_FORMAT(record_date, '%Y-%m-01'), SUM(consumption_kwh), SUM(cost), COUNT(*)
+FROM consumption_records
+GROUP BY user_id, COALESCE(appliance_id, 0), DATE_FORMAT(record_date, '%Y-%m-01');
+
 -- Приветственное уведомление
 INSERT INTO notifications (user_id, title, message, type) VALUES 
 (1, 'Добро пожаловать!', 'Добро пожаловать в систему анализа энергопотребления. Начните с добавления ваших электроприборов.', 'success');
@@ -266,18 +326,17 @@ FROM appliance_groups ag
 LEFT JOIN appliances a ON ag.id = a.group_id AND a.is_active = TRUE
 GROUP BY ag.id, ag.user_id, ag.name, ag.color;
 
--- Представление: Месячная статистика потребления
+-- Представление: Месячная статистика потребления (по месячному агрегату)
 CREATE OR REPLACE VIEW v_monthly_stats AS
 SELECT 
     user_id,
-    YEAR(record_date) AS year,
-    MONTH(record_date) AS month,
-    SUM(consumption_kwh) AS total_kwh,
-    SUM(cost) AS total_cost,
-    AVG(consumption_kwh) AS avg_daily_kwh,
-    COUNT(DISTINCT record_date) AS days_recorded
-FROM consumption_records
-GROUP BY user_id, YEAR(record_date), MONTH(record_date);
+    YEAR(month_start) AS year,
+    MONTH(month_start) AS month,
+    total_kwh,
+    total_cost,
+    total_kwh / NULLIF(record_count, 0) AS avg_daily_kwh,
+    days_recorded
+FROM consumption_monthly_rollup;
 
 COMMIT;
 
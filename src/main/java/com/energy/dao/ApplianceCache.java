@@ -0,0 +1,230 @@
+package com.energy.dao;
+
+import com.energy.model.Appliance;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш приборов пользователей с заранее вычисленными итогами
+ * Для каждого пользователя хранится снимок его приборов, суммарное дневное потребление
+ * (общее и по группам) и упорядоченный по потреблению список активных приборов.
+ * Списки, статистика и топ потребителей отдаются без обращения к базе данных. При изменении
+ * приборов через ApplianceDAO снимок сбрасывается и перечитывается при следующем обращении:
+ * точечная правка снимка не упорядочена с записью в базу, и параллельные изменения одного
+ * пользователя могли бы примениться в обратном порядке.
+ * Хранит не более energy.applianceCache.maxUsers снимков, вытесняя давно не использованные (LRU)
+ */
+public class ApplianceCache {
+    
+    private static final int MAX_USERS = Integer.getInteger("energy.applianceCache.maxUsers", 10000);
+    
+    // Порядок списка приборов как в ORDER BY a.group_id, a.name (NULL в MySQL идёт первым)
+    private static final Comparator<Appliance> LIST_ORDER = Comparator
+            .comparing(Appliance::getGroupId, Comparator.nullsFirst(Comparator.<Integer>naturalOrder()))
+            .thenComparing(Appliance::getName, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER))
+            .thenComparingInt(Appliance::getId);
+    
+    // Порядок топа потребителей: по убыванию дневного потребления
+    private static final Comparator<Appliance> TOP_ORDER = Comparator
+            .comparingDouble(Appliance::getDailyConsumptionKwh).reversed()
+            .thenComparingInt(Appliance::getId);
+    
+    private static final Map<Integer, Snapshot> SNAPSHOTS = new LinkedHashMap<Integer, Snapshot>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Snapshot> eldest) {
+            return size() > MAX_USERS;
+        }
+    };
+    
+    // Счётчик изменений: снимок, загрузка которого пересеклась с изменением приборов, в кэш не попадает
+    private static final AtomicLong MODIFICATIONS = new AtomicLong();
+    
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    
+    private static final ApplianceDAO APPLIANCE_DAO = new ApplianceDAO();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private ApplianceCache() {}
+    
+    /**
+     * Все приборы пользователя в порядке группы и названия
+     * Возвращаемые объекты общие для всех запросов и не должны изменяться
+     * @param userId ID пользователя
+     */
+    public static List<Appliance> findByUserId(int userId) throws SQLException {
+        return get(userId).getAppliances();
+    }
+    
+    /**
+     * Суммарное дневное потребление активных приборов пользователя в кВт·ч
+     * @param userId ID пользователя
+     */
+    public static double getTotalDailyKwh(int userId) throws SQLException {
+        return get(userId).getTotalDailyKwh();
+    }
+    
+    /**
+     * Активные приборы с наибольшим дневным потреблением
+     * Возвращаемые объекты общие для всех запросов и не должны изменяться
+     * @param userId ID пользователя
+     * @param limit количество
+     */
+    public static List<Appliance> getTopConsumers(int userId, int limit) throws SQLException {
+        return get(userId).getTopConsumers(limit);
+    }
+    
+    /**
+     * Снимок приборов пользователя (загружается при промахе)
+     * @param userId ID пользователя
+     */
+    static Snapshot get(int userId) throws SQLException {
+        Snapshot snapshot;
+        synchronized (SNAPSHOTS) {
+            snapshot = SNAPSHOTS.get(userId);
+        }
+        if (snapshot != null) {
+            HITS.incrementAndGet();
+            return snapshot;
+        }
+        
+        MISSES.incrementAndGet();
+        long modifications = MODIFICATIONS.get();
+        snapshot = new Snapshot(APPLIANCE_DAO.loadByUserId(userId));
+        synchronized (SNAPSHOTS) {
+            if (MODIFICATIONS.get() == modifications) {
+                SNAPSHOTS.put(userId, snapshot);
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Сброс снимка пользователя (после изменения приборов, переименования или удаления группы)
+     * @param userId ID пользователя
+     */
+    public static void invalidate(int userId) {
+        MODIFICATIONS.incrementAndGet();
+        synchronized (SNAPSHOTS) {
+            SNAPSHOTS.remove(userId);
+        }
+    }
+    
+    /**
+     * Метрики кэша
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (SNAPSHOTS) {
+            metrics.put("size", SNAPSHOTS.size());
+        }
+        metrics.put("maxUsers", MAX_USERS);
+        metrics.put("hits", HITS.get());
+        metrics.put("misses", MISSES.get());
+        return metrics;
+    }
+    
+    /**
+     * Итоги по группе приборов (учитываются только активные приборы, как в GroupDAO)
+     */
+    static final class GroupTotals {
+        
+        private int count;
+        private double dailyKwh;
+        
+        int getCount() {
+            return count;
+        }
+        
+        double getDailyKwh() {
+            return dailyKwh;
+        }
+    }
+    
+    /**
+     * Снимок приборов одного пользователя
+     * Строится один раз при загрузке и после этого не изменяется
+     */
+    static final class Snapshot {
+        
+        private static final GroupTotals EMPTY = new GroupTotals();
+        
+        private final TreeSet<Appliance> ordered = new TreeSet<>(LIST_ORDER);
+        private final TreeSet<Appliance> ranking = new TreeSet<>(TOP_ORDER);
+        private final Map<Integer, GroupTotals> groups = new HashMap<>();
+        private double totalDailyKwh;
+        
+        // Готовый список для выдачи, строится при первом обращении
+        private List<Appliance> appliances;
+        
+        Snapshot(List<Appliance> loaded) {
+            for (Appliance appliance : loaded) {
+                add(appliance);
+            }
+        }
+        
+        synchronized List<Appliance> getAppliances() {
+            if (appliances == null) {
+                appliances = Collections.unmodifiableList(new ArrayList<>(ordered));
+            }
+            return appliances;
+        }
+        
+        synchronized double getTotalDailyKwh() {
+            return totalDailyKwh;
+        }
+        
+        synchronized List<Appliance> getTopConsumers(int limit) {
+            List<Appliance> top = new ArrayList<>(Math.min(limit, ranking.size()));
+            Iterator<Appliance> it = ranking.iterator();
+            while (top.size() < limit && it.hasNext()) {
+                top.add(it.next());
+            }
+            return top;
+        }
+        
+        /**
+         * Итоги группы (нулевые, если в группе нет активных приборов)
+         * @param groupId ID группы
+         */
+        synchronized GroupTotals getGroupTotals(int groupId) {
+            GroupTotals totals = groups.get(groupId);
+            if (totals == null) {
+                return EMPTY;
+            }
+            GroupTotals copy = new GroupTotals();
+            copy.count = totals.count;
+            copy.dailyKwh = totals.dailyKwh;
+            return copy;
+        }
+        
+        private void add(Appliance appliance) {
+            ordered.add(appliance);
+            appliances = null;
+            if (!appliance.isActive()) {
+                return;
+            }
+            
+            double kwh = appliance.getDailyConsumptionKwh();
+            ranking.add(appliance);
+            totalDailyKwh += kwh;
+            if (appliance.getGroupId() != null) {
+                GroupTotals totals = groups.computeIfAbsent(appliance.getGroupId(), id -> new GroupTotals());
+                totals.count++;
+                totals.dailyKwh += kwh;
+            }
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.energy.dao;
 
 import com.energy.model.Appliance;
+import com.energy.store.ConsumptionStore;
 import com.energy.util.DatabaseConnection;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,19 +15,30 @@ import java.util.List;
  */
 public class ApplianceDAO {
     
+    private final RollupDAO rollupDAO = new RollupDAO();
+    
     /**
-     * Получение всех приборов пользователя
+     * Получение всех приборов пользователя (из кэша, без обращения к базе)
      * @param userId ID пользователя
-     * @return список приборов
+     * @return список приборов (только для чтения)
      */
     public List<Appliance> findByUserId(int userId) throws SQLException {
+        return ApplianceCache.findByUserId(userId);
+    }
+    
+    /**
+     * Загрузка всех приборов пользователя из базы (для построения снимка в ApplianceCache)
+     * @param userId ID пользователя
+     * @return список приборов
+     */
+    List<Appliance> loadByUserId(int userId) throws SQLException {
         String sql = "SELECT a.*, g.name as group_name FROM appliances a " +
                     "LEFT JOIN appliance_groups g ON a.group_id = g.id " +
                     "WHERE a.user_id = ? ORDER BY a.group_id, a.name";
         
         List<Appliance> appliances = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
@@ -51,7 +64,7 @@ public class ApplianceDAO {
         
         List<Appliance> appliances = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, groupId);
@@ -75,7 +88,7 @@ public class ApplianceDAO {
                     "LEFT JOIN appliance_groups g ON a.group_id = g.id " +
                     "WHERE a.id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
@@ -98,7 +111,7 @@ public class ApplianceDAO {
         String sql = "INSERT INTO appliances (user_id, group_id, name, power_watts, daily_usage_hours, quantity, is_active) " +
                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             stmt.setInt(1, appliance.getUserId());
@@ -119,6 +132,7 @@ public class ApplianceDAO {
                 try (ResultSet rs = stmt.getGeneratedKeys()) {
                     if (rs.next()) {
                         appliance.setId(rs.getInt(1));
+                        ApplianceCache.invalidate(appliance.getUserId());
                         return appliance;
                     }
                 }
@@ -136,7 +150,7 @@ public class ApplianceDAO {
         String sql = "UPDATE appliances SET group_id = ?, name = ?, power_watts = ?, " +
                     "daily_usage_hours = ?, quantity = ?, is_active = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             if (appliance.getGroupId() != null) {
@@ -151,7 +165,11 @@ public class ApplianceDAO {
             stmt.setBoolean(6, appliance.isActive());
             stmt.setInt(7, appliance.getId());
             
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            if (updated) {
+                ApplianceCache.invalidate(appliance.getUserId());
+            }
+            return updated;
         }
     }
     
@@ -163,11 +181,35 @@ public class ApplianceDAO {
     public boolean delete(int id) throws SQLException {
         String sql = "DELETE FROM appliances WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, id);
-            return stmt.executeUpdate() > 0;
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                Integer userId = findUserId(conn, id);
+                if (userId == null) {
+                    conn.rollback();
+                    return false;
+                }
+                
+                List<Integer> userIds = Collections.singletonList(userId);
+                ConsumptionStore.beginWrite(userIds);
+                try {
+                    // Записи прибора становятся общими (ON DELETE SET NULL) - переносим и их агрегаты
+                    rollupDAO.foldAppliance(conn, id);
+                    stmt.setInt(1, id);
+                    boolean deleted = stmt.executeUpdate() > 0;
+                    conn.commit();
+                    if (deleted) {
+                        ApplianceCache.invalidate(userId);
+                        ConsumptionStore.applianceRemoved(userId, id);
+                    }
+                    return deleted;
+                } finally {
+                    ConsumptionStore.endWrite(userIds);
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
         }
     }
     
@@ -180,7 +222,7 @@ public class ApplianceDAO {
     public boolean moveToGroup(int applianceId, Integer groupId) throws SQLException {
         String sql = "UPDATE appliances SET group_id = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             if (groupId != null) {
@@ -190,62 +232,52 @@ public class ApplianceDAO {
             }
             stmt.setInt(2, applianceId);
             
-            return stmt.executeUpdate() > 0;
+            Integer userId = findUserId(conn, applianceId);
+            boolean moved = stmt.executeUpdate() > 0;
+            if (moved && userId != null) {
+                ApplianceCache.invalidate(userId);
+            }
+            return moved;
         }
     }
     
     /**
      * Получение суммарного потребления всех приборов пользователя
+     * Итог поддерживается в ApplianceCache при изменении приборов
      * @param userId ID пользователя
      * @return суммарное дневное потребление в кВт·ч
      */
     public double getTotalDailyConsumption(int userId) throws SQLException {
-        String sql = "SELECT SUM(power_watts * daily_usage_hours * quantity / 1000) as total " +
-                    "FROM appliances WHERE user_id = ? AND is_active = TRUE";
-        
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, userId);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("total");
-                }
-            }
-        }
-        return 0;
+        return ApplianceCache.getTotalDailyKwh(userId);
     }
     
     /**
-     * Получение топ потребителей
+     * Получение топ потребителей (из упорядоченного снимка в ApplianceCache)
      * @param userId ID пользователя
      * @param limit количество
-     * @return список приборов
+     * @return список приборов (только для чтения)
      */
     public List<Appliance> getTopConsumers(int userId, int limit) throws SQLException {
-        String sql = "SELECT a.*, g.name as group_name, " +
-                    "(a.power_watts * a.daily_usage_hours * a.quantity / 1000) as daily_kwh " +
-                    "FROM appliances a " +
-                    "LEFT JOIN appliance_groups g ON a.group_id = g.id " +
-                    "WHERE a.user_id = ? AND a.is_active = TRUE " +
-                    "ORDER BY daily_kwh DESC LIMIT ?";
-        
-        List<Appliance> appliances = new ArrayList<>();
+        return ApplianceCache.getTopConsumers(userId, limit);
+    }
+    
+    /**
+     * Владелец прибора
+     * @return ID пользователя или null, если прибора нет
+     */
+    private Integer findUserId(Connection conn, int applianceId) throws SQLException {
+        String sql = "SELECT user_id FROM appliances WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, userId);
-            stmt.setInt(2, limit);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, applianceId);
             
             try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    appliances.add(mapResultSetToAppliance(rs));
+                if (rs.next()) {
+                    return rs.getInt("user_id");
                 }
             }
         }
-        return appliances;
+        return null;
     }
     
     private Appliance mapResultSetToAppliance(ResultSet rs) throws SQLException {
@@ -1,22 +1,53 @@
 package com.energy.dao;
 
 import com.energy.model.ConsumptionRecord;
+import com.energy.model.DailySeries;
+import com.energy.model.PeriodTotals;
+import com.energy.store.ColdStorage;
+import com.energy.store.ConsumptionStore;
 import com.energy.util.DatabaseConnection;
+import com.energy.util.EpochDays;
+import com.energy.util.FixedDecimal;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * DAO класс для работы с записями потребления
  * Обеспечивает операции с таблицей consumption_records
+ * 
+ * Границы периодов вычисляются в Java и передаются как полуоткрытый интервал
+ * [начало, конец), чтобы запросы использовали диапазонный поиск по индексу idx_user_date
+ * 
+ * Аналитические запросы читают предагрегированные таблицы (consumption_daily_rollup,
+ * consumption_monthly_rollup), которые обновляются в одной транзакции со вставкой записи.
+ * Если записи пользователя загружены в ConsumptionStore, суммы считаются в памяти без запроса к базе;
+ * вставка дописывает записи в хранилище после фиксации транзакции
  */
 public class ConsumptionDAO {
     
+    // Размер порции курсорной выборки и периодичность сброса буфера при экспорте
+    private static final int EXPORT_FETCH_SIZE = Integer.getInteger("energy.export.fetchSize", 1000);
+    private static final int EXPORT_FLUSH_ROWS = Integer.getInteger("energy.export.flushRows", 2000);
+    
+    // Число строк в одном пакете вставки
+    private static final int INSERT_BATCH_SIZE = Integer.getInteger("energy.ingest.insertBatchSize", 1000);
+    
+    private final RollupDAO rollupDAO = new RollupDAO();
+    
     /**
      * Получение записей потребления за период
+     * Записи закрытых месяцев, перенесённые в ColdStorage, объединяются с записями из базы
      * @param userId ID пользователя
      * @param startDate начало периода
      * @param endDate конец периода
@@ -30,102 +61,111 @@ public class ConsumptionDAO {
         
         List<ConsumptionRecord> records = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, userId);
-            stmt.setDate(2, startDate);
-            stmt.setDate(3, endDate);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    records.add(mapResultSetToRecord(rs));
+        Lock lock = ColdStorage.lock().readLock();
+        lock.lock();
+        try {
+            try (Connection conn = DatabaseConnection.getPooledConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                
+                stmt.setInt(1, userId);
+                stmt.setDate(2, startDate);
+                stmt.setDate(3, endDate);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        records.add(mapResultSetToRecord(rs));
+                    }
                 }
             }
+            
+            int fromDay = (int) startDate.toLocalDate().toEpochDay();
+            int toDay = (int) endDate.toLocalDate().toEpochDay() + 1;
+            if (!ColdStorage.hasRecords(userId, fromDay, toDay)) {
+                return records;
+            }
+            return mergeByDateDesc(records, ColdStorage.findByPeriod(userId, fromDay, toDay));
+        } finally {
+            lock.unlock();
         }
-        return records;
     }
     
     /**
-     * Получение суммарного потребления по дням
-     * @param userId ID пользователя
-     * @param days количество дней
-     * @return карта: дата -> потребление
+     * Слияние двух списков, упорядоченных по убыванию даты
      */
-    public Map<String, Double> getDailyConsumption(int userId, int days) throws SQLException {
-        String sql = "SELECT record_date, SUM(consumption_kwh) as total_kwh " +
-                    "FROM consumption_records WHERE user_id = ? " +
-                    "AND record_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
-                    "GROUP BY record_date ORDER BY record_date";
-        
-        Map<String, Double> consumption = new HashMap<>();
-        
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, userId);
-            stmt.setInt(2, days);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    consumption.put(rs.getDate("record_date").toString(), rs.getDouble("total_kwh"));
-                }
+    private List<ConsumptionRecord> mergeByDateDesc(List<ConsumptionRecord> hot, List<ConsumptionRecord> cold) {
+        List<ConsumptionRecord> merged = new ArrayList<>(hot.size() + cold.size());
+        int i = 0;
+        int j = 0;
+        while (i < hot.size() || j < cold.size()) {
+            if (j == cold.size() || (i < hot.size() && !hot.get(i).getRecordDate().before(cold.get(j).getRecordDate()))) {
+                merged.add(hot.get(i++));
+            } else {
+                merged.add(cold.get(j++));
             }
         }
-        return consumption;
+        return merged;
     }
     
     /**
-     * Получение суммарной стоимости по дням
+     * Получение потребления и стоимости по дням одним проходом
      * @param userId ID пользователя
      * @param days количество дней
-     * @return карта: дата -> стоимость
+     * @return ряд по дням в порядке возрастания даты
      */
-    public Map<String, Double> getDailyCost(int userId, int days) throws SQLException {
-        String sql = "SELECT record_date, SUM(cost) as total_cost " +
-                    "FROM consumption_records WHERE user_id = ? " +
-                    "AND record_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
-                    "GROUP BY record_date ORDER BY record_date";
+    public DailySeries getDailyStats(int userId, int days) throws SQLException {
+        LocalDate from = LocalDate.now().minusDays(days);
+        DailySeries stored = ConsumptionStore.getDailyStats(userId, (int) from.toEpochDay());
+        if (stored != null) {
+            return stored;
+        }
+        
+        String sql = "SELECT record_date, total_kwh, total_cost FROM consumption_daily_rollup " +
+                    "WHERE user_id = ? AND record_date >= ? ORDER BY record_date";
         
-        Map<String, Double> costs = new HashMap<>();
+        // Дней с данными может быть меньше запрошенных - ряд дорастает при добавлении
+        DailySeries series = new DailySeries(Math.min(days + 1, 366));
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
-            stmt.setInt(2, days);
+            stmt.setDate(2, Date.valueOf(from));
             
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    costs.put(rs.getDate("record_date").toString(), rs.getDouble("total_cost"));
+                    series.add((int) rs.getObject(1, LocalDate.class).toEpochDay(), rs.getDouble(2), rs.getDouble(3));
                 }
             }
         }
-        return costs;
+        return series;
     }
     
     /**
      * Получение месячной статистики
+     * Месяц, в который попадает начало периода, учитывается целиком
      * @param userId ID пользователя
      * @param months количество месяцев
      * @return список карт с данными по месяцам
      */
     public List<Map<String, Object>> getMonthlyStats(int userId, int months) throws SQLException {
-        String sql = "SELECT YEAR(record_date) as year, MONTH(record_date) as month, " +
-                    "SUM(consumption_kwh) as total_kwh, SUM(cost) as total_cost, " +
-                    "AVG(consumption_kwh) as avg_daily_kwh, COUNT(DISTINCT record_date) as days_recorded " +
-                    "FROM consumption_records WHERE user_id = ? " +
-                    "AND record_date >= DATE_SUB(CURDATE(), INTERVAL ? MONTH) " +
-                    "GROUP BY YEAR(record_date), MONTH(record_date) " +
-                    "ORDER BY year DESC, month DESC";
+        LocalDate from = LocalDate.now().minusMonths(months).withDayOfMonth(1);
+        List<Map<String, Object>> stored = ConsumptionStore.getMonthlyStats(userId, from);
+        if (stored != null) {
+            return stored;
+        }
+        
+        String sql = "SELECT YEAR(month_start) as year, MONTH(month_start) as month, total_kwh, total_cost, " +
+                    "total_kwh / NULLIF(record_count, 0) as avg_daily_kwh, days_recorded " +
+                    "FROM consumption_monthly_rollup WHERE user_id = ? AND month_start >= ? " +
+                    "ORDER BY month_start DESC";
         
         List<Map<String, Object>> stats = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
-            stmt.setInt(2, months);
+            stmt.setDate(2, Date.valueOf(from));
             
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -145,6 +185,7 @@ public class ConsumptionDAO {
     
     /**
      * Создание записи потребления
+     * Предагрегированные таблицы обновляются в той же транзакции
      * @param record данные записи
      * @return созданная запись с ID
      */
@@ -152,85 +193,278 @@ public class ConsumptionDAO {
         String sql = "INSERT INTO consumption_records (user_id, appliance_id, record_date, consumption_kwh, cost, tariff_type, usage_hours) " +
                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            stmt.setInt(1, record.getUserId());
-            if (record.getApplianceId() != null) {
-                stmt.setInt(2, record.getApplianceId());
-            } else {
-                stmt.setNull(2, Types.INTEGER);
-            }
-            stmt.setDate(3, record.getRecordDate());
-            stmt.setDouble(4, record.getConsumptionKwh());
-            stmt.setDouble(5, record.getCost());
-            stmt.setString(6, record.getTariffType());
-            if (record.getUsageHours() != null) {
-                stmt.setDouble(7, record.getUsageHours());
-            } else {
-                stmt.setNull(7, Types.DOUBLE);
-            }
-            
-            int affectedRows = stmt.executeUpdate();
-            
-            if (affectedRows > 0) {
+        List<Integer> userIds = Collections.singletonList(record.getUserId());
+        ConsumptionStore.beginWrite(userIds);
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                
+                stmt.setInt(1, record.getUserId());
+                if (record.getApplianceId() != null) {
+                    stmt.setInt(2, record.getApplianceId());
+                } else {
+                    stmt.setNull(2, Types.INTEGER);
+                }
+                stmt.setDate(3, record.getRecordDate());
+                stmt.setDouble(4, record.getConsumptionKwh());
+                stmt.setDouble(5, record.getCost());
+                stmt.setString(6, record.getTariffType());
+                if (record.getUsageHours() != null) {
+                    stmt.setDouble(7, record.getUsageHours());
+                } else {
+                    stmt.setNull(7, Types.DOUBLE);
+                }
+                
+                if (stmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return null;
+                }
+                
                 try (ResultSet rs = stmt.getGeneratedKeys()) {
                     if (rs.next()) {
                         record.setId(rs.getInt(1));
-                        return record;
                     }
                 }
+                
+                rollupDAO.apply(conn, Collections.singletonList(record));
+                conn.commit();
+                ConsumptionStore.append(Collections.singletonList(record));
+                return record;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
+        } finally {
+            ConsumptionStore.endWrite(userIds);
         }
-        return null;
     }
     
     /**
-     * Получение суммарного потребления за текущий месяц
-     * @param userId ID пользователя
-     * @return суммарное потребление в кВт·ч
+     * Пакетная вставка записей потребления в одной транзакции
+     * Записи отправляются пакетами (addBatch/executeBatch); при rewriteBatchedStatements
+     * драйвер объединяет пакет в многострочный INSERT. Агрегаты обновляются в той же транзакции
+     * @param records записи для вставки
+     * @return количество вставленных записей
      */
-    public double getCurrentMonthConsumption(int userId) throws SQLException {
-        String sql = "SELECT COALESCE(SUM(consumption_kwh), 0) as total " +
-                    "FROM consumption_records WHERE user_id = ? " +
-                    "AND YEAR(record_date) = YEAR(CURDATE()) AND MONTH(record_date) = MONTH(CURDATE())";
+    public int createBatch(List<ConsumptionRecord> records) throws SQLException {
+        String sql = "INSERT INTO consumption_records (user_id, appliance_id, record_date, consumption_kwh, cost, tariff_type, usage_hours, ingest_key) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        
+        int inserted = 0;
+        
+        Set<Integer> userIds = ConsumptionStore.usersOf(records);
+        ConsumptionStore.beginWrite(userIds);
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                int pending = 0;
+                for (ConsumptionRecord record : records) {
+                    stmt.setInt(1, record.getUserId());
+                    if (record.getApplianceId() != null) {
+                        stmt.setInt(2, record.getApplianceId());
+                    } else {
+                        stmt.setNull(2, Types.INTEGER);
+                    }
+                    stmt.setDate(3, record.getRecordDate());
+                    stmt.setDouble(4, record.getConsumptionKwh());
+                    stmt.setDouble(5, record.getCost());
+                    stmt.setString(6, record.getTariffType());
+                    if (record.getUsageHours() != null) {
+                        stmt.setDouble(7, record.getUsageHours());
+                    } else {
+                        stmt.setNull(7, Types.DOUBLE);
+                    }
+                    stmt.setString(8, record.getIngestKey());
+                    stmt.addBatch();
+                    
+                    // Ограничиваем размер одного многострочного INSERT (max_allowed_packet)
+                    if (++pending == INSERT_BATCH_SIZE) {
+                        inserted += countInserted(stmt.executeBatch(), pending);
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    inserted += countInserted(stmt.executeBatch(), pending);
+                }
+                
+                rollupDAO.apply(conn, records);
+                conn.commit();
+                ConsumptionStore.append(records);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } finally {
+            ConsumptionStore.endWrite(userIds);
+        }
+        return inserted;
+    }
+    
+    /**
+     * Ключи журнала очереди, записи с которыми уже есть в базе
+     * (для повтора показаний из журнала после сбоя без дублирования)
+     * @param ingestKeys ключи показаний
+     * @return ключи уже записанных показаний
+     */
+    public Set<String> findExistingIngestKeys(List<String> ingestKeys) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (ingestKeys.isEmpty()) {
+            return existing;
+        }
+        
+        StringBuilder sql = new StringBuilder("SELECT ingest_key FROM consumption_records WHERE ingest_key IN (");
+        for (int i = 0; i < ingestKeys.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        
+        try (Connection conn = DatabaseConnection.getPooledConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
             
-            stmt.setInt(1, userId);
+            for (int i = 0; i < ingestKeys.size(); i++) {
+                stmt.setString(i + 1, ingestKeys.get(i));
+            }
             
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("total");
+                while (rs.next()) {
+                    existing.add(rs.getString(1));
                 }
             }
         }
-        return 0;
+        return existing;
+    }
+    
+    private int countInserted(int[] results, int pending) {
+        int count = 0;
+        for (int result : results) {
+            if (result == Statement.SUCCESS_NO_INFO) {
+                // Переписанный пакет не сообщает число строк по каждому элементу
+                return pending;
+            }
+            count += result;
+        }
+        return count;
     }
     
     /**
-     * Получение суммарной стоимости за текущий месяц
+     * Получение суммарного потребления и стоимости за период
+     * Для рядов в ConsumptionStore сумма берётся из накопительного индекса по дням за O(log n)
      * @param userId ID пользователя
-     * @return суммарная стоимость
+     * @param from начало периода (включительно)
+     * @param to конец периода (не включительно)
+     * @return потребление и стоимость
      */
-    public double getCurrentMonthCost(int userId) throws SQLException {
-        String sql = "SELECT COALESCE(SUM(cost), 0) as total " +
-                    "FROM consumption_records WHERE user_id = ? " +
-                    "AND YEAR(record_date) = YEAR(CURDATE()) AND MONTH(record_date) = MONTH(CURDATE())";
+    public PeriodTotals getPeriodTotals(int userId, Date from, Date to) throws SQLException {
+        PeriodTotals stored = ConsumptionStore.getPeriodTotals(userId,
+                (int) from.toLocalDate().toEpochDay(), (int) to.toLocalDate().toEpochDay());
+        if (stored != null) {
+            return stored;
+        }
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        String sql = "SELECT COALESCE(SUM(total_kwh), 0) as total_kwh, COALESCE(SUM(total_cost), 0) as total_cost " +
+                    "FROM consumption_daily_rollup WHERE user_id = ? AND record_date >= ? AND record_date < ?";
+        
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
+            stmt.setDate(2, from);
+            stmt.setDate(3, to);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return rs.getDouble("total");
+                    return new PeriodTotals(rs.getDouble("total_kwh"), rs.getDouble("total_cost"));
                 }
             }
         }
-        return 0;
+        return new PeriodTotals(0, 0);
+    }
+    
+    /**
+     * Получение потребления и стоимости по приборам за период
+     * @param userId ID пользователя
+     * @param from начало периода (включительно)
+     * @param to конец периода (не включительно)
+     * @return суммы по ID прибора (общие записи - под ключом 0)
+     */
+    public Map<Integer, PeriodTotals> getApplianceTotals(int userId, Date from, Date to) throws SQLException {
+        Map<Integer, PeriodTotals> stored = ConsumptionStore.getApplianceTotals(userId,
+                (int) from.toLocalDate().toEpochDay(), (int) to.toLocalDate().toEpochDay());
+        if (stored != null) {
+            return stored;
+        }
+        
+        String sql = "SELECT COALESCE(appliance_id, 0) as appliance_id, SUM(consumption_kwh) as total_kwh, SUM(cost) as total_cost " +
+                    "FROM consumption_records WHERE user_id = ? AND record_date >= ? AND record_date < ? " +
+                    "GROUP BY COALESCE(appliance_id, 0)";
+        
+        // Суммы по прибору: [кВт·ч, стоимость]; перенесённые записи досуммируются из холодного хранилища
+        Map<Integer, double[]> sums = new HashMap<>();
+        
+        Lock lock = ColdStorage.lock().readLock();
+        lock.lock();
+        try {
+            try (Connection conn = DatabaseConnection.getPooledConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                
+                stmt.setInt(1, userId);
+                stmt.setDate(2, from);
+                stmt.setDate(3, to);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        sums.put(rs.getInt("appliance_id"), new double[] {rs.getDouble("total_kwh"), rs.getDouble("total_cost")});
+                    }
+                }
+            }
+            
+            ColdStorage.Cursor cold = ColdStorage.cursor(userId, (int) from.toLocalDate().toEpochDay(), (int) to.toLocalDate().toEpochDay());
+            while (cold.next()) {
+                double[] sum = sums.computeIfAbsent(cold.getApplianceId(), id -> new double[2]);
+                sum[0] += cold.getKwh();
+                sum[1] += cold.getCost();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        Map<Integer, PeriodTotals> totals = new HashMap<>();
+        for (Map.Entry<Integer, double[]> entry : sums.entrySet()) {
+            totals.put(entry.getKey(), new PeriodTotals(entry.getValue()[0], entry.getValue()[1]));
+        }
+        return totals;
+    }
+    
+    /**
+     * Получение потребления и стоимости за текущий месяц одним запросом
+     * @param userId ID пользователя
+     * @return потребление и стоимость
+     */
+    public PeriodTotals getCurrentMonthTotals(int userId) throws SQLException {
+        LocalDate monthStart = LocalDate.now().withDayOfMonth(1);
+        return getPeriodTotals(userId, Date.valueOf(monthStart), Date.valueOf(monthStart.plusMonths(1)));
+    }
+    
+    /**
+     * Получение суммарного потребления за текущий месяц
+     * @param userId ID пользователя
+     * @return суммарное потребление в кВт·ч
+     */
+    public double getCurrentMonthConsumption(int userId) throws SQLException {
+        return getCurrentMonthTotals(userId).getKwh();
+    }
+    
+    /**
+     * Получение суммарной стоимости за текущий месяц
+     * @param userId ID пользователя
+     * @return суммарная стоимость
+     */
+    public double getCurrentMonthCost(int userId) throws SQLException {
+        return getCurrentMonthTotals(userId).getCost();
     }
     
     /**
@@ -239,18 +473,33 @@ public class ConsumptionDAO {
      * @return процент изменения
      */
     public double getComparisonWithPreviousMonth(int userId) throws SQLException {
+        LocalDate monthStart = LocalDate.now().withDayOfMonth(1);
+        int currentDay = (int) monthStart.toEpochDay();
+        PeriodTotals currentTotals = ConsumptionStore.getPeriodTotals(userId, currentDay, (int) monthStart.plusMonths(1).toEpochDay());
+        if (currentTotals != null) {
+            PeriodTotals previousTotals = ConsumptionStore.getPeriodTotals(userId, (int) monthStart.minusMonths(1).toEpochDay(), currentDay);
+            if (previousTotals != null && previousTotals.getKwh() > 0) {
+                return ((currentTotals.getKwh() - previousTotals.getKwh()) / previousTotals.getKwh()) * 100;
+            }
+            return 0;
+        }
+        
+        // Оба месяца читаются из месячного агрегата - не более двух строк
         String sql = "SELECT " +
-                    "(SELECT COALESCE(SUM(consumption_kwh), 0) FROM consumption_records " +
-                    " WHERE user_id = ? AND YEAR(record_date) = YEAR(CURDATE()) AND MONTH(record_date) = MONTH(CURDATE())) as current_month, " +
-                    "(SELECT COALESCE(SUM(consumption_kwh), 0) FROM consumption_records " +
-                    " WHERE user_id = ? AND YEAR(record_date) = YEAR(DATE_SUB(CURDATE(), INTERVAL 1 MONTH)) " +
-                    " AND MONTH(record_date) = MONTH(DATE_SUB(CURDATE(), INTERVAL 1 MONTH))) as previous_month";
+                    "COALESCE(SUM(CASE WHEN month_start = ? THEN total_kwh END), 0) as current_month, " +
+                    "COALESCE(SUM(CASE WHEN month_start < ? THEN total_kwh END), 0) as previous_month " +
+                    "FROM consumption_monthly_rollup WHERE user_id = ? AND month_start >= ? AND month_start <= ?";
+        
+        Date currentStart = Date.valueOf(monthStart);
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
-            stmt.setInt(1, userId);
-            stmt.setInt(2, userId);
+            stmt.setDate(1, currentStart);
+            stmt.setDate(2, currentStart);
+            stmt.setInt(3, userId);
+            stmt.setDate(4, Date.valueOf(monthStart.minusMonths(1)));
+            stmt.setDate(5, currentStart);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -267,28 +516,153 @@ public class ConsumptionDAO {
     }
     
     /**
-     * Экспорт данных в CSV формат
+     * Потоковый экспорт данных в CSV формат
+     * Строки читаются курсором порциями по EXPORT_FETCH_SIZE и сразу записываются в поток,
+     * поэтому расход памяти не зависит от длины периода. Записи из ColdStorage вливаются
+     * в поток по дате прямо из отображённых сегментов
      * @param userId ID пользователя
      * @param startDate начало периода
-     * @param endDate конец периода
-     * @return CSV строка
+     * @param endDate конец периода (включительно)
+     * @param out поток для записи CSV
+     * @return количество выгруженных записей
      */
-    public String exportToCSV(int userId, Date startDate, Date endDate) throws SQLException {
-        StringBuilder csv = new StringBuilder();
-        csv.append("Дата;Прибор;Потребление (кВт·ч);Стоимость (руб.);Тариф;Часы работы\n");
-        
-        List<ConsumptionRecord> records = findByPeriod(userId, startDate, endDate);
-        
-        for (ConsumptionRecord record : records) {
-            csv.append(record.getRecordDate()).append(";");
-            csv.append(record.getApplianceName() != null ? record.getApplianceName() : "Общее").append(";");
-            csv.append(String.format("%.4f", record.getConsumptionKwh())).append(";");
-            csv.append(String.format("%.2f", record.getCost())).append(";");
-            csv.append(record.getTariffType() != null ? record.getTariffType() : "").append(";");
-            csv.append(record.getUsageHours() != null ? String.format("%.2f", record.getUsageHours()) : "").append("\n");
+    public int exportToCSV(int userId, Date startDate, Date endDate, Writer out) throws SQLException, IOException {
+        String sql = "SELECT cr.record_date, a.name as appliance_name, cr.consumption_kwh, cr.cost, " +
+                    "cr.tariff_type, cr.usage_hours FROM consumption_records cr " +
+                    "LEFT JOIN appliances a ON cr.appliance_id = a.id " +
+                    "WHERE cr.user_id = ? AND cr.record_date BETWEEN ? AND ? " +
+                    "ORDER BY cr.record_date DESC";
+        
+        out.write("Дата;Прибор;Потребление (кВт·ч);Стоимость (руб.);Тариф;Часы работы\n");
+        
+        int rows = 0;
+        StringBuilder line = new StringBuilder(128);
+        
+        // Курсорная выборка (useCursorFetch) работает только для однонаправленного ResultSet
+        try (Connection conn = DatabaseConnection.getPooledConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            
+            stmt.setFetchSize(EXPORT_FETCH_SIZE);
+            stmt.setInt(1, userId);
+            stmt.setDate(2, startDate);
+            stmt.setDate(3, endDate);
+            
+            // Блокировка нужна только для согласованного снимка: выборка курсором материализуется
+            // при выполнении запроса, а блоки сегментов неизменяемы. Передача клиенту идёт без неё,
+            // иначе медленный клиент задерживает перенос TieringJob и всех читателей за ним
+            ColdStorage.Cursor cold;
+            ResultSet hot;
+            Lock lock = ColdStorage.lock().readLock();
+            lock.lock();
+            try {
+                cold = ColdStorage.cursor(userId,
+                        (int) startDate.toLocalDate().toEpochDay(), (int) endDate.toLocalDate().toEpochDay() + 1);
+                hot = stmt.executeQuery();
+            } finally {
+                lock.unlock();
+            }
+            boolean hasCold = cold.next();
+            
+            try (ResultSet rs = hot) {
+                boolean hasHot = rs.next();
+                int hotDay = hasHot ? (int) rs.getObject(1, LocalDate.class).toEpochDay() : 0;
+                
+                while (hasHot || hasCold) {
+                    line.setLength(0);
+                    if (hasHot && (!hasCold || hotDay >= cold.getEpochDay())) {
+                        double usageHours = rs.getDouble(6);
+                        appendCsvLine(line, hotDay, rs.getString(2), rs.getDouble(3), rs.getDouble(4),
+                                rs.getString(5), usageHours, !rs.wasNull());
+                        hasHot = rs.next();
+                        if (hasHot) {
+                            hotDay = (int) rs.getObject(1, LocalDate.class).toEpochDay();
+                        }
+                    } else {
+                        Double usageHours = cold.getUsageHours();
+                        appendCsvLine(line, cold.getEpochDay(), cold.getApplianceName(), cold.getKwh(), cold.getCost(),
+                                cold.getTariffType(), usageHours != null ? usageHours : 0, usageHours != null);
+                        hasCold = cold.next();
+                    }
+                    out.append(line);
+                    
+                    if (++rows % EXPORT_FLUSH_ROWS == 0) {
+                        // Отдаём клиенту очередной фрагмент (chunked transfer)
+                        out.flush();
+                    }
+                }
+            }
+        }
+        out.flush();
+        return rows;
+    }
+    
+    private void appendCsvLine(StringBuilder line, int epochDay, String applianceName, double kwh, double cost,
+                               String tariffType, double usageHours, boolean hasUsageHours) {
+        EpochDays.appendIsoDate(line, epochDay).append(';');
+        line.append(applianceName != null ? applianceName : "Общее").append(';');
+        FixedDecimal.append(line, kwh, 4).append(';');
+        FixedDecimal.append(line, cost, 2).append(';');
+        line.append(tariffType != null ? tariffType : "").append(';');
+        if (hasUsageHours) {
+            FixedDecimal.append(line, usageHours, 2);
         }
+        line.append('\n');
+    }
+    
+    /**
+     * Обработчик строки при потоковом чтении записей (без создания ConsumptionRecord)
+     */
+    @FunctionalInterface
+    public interface RecordRowHandler {
+        /**
+         * @param epochDay день записи от 1970-01-01
+         * @param applianceId ID прибора (0 для общих записей)
+         * @param kwh потребление
+         * @param cost стоимость
+         * @param tariffType тип тарифа (может быть null)
+         */
+        void row(int epochDay, int applianceId, double kwh, double cost, String tariffType);
+    }
+    
+    /**
+     * Потоковое чтение всех записей пользователя (для ConsumptionStore)
+     * Сначала отдаются записи из ColdStorage (от новых к старым), затем из базы в порядке дат
+     * @param userId ID пользователя
+     * @param handler обработчик строк
+     * @return количество прочитанных записей
+     */
+    public int scanRecords(int userId, RecordRowHandler handler) throws SQLException {
+        String sql = "SELECT record_date, appliance_id, consumption_kwh, cost, tariff_type " +
+                    "FROM consumption_records WHERE user_id = ? ORDER BY record_date";
+        
+        int rows = 0;
         
-        return csv.toString();
+        Lock lock = ColdStorage.lock().readLock();
+        lock.lock();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            
+            ColdStorage.Cursor cold = ColdStorage.cursor(userId, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            while (cold.next()) {
+                handler.row(cold.getEpochDay(), cold.getApplianceId(), cold.getKwh(), cold.getCost(), cold.getTariffType());
+                rows++;
+            }
+            
+            stmt.setFetchSize(EXPORT_FETCH_SIZE);
+            stmt.setInt(1, userId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    // getInt возвращает 0 для NULL - это и есть ключ общих записей
+                    handler.row((int) rs.getObject(1, LocalDate.class).toEpochDay(), rs.getInt(2),
+                            rs.getDouble(3), rs.getDouble(4), rs.getString(5));
+                    rows++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return rows;
     }
     
     private ConsumptionRecord mapResultSetToRecord(ResultSet rs) throws SQLException {
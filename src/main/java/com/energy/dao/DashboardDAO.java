@@ -0,0 +1,93 @@
+package com.energy.dao;
+
+import com.energy.model.DashboardSummary;
+import com.energy.util.DatabaseConnection;
+
+import java.sql.*;
+import java.time.LocalDate;
+
+/**
+ * DAO класс для данных главной панели
+ * Собирает все показатели панели одним запросом вместо серии обращений к разным DAO
+ * Месячные суммы читаются из consumption_monthly_rollup; стоимость суточного потребления приборов
+ * считается по тарифам времени суток (CostEngine) из кэшей приборов и расписаний
+ */
+public class DashboardDAO {
+    
+    private static final String SUMMARY_SQL =
+            "SELECT " +
+            "(SELECT COUNT(*) FROM appliances WHERE user_id = ?) as appliance_count, " +
+            "(SELECT COUNT(*) FROM appliance_groups WHERE user_id = ?) as group_count, " +
+            "(SELECT COALESCE(SUM(power_watts * daily_usage_hours * quantity / 1000), 0) " +
+            " FROM appliances WHERE user_id = ? AND is_active = TRUE) as daily_kwh, " +
+            "m.current_kwh, m.current_cost, m.previous_kwh, " +
+            "t.name as tariff_name, t.rate_per_kwh as tariff_rate " +
+            "FROM (" +
+            "  SELECT COALESCE(SUM(CASE WHEN month_start = ? THEN total_kwh END), 0) as current_kwh, " +
+            "         COALESCE(SUM(CASE WHEN month_start = ? THEN total_cost END), 0) as current_cost, " +
+            "         COALESCE(SUM(CASE WHEN month_start < ? THEN total_kwh END), 0) as previous_kwh " +
+            "  FROM consumption_monthly_rollup WHERE user_id = ? AND month_start >= ? AND month_start <= ?" +
+            ") m " +
+            "LEFT JOIN (" +
+            "  SELECT name, rate_per_kwh FROM tariffs " +
+            "  WHERE user_id = ? AND is_active = TRUE " +
+            "  AND valid_from <= CURDATE() AND (valid_to IS NULL OR valid_to >= CURDATE()) " +
+            // Сначала тариф, действующий в указанный час; иначе первый активный (как в TariffDAO.getTariffForHour)
+            "  ORDER BY CASE WHEN (start_hour <= end_hour AND ? >= start_hour AND ? < end_hour) " +
+            "             OR (start_hour > end_hour AND (? >= start_hour OR ? < end_hour)) THEN 0 ELSE 1 END, " +
+            "           tariff_type, start_hour " +
+            "  LIMIT 1" +
+            ") t ON TRUE";
+    
+    /**
+     * Получение всех показателей главной панели за один запрос
+     * @param userId ID пользователя
+     * @param hour текущий час (0-23) для определения действующего тарифа
+     * @return сводка для панели
+     */
+    public DashboardSummary getSummary(int userId, int hour) throws SQLException {
+        LocalDate currentMonthStart = LocalDate.now().withDayOfMonth(1);
+        Date currentStart = Date.valueOf(currentMonthStart);
+        Date previousStart = Date.valueOf(currentMonthStart.minusMonths(1));
+        
+        DashboardSummary summary = new DashboardSummary();
+        
+        try (Connection conn = DatabaseConnection.getPooledConnection();
+             PreparedStatement stmt = conn.prepareStatement(SUMMARY_SQL)) {
+            
+            int i = 1;
+            stmt.setInt(i++, userId);
+            stmt.setInt(i++, userId);
+            stmt.setInt(i++, userId);
+            stmt.setDate(i++, currentStart);
+            stmt.setDate(i++, currentStart);
+            stmt.setDate(i++, currentStart);
+            stmt.setInt(i++, userId);
+            stmt.setDate(i++, previousStart);
+            stmt.setDate(i++, currentStart);
+            stmt.setInt(i++, userId);
+            for (int k = 0; k < 4; k++) {
+                stmt.setInt(i++, hour);
+            }
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    summary.setApplianceCount(rs.getInt("appliance_count"));
+                    summary.setGroupCount(rs.getInt("group_count"));
+                    summary.setTotalDailyKwh(rs.getDouble("daily_kwh"));
+                    summary.setCurrentMonthKwh(rs.getDouble("current_kwh"));
+                    summary.setCurrentMonthCost(rs.getDouble("current_cost"));
+                    summary.setPreviousMonthKwh(rs.getDouble("previous_kwh"));
+                    
+                    String tariffName = rs.getString("tariff_name");
+                    if (tariffName != null) {
+                        summary.setCurrentTariffName(tariffName);
+                        summary.setCurrentTariffRate(rs.getDouble("tariff_rate"));
+                    }
+                }
+            }
+        }
+        summary.setTotalDailyCost(TariffCache.get(userId).getCostEngine().totalDailyCost(ApplianceCache.findByUserId(userId)));
+        return summary;
+    }
+}
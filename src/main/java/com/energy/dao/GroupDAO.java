@@ -15,22 +15,16 @@ public class GroupDAO {
     
     /**
      * Получение всех групп пользователя с статистикой
+     * Число приборов и потребление берутся из итогов ApplianceCache, приборы заново не суммируются
      * @param userId ID пользователя
      * @return список групп
      */
     public List<ApplianceGroup> findByUserId(int userId) throws SQLException {
-        String sql = "SELECT g.*, " +
-                    "COUNT(a.id) as appliance_count, " +
-                    "COALESCE(SUM(a.power_watts * a.daily_usage_hours * a.quantity / 1000), 0) as daily_kwh, " +
-                    "COALESCE(SUM(a.power_watts * a.daily_usage_hours * a.quantity / 1000 * 30), 0) as monthly_kwh " +
-                    "FROM appliance_groups g " +
-                    "LEFT JOIN appliances a ON g.id = a.group_id AND a.is_active = TRUE " +
-                    "WHERE g.user_id = ? " +
-                    "GROUP BY g.id ORDER BY g.name";
+        String sql = "SELECT g.* FROM appliance_groups g WHERE g.user_id = ? ORDER BY g.name";
         
         List<ApplianceGroup> groups = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
@@ -41,6 +35,14 @@ public class GroupDAO {
                 }
             }
         }
+        
+        ApplianceCache.Snapshot snapshot = ApplianceCache.get(userId);
+        for (ApplianceGroup group : groups) {
+            ApplianceCache.GroupTotals totals = snapshot.getGroupTotals(group.getId());
+            group.setApplianceCount(totals.getCount());
+            group.setTotalDailyKwh(totals.getDailyKwh());
+            group.setTotalMonthlyKwh(totals.getDailyKwh() * 30);
+        }
         return groups;
     }
     
@@ -58,7 +60,7 @@ public class GroupDAO {
                     "LEFT JOIN appliances a ON g.id = a.group_id AND a.is_active = TRUE " +
                     "WHERE g.id = ? GROUP BY g.id";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
@@ -80,7 +82,7 @@ public class GroupDAO {
     public ApplianceGroup create(ApplianceGroup group) throws SQLException {
         String sql = "INSERT INTO appliance_groups (user_id, name, description, icon, color) VALUES (?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             stmt.setInt(1, group.getUserId());
@@ -111,7 +113,7 @@ public class GroupDAO {
     public boolean update(ApplianceGroup group) throws SQLException {
         String sql = "UPDATE appliance_groups SET name = ?, description = ?, icon = ?, color = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, group.getName());
@@ -132,7 +134,7 @@ public class GroupDAO {
     public boolean delete(int id) throws SQLException {
         String sql = "DELETE FROM appliance_groups WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
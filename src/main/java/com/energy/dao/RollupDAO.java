@@ -0,0 +1,251 @@
+package com.energy.dao;
+
+import com.energy.model.ConsumptionRecord;
+import com.energy.store.ColdStorage;
+import com.energy.util.DatabaseConnection;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * DAO класс для предагрегированных таблиц потребления
+ * Поддерживает таблицы consumption_daily_rollup, consumption_monthly_rollup
+ * и consumption_appliance_monthly_rollup в согласованном состоянии с consumption_records
+ */
+public class RollupDAO {
+    
+    private static final String UPSERT_DAILY_SQL =
+            "INSERT INTO consumption_daily_rollup (user_id, record_date, total_kwh, total_cost, record_count) " +
+            "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+            "total_kwh = total_kwh + VALUES(total_kwh), total_cost = total_cost + VALUES(total_cost), " +
+            "record_count = record_count + VALUES(record_count)";
+    
+    private static final String UPSERT_MONTHLY_SQL =
+            "INSERT INTO consumption_monthly_rollup (user_id, month_start, total_kwh, total_cost, record_count, days_recorded) " +
+            "VALUES (?, ?, ?, ?, ?, 0) ON DUPLICATE KEY UPDATE " +
+            "total_kwh = total_kwh + VALUES(total_kwh), total_cost = total_cost + VALUES(total_cost), " +
+            "record_count = record_count + VALUES(record_count)";
+    
+    private static final String REFRESH_DAYS_SQL =
+            "UPDATE consumption_monthly_rollup SET days_recorded = " +
+            "(SELECT COUNT(*) FROM consumption_daily_rollup d " +
+            " WHERE d.user_id = ? AND d.record_date >= ? AND d.record_date < ?) " +
+            "WHERE user_id = ? AND month_start = ?";
+    
+    private static final String UPSERT_APPLIANCE_SQL =
+            "INSERT INTO consumption_appliance_monthly_rollup (user_id, appliance_id, month_start, total_kwh, total_cost, record_count) " +
+            "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+            "total_kwh = total_kwh + VALUES(total_kwh), total_cost = total_cost + VALUES(total_cost), " +
+            "record_count = record_count + VALUES(record_count)";
+    
+    // Число холодных записей, учитываемых в агрегатах за один вызов apply при пересчёте
+    private static final int COLD_CHUNK_SIZE = 10000;
+    
+    /**
+     * Приращение агрегатов по одному ключу
+     */
+    private static class Delta {
+        final int userId;
+        final int applianceId;
+        final LocalDate date;
+        double kwh;
+        double cost;
+        int count;
+        
+        Delta(int userId, int applianceId, LocalDate date) {
+            this.userId = userId;
+            this.applianceId = applianceId;
+            this.date = date;
+        }
+        
+        void add(ConsumptionRecord record) {
+            kwh += record.getConsumptionKwh();
+            cost += record.getCost();
+            count++;
+        }
+    }
+    
+    /**
+     * Учёт новых записей во всех агрегатах
+     * Вызывается в той же транзакции, что и вставка записей
+     * @param conn соединение с открытой транзакцией
+     * @param records вставленные записи
+     */
+    public void apply(Connection conn, Collection<ConsumptionRecord> records) throws SQLException {
+        // Сначала сворачиваем записи в Java, чтобы на каждый ключ приходился один UPSERT
+        Map<String, Delta> daily = new LinkedHashMap<>();
+        Map<String, Delta> monthly = new LinkedHashMap<>();
+        Map<String, Delta> byAppliance = new LinkedHashMap<>();
+        
+        for (ConsumptionRecord record : records) {
+            int userId = record.getUserId();
+            LocalDate date = record.getRecordDate().toLocalDate();
+            LocalDate monthStart = date.withDayOfMonth(1);
+            int applianceId = record.getApplianceId() != null ? record.getApplianceId() : 0;
+            
+            daily.computeIfAbsent(userId + ":" + date, k -> new Delta(userId, 0, date)).add(record);
+            monthly.computeIfAbsent(userId + ":" + monthStart, k -> new Delta(userId, 0, monthStart)).add(record);
+            byAppliance.computeIfAbsent(userId + ":" + applianceId + ":" + monthStart,
+                    k -> new Delta(userId, applianceId, monthStart)).add(record);
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(UPSERT_DAILY_SQL)) {
+            for (Delta d : daily.values()) {
+                stmt.setInt(1, d.userId);
+                stmt.setDate(2, Date.valueOf(d.date));
+                stmt.setDouble(3, d.kwh);
+                stmt.setDouble(4, d.cost);
+                stmt.setInt(5, d.count);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(UPSERT_MONTHLY_SQL)) {
+            for (Delta d : monthly.values()) {
+                stmt.setInt(1, d.userId);
+                stmt.setDate(2, Date.valueOf(d.date));
+                stmt.setDouble(3, d.kwh);
+                stmt.setDouble(4, d.cost);
+                stmt.setInt(5, d.count);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        
+        // Количество дней с данными пересчитывается по дневному агрегату затронутых месяцев
+        try (PreparedStatement stmt = conn.prepareStatement(REFRESH_DAYS_SQL)) {
+            for (Delta d : monthly.values()) {
+                Date monthStart = Date.valueOf(d.date);
+                stmt.setInt(1, d.userId);
+                stmt.setDate(2, monthStart);
+                stmt.setDate(3, Date.valueOf(d.date.plusMonths(1)));
+                stmt.setInt(4, d.userId);
+                stmt.setDate(5, monthStart);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(UPSERT_APPLIANCE_SQL)) {
+            for (Delta d : byAppliance.values()) {
+                stmt.setInt(1, d.userId);
+                stmt.setInt(2, d.applianceId);
+                stmt.setDate(3, Date.valueOf(d.date));
+                stmt.setDouble(4, d.kwh);
+                stmt.setDouble(5, d.cost);
+                stmt.setInt(6, d.count);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    /**
+     * Перенос агрегатов удаляемого прибора в общие записи (appliance_id = 0)
+     * Записи удалённого прибора получают appliance_id = NULL (ON DELETE SET NULL)
+     * @param conn соединение с открытой транзакцией
+     * @param applianceId ID удаляемого прибора
+     */
+    public void foldAppliance(Connection conn, int applianceId) throws SQLException {
+        String moveSql = "INSERT INTO consumption_appliance_monthly_rollup " +
+                        "(user_id, appliance_id, month_start, total_kwh, total_cost, record_count) " +
+                        "SELECT user_id, 0, month_start, total_kwh, total_cost, record_count " +
+                        "FROM consumption_appliance_monthly_rollup WHERE appliance_id = ? " +
+                        "ON DUPLICATE KEY UPDATE total_kwh = consumption_appliance_monthly_rollup.total_kwh + VALUES(total_kwh), " +
+                        "total_cost = consumption_appliance_monthly_rollup.total_cost + VALUES(total_cost), " +
+                        "record_count = consumption_appliance_monthly_rollup.record_count + VALUES(record_count)";
+        String deleteSql = "DELETE FROM consumption_appliance_monthly_rollup WHERE appliance_id = ?";
+        
+        try (PreparedStatement move = conn.prepareStatement(moveSql);
+             PreparedStatement delete = conn.prepareStatement(deleteSql)) {
+            move.setInt(1, applianceId);
+            move.executeUpdate();
+            delete.setInt(1, applianceId);
+            delete.executeUpdate();
+        }
+    }
+    
+    /**
+     * Полный пересчёт агрегатов пользователя по сырым записям (включая перенесённые в ColdStorage)
+     * @param userId ID пользователя
+     */
+    public void rebuild(int userId) throws SQLException {
+        rebuild("WHERE user_id = ?", userId);
+    }
+    
+    /**
+     * Полный пересчёт агрегатов всех пользователей (включая записи в ColdStorage)
+     */
+    public void rebuildAll() throws SQLException {
+        rebuild("", null);
+    }
+    
+    private void rebuild(String where, Integer userId) throws SQLException {
+        String[] sql = {
+            "DELETE FROM consumption_daily_rollup " + where,
+            "DELETE FROM consumption_monthly_rollup " + where,
+            "DELETE FROM consumption_appliance_monthly_rollup " + where,
+            "INSERT INTO consumption_daily_rollup (user_id, record_date, total_kwh, total_cost, record_count) " +
+            "SELECT user_id, record_date, SUM(consumption_kwh), SUM(cost), COUNT(*) " +
+            "FROM consumption_records " + where + " GROUP BY user_id, record_date",
+            "INSERT INTO consumption_monthly_rollup (user_id, month_start, total_kwh, total_cost, record_count, days_recorded) " +
+            "SELECT user_id, DATE_FORMAT(record_date, '%Y-%m-01'), SUM(total_kwh), SUM(total_cost), SUM(record_count), COUNT(*) " +
+            "FROM consumption_daily_rollup " + where + " GROUP BY user_id, DATE_FORMAT(record_date, '%Y-%m-01')",
+            "INSERT INTO consumption_appliance_monthly_rollup (user_id, appliance_id, month_start, total_kwh, total_cost, record_count) " +
+            "SELECT user_id, COALESCE(appliance_id, 0), DATE_FORMAT(record_date, '%Y-%m-01'), SUM(consumption_kwh), SUM(cost), COUNT(*) " +
+            "FROM consumption_records " + where + " GROUP BY user_id, COALESCE(appliance_id, 0), DATE_FORMAT(record_date, '%Y-%m-01')"
+        };
+        
+        // Записи, перенесённые в ColdStorage во время пересчёта, не должны выпасть из агрегатов
+        Lock lock = ColdStorage.lock().readLock();
+        lock.lock();
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (String statement : sql) {
+                    try (PreparedStatement stmt = conn.prepareStatement(statement)) {
+                        if (userId != null) {
+                            stmt.setInt(1, userId);
+                        }
+                        stmt.executeUpdate();
+                    }
+                }
+                applyCold(conn, userId != null ? Collections.singleton(userId) : ColdStorage.getUserIds());
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Учёт записей из ColdStorage в пересчитанных агрегатах (порциями по COLD_CHUNK_SIZE)
+     */
+    private void applyCold(Connection conn, Collection<Integer> userIds) throws SQLException {
+        List<ConsumptionRecord> chunk = new ArrayList<>();
+        for (int userId : userIds) {
+            ColdStorage.Cursor cursor = ColdStorage.cursor(userId, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            while (cursor.next()) {
+                chunk.add(cursor.toRecord());
+                if (chunk.size() == COLD_CHUNK_SIZE) {
+                    apply(conn, chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            apply(conn, chunk);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.energy.dao;
+
+import com.energy.model.Tariff;
+import com.energy.model.TariffSchedule;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш расписаний тарифов пользователей
+ * Хранит не более energy.tariffCache.maxUsers расписаний, вытесняя давно не использованные (LRU).
+ * Расписание действует до конца дня, на который построено, и сбрасывается при изменении тарифов пользователя
+ */
+public class TariffCache {
+    
+    private static final int MAX_USERS = Integer.getInteger("energy.tariffCache.maxUsers", 10000);
+    
+    private static final Map<Integer, TariffSchedule> SCHEDULES = new LinkedHashMap<Integer, TariffSchedule>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, TariffSchedule> eldest) {
+            return size() > MAX_USERS;
+        }
+    };
+    
+    // Счётчик сбросов: расписание, загрузка которого пересеклась со сбросом, в кэш не попадает
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+    
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    
+    private static final TariffDAO TARIFF_DAO = new TariffDAO();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private TariffCache() {}
+    
+    /**
+     * Расписание тарифов пользователя на сегодня
+     * @param userId ID пользователя
+     */
+    public static TariffSchedule get(int userId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        TariffSchedule schedule;
+        synchronized (SCHEDULES) {
+            schedule = SCHEDULES.get(userId);
+        }
+        if (schedule != null && schedule.getDate().equals(today)) {
+            HITS.incrementAndGet();
+            return schedule;
+        }
+        
+        MISSES.incrementAndGet();
+        long invalidations = INVALIDATIONS.get();
+        schedule = load(userId, today);
+        synchronized (SCHEDULES) {
+            if (INVALIDATIONS.get() == invalidations) {
+                SCHEDULES.put(userId, schedule);
+            }
+        }
+        return schedule;
+    }
+    
+    /**
+     * Сброс расписания после изменения тарифов пользователя
+     * @param userId ID пользователя
+     */
+    public static void invalidate(int userId) {
+        INVALIDATIONS.incrementAndGet();
+        synchronized (SCHEDULES) {
+            SCHEDULES.remove(userId);
+        }
+    }
+    
+    /**
+     * Метрики кэша
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (SCHEDULES) {
+            metrics.put("size", SCHEDULES.size());
+        }
+        metrics.put("maxUsers", MAX_USERS);
+        metrics.put("hits", HITS.get());
+        metrics.put("misses", MISSES.get());
+        return metrics;
+    }
+    
+    /**
+     * Построение расписания одним запросом: расписание часов - по тарифам, действующим на указанный день
+     */
+    private static TariffSchedule load(int userId, LocalDate day) throws SQLException {
+        List<Tariff> active = TARIFF_DAO.findAllActive(userId);
+        Date date = Date.valueOf(day);
+        
+        List<Tariff> validToday = new ArrayList<>();
+        for (Tariff tariff : active) {
+            boolean started = tariff.getValidFrom() == null || !tariff.getValidFrom().after(date);
+            boolean notEnded = tariff.getValidTo() == null || !tariff.getValidTo().before(date);
+            if (started && notEnded) {
+                validToday.add(tariff);
+            }
+        }
+        return new TariffSchedule(day, validToday);
+    }
+}
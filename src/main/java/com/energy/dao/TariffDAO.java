@@ -1,5 +1,6 @@
 package com.energy.dao;
 
+import com.energy.model.CostEngine;
 import com.energy.model.Tariff;
 import com.energy.util.DatabaseConnection;
 
@@ -23,7 +24,7 @@ public class TariffDAO {
         
         List<Tariff> tariffs = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
@@ -38,18 +39,26 @@ public class TariffDAO {
     }
     
     /**
-     * Получение активных тарифов пользователя
+     * Получение тарифов пользователя, действующих сегодня (из кэша расписаний)
      * @param userId ID пользователя
      * @return список активных тарифов
      */
     public List<Tariff> findActiveByUserId(int userId) throws SQLException {
+        return new ArrayList<>(TariffCache.get(userId).getActiveTariffs());
+    }
+    
+    /**
+     * Загрузка всех активных тарифов пользователя без учёта срока действия (для построения расписания)
+     * @param userId ID пользователя
+     * @return список тарифов в порядке tariff_type, start_hour
+     */
+    List<Tariff> findAllActive(int userId) throws SQLException {
         String sql = "SELECT * FROM tariffs WHERE user_id = ? AND is_active = TRUE " +
-                    "AND valid_from <= CURDATE() AND (valid_to IS NULL OR valid_to >= CURDATE()) " +
                     "ORDER BY tariff_type, start_hour";
         
         List<Tariff> tariffs = new ArrayList<>();
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, userId);
@@ -71,7 +80,7 @@ public class TariffDAO {
     public Tariff findById(int id) throws SQLException {
         String sql = "SELECT * FROM tariffs WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
@@ -94,7 +103,7 @@ public class TariffDAO {
         String sql = "INSERT INTO tariffs (user_id, name, tariff_type, rate_per_kwh, start_hour, end_hour, is_active, valid_from, valid_to) " +
                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             stmt.setInt(1, tariff.getUserId());
@@ -130,7 +139,7 @@ public class TariffDAO {
         String sql = "UPDATE tariffs SET name = ?, tariff_type = ?, rate_per_kwh = ?, " +
                     "start_hour = ?, end_hour = ?, is_active = ?, valid_from = ?, valid_to = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, tariff.getName());
@@ -155,7 +164,7 @@ public class TariffDAO {
     public boolean delete(int id) throws SQLException {
         String sql = "DELETE FROM tariffs WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
@@ -164,45 +173,22 @@ public class TariffDAO {
     }
     
     /**
-     * Получение среднего тарифа пользователя
+     * Получение расчёта стоимости по тарифам пользователя на сегодня (из кэша расписаний)
      * @param userId ID пользователя
-     * @return средний тариф за кВт·ч
+     * @return расчёт стоимости (по TariffSchedule.DEFAULT_RATE, если действующих тарифов нет)
      */
-    public double getAverageRate(int userId) throws SQLException {
-        String sql = "SELECT AVG(rate_per_kwh) as avg_rate FROM tariffs " +
-                    "WHERE user_id = ? AND is_active = TRUE";
-        
-        try (Connection conn = DatabaseConnection.createNewConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, userId);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getDouble("avg_rate");
-                }
-            }
-        }
-        return 5.5; // Значение по умолчанию
+    public CostEngine getCostEngine(int userId) throws SQLException {
+        return TariffCache.get(userId).getCostEngine();
     }
     
     /**
-     * Получение тарифа для указанного часа
+     * Получение тарифа для указанного часа (из кэша расписаний)
      * @param userId ID пользователя
      * @param hour час (0-23)
      * @return тариф или null
      */
     public Tariff getTariffForHour(int userId, int hour) throws SQLException {
-        List<Tariff> tariffs = findActiveByUserId(userId);
-        
-        for (Tariff tariff : tariffs) {
-            if (tariff.isActiveAtHour(hour)) {
-                return tariff;
-            }
-        }
-        
-        // Возвращаем первый активный тариф, если не найден специфичный
-        return tariffs.isEmpty() ? null : tariffs.get(0);
+        return TariffCache.get(userId).getTariffForHour(hour);
     }
     
     private Tariff mapResultSetToTariff(ResultSet rs) throws SQLException {
@@ -22,7 +22,7 @@ public class UserDAO {
     public User register(String username, String email, String password) throws SQLException {
         String sql = "INSERT INTO users (username, email, password_hash) VALUES (?, ?, ?)";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             String passwordHash = PasswordHasher.hashPassword(password);
@@ -63,7 +63,7 @@ public class UserDAO {
     public User login(String username, String password) throws SQLException {
         String sql = "SELECT * FROM users WHERE (username = ? OR email = ?) AND is_active = TRUE";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, username);
@@ -91,7 +91,7 @@ public class UserDAO {
     public User findById(int id) throws SQLException {
         String sql = "SELECT * FROM users WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, id);
@@ -114,7 +114,7 @@ public class UserDAO {
     public boolean exists(String username, String email) throws SQLException {
         String sql = "SELECT COUNT(*) FROM users WHERE username = ? OR email = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, username);
@@ -137,7 +137,7 @@ public class UserDAO {
     public boolean update(User user) throws SQLException {
         String sql = "UPDATE users SET username = ?, email = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, user.getUsername());
@@ -157,7 +157,7 @@ public class UserDAO {
     public boolean changePassword(int userId, String newPassword) throws SQLException {
         String sql = "UPDATE users SET password_hash = ? WHERE id = ?";
         
-        try (Connection conn = DatabaseConnection.createNewConnection();
+        try (Connection conn = DatabaseConnection.getPooledConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, PasswordHasher.hashPassword(newPassword));
@@ -0,0 +1,229 @@
+package com.energy.filter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Поток ответа со сжатием
+ * Первые байты накапливаются в буфере; сжатие включается, только когда ответ превысил порог
+ * и его тип подходит для сжатия. Короткие ответы отправляются как есть с Content-Length
+ */
+class CompressingOutputStream extends ServletOutputStream {
+    
+    // Заголовок gzip (RFC 1952): без имени файла и времени, ОС неизвестна
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    
+    private final HttpServletResponse response;
+    private final String encoding;
+    private final DeflaterPool pool;
+    private final int threshold;
+    
+    private byte[] buffer;
+    private int count;
+    
+    // Поток контейнера; null, пока не решено, сжимать ли ответ
+    private OutputStream target;
+    private Deflater deflater;
+    private CRC32 crc;
+    private byte[] chunk;
+    private boolean finished;
+    private boolean finishing;
+    
+    /**
+     * @param response исходный ответ контейнера
+     * @param encoding "gzip" или "deflate"
+     * @param pool пул Deflater для выбранного формата
+     * @param threshold минимальный размер ответа для сжатия, байт
+     */
+    CompressingOutputStream(HttpServletResponse response, String encoding, DeflaterPool pool, int threshold) {
+        this.response = response;
+        this.encoding = encoding;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.buffer = new byte[Math.min(threshold, 8192)];
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Поток ответа закрыт");
+        }
+        if (target == null) {
+            if (count + len < threshold) {
+                if (count + len > buffer.length) {
+                    byte[] grown = new byte[Math.min(Math.max(buffer.length * 2, count + len), threshold)];
+                    System.arraycopy(buffer, 0, grown, 0, count);
+                    buffer = grown;
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+                return;
+            }
+            start(isCompressible());
+        }
+        if (deflater != null) {
+            deflate(b, off, len);
+        } else {
+            target.write(b, off, len);
+        }
+    }
+    
+    /**
+     * Явный сброс до достижения порога фиксирует ответ без сжатия;
+     * при сжатии выполняется SYNC_FLUSH, чтобы клиент получил уже сжатые данные (потоковый экспорт)
+     */
+    @Override
+    public void flush() throws IOException {
+        if (finished || finishing) {
+            return;
+        }
+        if (target == null) {
+            start(false);
+        }
+        if (deflater != null) {
+            int n;
+            do {
+                n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                target.write(chunk, 0, n);
+            } while (n == chunk.length);
+        }
+        target.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+    
+    /**
+     * Завершение ответа: запись остатка буфера или окончания сжатого потока
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if (target == null) {
+                if (count == 0) {
+                    return;
+                }
+                // Короткий ответ целиком в буфере - длина известна
+                response.setContentLength(count);
+                target = response.getOutputStream();
+                target.write(buffer, 0, count);
+            } else if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(chunk);
+                    target.write(chunk, 0, n);
+                }
+                if (crc != null) {
+                    writeIntLE((int) crc.getValue());
+                    writeIntLE((int) deflater.getBytesRead());
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+    
+    /**
+     * Переход к завершению: последующие flush() ничего не делают
+     */
+    void setFinishing() {
+        finishing = true;
+    }
+    
+    /**
+     * Сброс накопленного буфера (HttpServletResponse.reset/resetBuffer до фиксации ответа)
+     */
+    void resetBuffer() {
+        if (target == null) {
+            count = 0;
+        }
+    }
+    
+    boolean isStarted() {
+        return target != null;
+    }
+    
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+    
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException("Асинхронная запись не поддерживается при сжатии");
+    }
+    
+    private boolean isCompressible() {
+        int status = response.getStatus();
+        if (status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_NOT_MODIFIED
+                || response.containsHeader("Content-Encoding")) {
+            return false;
+        }
+        String contentType = response.getContentType();
+        return contentType != null && (contentType.startsWith("text/") || contentType.startsWith("application/json")
+                || contentType.startsWith("application/javascript") || contentType.startsWith("image/svg+xml"));
+    }
+    
+    private void start(boolean compress) throws IOException {
+        if (compress) {
+            response.setHeader("Content-Encoding", encoding);
+            deflater = pool.borrow();
+            chunk = new byte[8192];
+            target = response.getOutputStream();
+            if ("gzip".equals(encoding)) {
+                crc = new CRC32();
+                target.write(GZIP_HEADER);
+            }
+            deflate(buffer, 0, count);
+        } else {
+            target = response.getOutputStream();
+            target.write(buffer, 0, count);
+        }
+        buffer = null;
+        count = 0;
+    }
+    
+    private void deflate(byte[] b, int off, int len) throws IOException {
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(chunk);
+            target.write(chunk, 0, n);
+        }
+    }
+    
+    private void writeIntLE(int value) throws IOException {
+        target.write(value & 0xff);
+        target.write((value >>> 8) & 0xff);
+        target.write((value >>> 16) & 0xff);
+        target.write((value >>> 24) & 0xff);
+    }
+    
+    /**
+     * Возврат Deflater в пул (в том числе при ошибке записи)
+     */
+    void release() {
+        finished = true;
+        if (deflater != null) {
+            pool.release(deflater);
+            deflater = null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.energy.filter;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Фильтр сжатия ответов
+ * Для статических файлов отдаёт заранее сжатый вариант (.gz, создаётся при сборке) без затрат CPU;
+ * динамические ответы (JSON, CSV) сжимает на лету gzip или deflate, если они длиннее порога.
+ * Подключается в web.xml после фильтра кодировки
+ */
+public class CompressionFilter implements Filter {
+    
+    private static final int MIN_SIZE = Math.max(Integer.getInteger("energy.compression.minSize", 1024), 1);
+    private static final int LEVEL = Integer.getInteger("energy.compression.level", 6);
+    private static final int POOL_SIZE = Integer.getInteger("energy.compression.poolSize", 32);
+    
+    private final DeflaterPool gzipPool = new DeflaterPool(POOL_SIZE, LEVEL, true);
+    private final DeflaterPool deflatePool = new DeflaterPool(POOL_SIZE, LEVEL, false);
+    
+    // Сжатые варианты развёрнутых статических файлов (путь -> ресурс .gz), собираются при запуске
+    private Map<String, URL> precompressed = Collections.emptyMap();
+    
+    private ServletContext servletContext;
+    
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        servletContext = filterConfig.getServletContext();
+        Map<String, URL> resources = new HashMap<>();
+        collectPrecompressed("/", resources);
+        precompressed = Collections.unmodifiableMap(resources);
+    }
+    
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+            throws IOException, ServletException {
+        
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+        
+        response.addHeader("Vary", "Accept-Encoding");
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        
+        if ("gzip".equals(encoding) && servePrecompressed(request, response)) {
+            return;
+        }
+        
+        DeflaterPool pool = "gzip".equals(encoding) ? gzipPool : deflatePool;
+        CompressionResponseWrapper wrapper = new CompressionResponseWrapper(response, encoding, pool, MIN_SIZE);
+        try {
+            chain.doFilter(request, wrapper);
+            wrapper.finish();
+        } finally {
+            wrapper.release();
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        precompressed = Collections.emptyMap();
+    }
+    
+    /**
+     * Обход развёрнутых ресурсов и сбор файлов .gz (кроме WEB-INF и META-INF)
+     */
+    private void collectPrecompressed(String dir, Map<String, URL> resources) {
+        Set<String> paths = servletContext.getResourcePaths(dir);
+        if (paths == null) {
+            return;
+        }
+        for (String path : paths) {
+            if (path.endsWith("/")) {
+                if (!"/WEB-INF/".equals(path) && !"/META-INF/".equals(path)) {
+                    collectPrecompressed(path, resources);
+                }
+            } else if (path.endsWith(".gz")) {
+                try {
+                    URL url = servletContext.getResource(path);
+                    if (url != null) {
+                        resources.put(path.substring(0, path.length() - 3), url);
+                    }
+                } catch (MalformedURLException e) {
+                    servletContext.log("Некорректный путь ресурса " + path, e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Выбор кодировки по заголовку Accept-Encoding (gzip предпочтительнее)
+     * @return "gzip", "deflate" или null
+     */
+    private String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            if (parts.length > 1 && parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if ("gzip".equals(coding) || "*".equals(coding)) {
+                return "gzip";
+            }
+            if ("deflate".equals(coding)) {
+                deflate = true;
+            }
+        }
+        return deflate ? "deflate" : null;
+    }
+    
+    /**
+     * Отдача заранее сжатого статического файла
+     * @return false, если для пути нет .gz варианта
+     */
+    private boolean servePrecompressed(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.endsWith("/")) {
+            path += "index.html";
+        }
+        
+        // Только пути из собранного при запуске набора - запросы не добавляют записей
+        URL resource = precompressed.get(path);
+        if (resource == null) {
+            return false;
+        }
+        
+        URLConnection connection = resource.openConnection();
+        long lastModified = connection.getLastModified();
+        if (lastModified > 0) {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1;
+            }
+            if (ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000) {
+                connection.getInputStream().close();
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        
+        String mimeType = servletContext.getMimeType(path);
+        if (mimeType != null) {
+            response.setContentType(mimeType);
+        }
+        response.setHeader("Content-Encoding", "gzip");
+        long length = connection.getContentLengthLong();
+        if (length >= 0) {
+            response.setContentLengthLong(length);
+        }
+        
+        try (InputStream in = connection.getInputStream()) {
+            if ("HEAD".equals(method)) {
+                return true;
+            }
+            OutputStream out = response.getOutputStream();
+            in.transferTo(out);
+        }
+        return true;
+    }
+}
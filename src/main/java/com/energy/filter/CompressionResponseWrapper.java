@@ -0,0 +1,115 @@
+package com.energy.filter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Обёртка ответа, направляющая тело через CompressingOutputStream
+ * Content-Length от приложения игнорируется: после сжатия длина другая
+ */
+class CompressionResponseWrapper extends HttpServletResponseWrapper {
+    
+    private final CompressingOutputStream stream;
+    private PrintWriter writer;
+    private boolean streamUsed;
+    
+    CompressionResponseWrapper(HttpServletResponse response, String encoding, DeflaterPool pool, int threshold) {
+        super(response);
+        this.stream = new CompressingOutputStream(response, encoding, pool, threshold);
+    }
+    
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() уже вызван");
+        }
+        streamUsed = true;
+        return stream;
+    }
+    
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (streamUsed) {
+            throw new IllegalStateException("getOutputStream() уже вызван");
+        }
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+    
+    @Override
+    public void setContentLength(int len) {
+        // Длина определяется при завершении ответа
+    }
+    
+    @Override
+    public void setContentLengthLong(long len) {
+        // Длина определяется при завершении ответа
+    }
+    
+    @Override
+    public void setHeader(String name, String value) {
+        if (!"Content-Length".equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+    
+    @Override
+    public void addHeader(String name, String value) {
+        if (!"Content-Length".equalsIgnoreCase(name)) {
+            super.addHeader(name, value);
+        }
+    }
+    
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        stream.flush();
+    }
+    
+    @Override
+    public boolean isCommitted() {
+        return stream.isStarted() || super.isCommitted();
+    }
+    
+    @Override
+    public void reset() {
+        super.reset();
+        stream.resetBuffer();
+    }
+    
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        stream.resetBuffer();
+    }
+    
+    /**
+     * Завершение ответа после обработки запроса
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            // Остаток символов из кодировщика Writer; сброс не должен фиксировать ответ до решения о сжатии
+            stream.setFinishing();
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("Ошибка записи ответа");
+            }
+        }
+        stream.finish();
+    }
+    
+    /**
+     * Освобождение Deflater без записи остатка (при ошибке обработки)
+     */
+    void release() {
+        stream.release();
+    }
+}
@@ -0,0 +1,40 @@
+package com.energy.filter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Пул объектов Deflater
+ * Deflater держит нативную память (около 256 КБ на экземпляр), поэтому экземпляры переиспользуются,
+ * а лишние при возврате освобождаются через end()
+ */
+final class DeflaterPool {
+    
+    private final BlockingQueue<Deflater> idle;
+    private final int level;
+    private final boolean nowrap;
+    
+    /**
+     * @param maxIdle максимальное число простаивающих экземпляров
+     * @param level уровень сжатия (0-9)
+     * @param nowrap true - «сырой» deflate (для gzip), false - формат zlib
+     */
+    DeflaterPool(int maxIdle, int level, boolean nowrap) {
+        this.idle = new ArrayBlockingQueue<>(Math.max(maxIdle, 1));
+        this.level = level;
+        this.nowrap = nowrap;
+    }
+    
+    Deflater borrow() {
+        Deflater deflater = idle.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+    
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!idle.offer(deflater)) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.energy.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Создание .gz вариантов статических файлов при сборке (вызывается из pom.xml)
+ * Сжатый вариант записывается, только если он меньше исходного файла. Каталог результата
+ * создаётся заново, а из собранного ранее каталога приложения удаляются .gz файлы прошлых сборок,
+ * чтобы удалённый или изменённый файл не отдавался в старом сжатом виде
+ */
+public class StaticCompressor {
+    
+    private static final List<String> EXTENSIONS = Arrays.asList(".html", ".css", ".js", ".svg", ".json", ".txt");
+    
+    /**
+     * @param args каталог исходных файлов (src/main/webapp), каталог для .gz файлов
+     *             и (необязательно) каталог собираемого приложения
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            throw new IllegalArgumentException(
+                    "Использование: StaticCompressor <каталог webapp> <каталог результата> [каталог приложения]");
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        
+        deleteTree(target);
+        if (args.length == 3) {
+            deleteBuiltGzip(source, Paths.get(args[2]));
+        }
+        
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile)
+                        .filter(StaticCompressor::isCompressible)
+                        .collect(Collectors.toList());
+        }
+        
+        for (Path file : files) {
+            Path relative = source.relativize(file);
+            if (relative.startsWith("WEB-INF") || relative.startsWith("META-INF")) {
+                continue;
+            }
+            byte[] original = Files.readAllBytes(file);
+            byte[] compressed = gzip(original);
+            if (compressed.length >= original.length) {
+                continue;
+            }
+            Path output = target.resolve(relative.toString() + ".gz");
+            Files.createDirectories(output.getParent());
+            Files.write(output, compressed);
+            Files.setLastModifiedTime(output, Files.getLastModifiedTime(file));
+        }
+    }
+    
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+    
+    /**
+     * Удаление .gz файлов, скопированных в каталог приложения прошлыми сборками
+     * (файлы .gz, лежащие в исходном каталоге, сохраняются)
+     */
+    private static void deleteBuiltGzip(Path source, Path webapp) throws IOException {
+        if (!Files.exists(webapp)) {
+            return;
+        }
+        List<Path> built;
+        try (Stream<Path> walk = Files.walk(webapp)) {
+            built = walk.filter(Files::isRegularFile)
+                        .filter(file -> file.getFileName().toString().endsWith(".gz"))
+                        .collect(Collectors.toList());
+        }
+        for (Path file : built) {
+            if (!Files.exists(source.resolve(webapp.relativize(file).toString()))) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    private static boolean isCompressible(Path file) {
+        String name = file.getFileName().toString();
+        return EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+    
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 3 + 64);
+        try (OutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,249 @@
+package com.energy.ingest;
+
+import com.energy.model.ConsumptionRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Date;
+import java.util.*;
+
+/**
+ * Журнал принятых, но ещё не записанных в БД показаний
+ * Файл только дописывается: строка G - поколение журнала (случайный идентификатор),
+ * строка R - принятое показание с порядковым номером, строка C - отметка о записи в БД
+ * (диапазоны номеров). Показания без отметки C после сбоя повторно ставятся в очередь.
+ * Когда все принятые показания записаны, файл усекается до нуля.
+ *
+ * Поколение и номер образуют ключ показания (consumption_records.ingest_key): отметка C
+ * пишется после фиксации в БД и может не успеть, поэтому при повторе показания, ключи которых
+ * уже есть в базе, пропускаются
+ */
+class IngestJournal {
+    
+    /**
+     * Показание, восстановленное из журнала
+     */
+    static class Recovered {
+        final long seq;
+        final ConsumptionRecord record; // с ingestKey, если в журнале было поколение
+        
+        Recovered(long seq, ConsumptionRecord record) {
+            this.seq = seq;
+            this.record = record;
+        }
+    }
+    
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final List<Recovered> recovered;
+    private String generation;
+    private boolean generationWritten;
+    private long nextSeq;
+    private long outstanding;
+    
+    /**
+     * Открытие журнала с восстановлением незаписанных показаний
+     * @param file файл журнала
+     * @param fsync сбрасывать данные на диск перед подтверждением приёма
+     */
+    IngestJournal(Path file, boolean fsync) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.fsync = fsync;
+        this.recovered = Files.exists(file) ? read(file) : new ArrayList<>();
+        this.outstanding = recovered.size();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (recovered.isEmpty()) {
+            channel.truncate(0);
+        }
+        // Новые показания продолжают нумерацию поколения из файла; без него (или в пустом файле) начинается новое
+        generationWritten = !recovered.isEmpty() && generation != null;
+        if (!generationWritten) {
+            generation = newGeneration();
+        }
+    }
+    
+    /**
+     * Ключ показания для consumption_records.ingest_key
+     * @param seq порядковый номер из append
+     */
+    synchronized String key(long seq) {
+        return key(generation, seq);
+    }
+    
+    /**
+     * Показания, принятые до сбоя и не отмеченные как записанные
+     */
+    List<Recovered> getRecovered() {
+        return recovered;
+    }
+    
+    /**
+     * Запись принятых показаний
+     * @param records показания
+     * @return порядковые номера показаний
+     */
+    synchronized long[] append(List<ConsumptionRecord> records) throws IOException {
+        long[] seqs = new long[records.size()];
+        StringBuilder sb = new StringBuilder(records.size() * 64 + 32);
+        if (!generationWritten) {
+            sb.append("G\t").append(generation).append('\n');
+        }
+        
+        for (int i = 0; i < records.size(); i++) {
+            ConsumptionRecord r = records.get(i);
+            seqs[i] = nextSeq++;
+            sb.append("R\t").append(seqs[i])
+              .append('\t').append(r.getUserId())
+              .append('\t').append(r.getApplianceId() != null ? r.getApplianceId().toString() : "")
+              .append('\t').append(r.getRecordDate())
+              .append('\t').append(r.getConsumptionKwh())
+              .append('\t').append(r.getCost())
+              .append('\t').append(r.getTariffType() != null ? r.getTariffType() : "")
+              .append('\t').append(r.getUsageHours() != null ? r.getUsageHours().toString() : "")
+              .append('\n');
+        }
+        
+        write(sb);
+        generationWritten = true;
+        outstanding += seqs.length;
+        return seqs;
+    }
+    
+    /**
+     * Отметка о записи показаний в БД
+     * @param seqs порядковые номера в порядке возрастания
+     */
+    synchronized void commit(long[] seqs) throws IOException {
+        if (seqs.length == 0) {
+            return;
+        }
+        
+        outstanding -= seqs.length;
+        if (outstanding == 0) {
+            // Все принятые показания записаны - журнал больше не нужен; номера продолжаются,
+            // поэтому поколение в новом файле прежнее и ключи не повторяются
+            channel.truncate(0);
+            generationWritten = false;
+            if (fsync) {
+                channel.force(false);
+            }
+            return;
+        }
+        
+        StringBuilder sb = new StringBuilder("C\t");
+        int i = 0;
+        while (i < seqs.length) {
+            int j = i;
+            while (j + 1 < seqs.length && seqs[j + 1] == seqs[j] + 1) {
+                j++;
+            }
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(seqs[i]);
+            if (j > i) {
+                sb.append('-').append(seqs[j]);
+            }
+            i = j + 1;
+        }
+        sb.append('\n');
+        write(sb);
+    }
+    
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка при закрытии журнала показаний: " + e.getMessage());
+        }
+    }
+    
+    private void write(CharSequence text) throws IOException {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(text.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+    
+    /**
+     * Чтение журнала: принятые показания минус отмеченные как записанные
+     */
+    private List<Recovered> read(Path file) throws IOException {
+        Map<Long, ConsumptionRecord> pending = new TreeMap<>();
+        String fileGeneration = null;
+        
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    String[] parts = line.split("\t", -1);
+                    if ("G".equals(parts[0]) && parts.length == 2) {
+                        fileGeneration = parts[1];
+                    } else if ("R".equals(parts[0]) && parts.length == 9) {
+                        long seq = Long.parseLong(parts[1]);
+                        ConsumptionRecord record = parseRecord(parts);
+                        if (fileGeneration != null) {
+                            record.setIngestKey(key(fileGeneration, seq));
+                        }
+                        pending.put(seq, record);
+                        nextSeq = Math.max(nextSeq, seq + 1);
+                    } else if ("C".equals(parts[0]) && parts.length == 2) {
+                        for (String range : parts[1].split(",")) {
+                            int dash = range.indexOf('-');
+                            long from = Long.parseLong(dash < 0 ? range : range.substring(0, dash));
+                            long to = dash < 0 ? from : Long.parseLong(range.substring(dash + 1));
+                            for (long seq = from; seq <= to; seq++) {
+                                pending.remove(seq);
+                            }
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Недописанная при сбое строка
+                }
+            }
+        }
+        
+        generation = fileGeneration;
+        List<Recovered> result = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, ConsumptionRecord> entry : pending.entrySet()) {
+            result.add(new Recovered(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+    
+    private static String key(String generation, long seq) {
+        return generation + "-" + seq;
+    }
+    
+    private static String newGeneration() {
+        return Long.toHexString(new SecureRandom().nextLong());
+    }
+    
+    private ConsumptionRecord parseRecord(String[] parts) {
+        ConsumptionRecord record = new ConsumptionRecord();
+        record.setUserId(Integer.parseInt(parts[2]));
+        if (!parts[3].isEmpty()) {
+            record.setApplianceId(Integer.parseInt(parts[3]));
+        }
+        record.setRecordDate(Date.valueOf(parts[4]));
+        record.setConsumptionKwh(Double.parseDouble(parts[5]));
+        record.setCost(Double.parseDouble(parts[6]));
+        if (!parts[7].isEmpty()) {
+            record.setTariffType(parts[7]);
+        }
+        if (!parts[8].isEmpty()) {
+            record.setUsageHours(Double.parseDouble(parts[8]));
+        }
+        return record;
+    }
+}
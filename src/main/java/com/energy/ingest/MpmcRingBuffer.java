@@ -0,0 +1,120 @@
+package com.energy.ingest;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченная неблокирующая очередь для нескольких производителей и потребителей
+ * Кольцевой буфер с номером последовательности в каждой ячейке (алгоритм Д. Вьюкова):
+ * производители и потребители захватывают позиции через CAS и не блокируют друг друга
+ * @param <E> тип элементов
+ */
+public class MpmcRingBuffer<E> {
+    
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    
+    /**
+     * @param capacity минимальная ёмкость (округляется вверх до степени двойки)
+     */
+    public MpmcRingBuffer(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Недопустимая ёмкость буфера: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    
+    /**
+     * Добавление элемента
+     * @param element элемент (не null)
+     * @return false если буфер заполнен
+     */
+    public boolean offer(E element) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.set(index, element);
+                    // Публикация ячейки для потребителей
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+    
+    /**
+     * Извлечение элемента
+     * @return элемент или null если буфер пуст
+     */
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = elements.get(index);
+                    elements.set(index, null);
+                    // Ячейка освобождается для производителей следующего круга
+                    sequences.set(index, pos + mask + 1);
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+    
+    /**
+     * Извлечение нескольких элементов
+     * @param sink список для извлечённых элементов
+     * @param max максимальное число элементов
+     * @return число извлечённых элементов
+     */
+    public int drainTo(List<E> sink, int max) {
+        int drained = 0;
+        E element;
+        while (drained < max && (element = poll()) != null) {
+            sink.add(element);
+            drained++;
+        }
+        return drained;
+    }
+    
+    /**
+     * Приблизительное число элементов в буфере
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+    
+    /**
+     * Ёмкость буфера
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,460 @@
+package com.energy.ingest;
+
+import com.energy.dao.ConsumptionDAO;
+import com.energy.model.ConsumptionRecord;
+import com.energy.util.DataVersions;
+import com.energy.util.Histogram;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись показаний (write-behind)
+ * Запросы кладут показания в ограниченный кольцевой буфер и сразу получают ответ;
+ * несколько потоков-писателей собирают показания в крупные пакеты по размеру или по времени
+ * и записывают их через {@link ConsumptionDAO#createBatch}. При заполненном буфере
+ * показания не принимаются (клиент получает 429). Если задан каталог журнала,
+ * принятые показания сначала записываются в журнал и переживают сбой до записи в БД;
+ * показание пишется с ключом журнала (ingest_key), поэтому повтор после сбоя между фиксацией
+ * в БД и отметкой в журнале не создаёт дубликатов
+ */
+public class WriteBehindQueue {
+    
+    // Параметры очереди (переопределяются системными свойствами)
+    private static final boolean ENABLED = !"false".equals(System.getProperty("energy.ingest.queue.enabled"));
+    private static final int CAPACITY = Integer.getInteger("energy.ingest.queue.capacity", 65536);
+    private static final int WRITERS = Integer.getInteger("energy.ingest.queue.writers", 2);
+    private static final int BATCH_SIZE = Integer.getInteger("energy.ingest.queue.batchSize", 2000);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("energy.ingest.queue.flushMs", 200);
+    private static final long SHUTDOWN_TIMEOUT_MS = Long.getLong("energy.ingest.queue.shutdownTimeoutMs", 30000);
+    private static final String JOURNAL_DIR = System.getProperty("energy.ingest.journal.dir", "");
+    private static final boolean JOURNAL_FSYNC = !"false".equals(System.getProperty("energy.ingest.journal.fsync"));
+    
+    // Пауза между повторными попытками записи при недоступности БД
+    private static final long MAX_RETRY_DELAY_MS = 5000;
+    
+    private static volatile WriteBehindQueue instance = null;
+    
+    /**
+     * Показание в очереди
+     */
+    private static class Entry {
+        final long seq;
+        final ConsumptionRecord record;
+        final long enqueuedAt;
+        
+        Entry(long seq, ConsumptionRecord record, long enqueuedAt) {
+            this.seq = seq;
+            this.record = record;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+    
+    private final MpmcRingBuffer<Entry> buffer;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final IngestJournal journal;
+    private final List<Entry> replay = new ArrayList<>();
+    private final ConsumptionDAO consumptionDAO = new ConsumptionDAO();
+    private final Thread[] writers;
+    private volatile boolean running = true;
+    
+    // Метрики
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejectedFull = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong replaySkipped = new AtomicLong();
+    private final Histogram flushSize = new Histogram();
+    private final Histogram flushMillis = new Histogram();
+    private final Histogram commitLagMillis = new Histogram();
+    
+    private WriteBehindQueue() throws IOException {
+        this.buffer = new MpmcRingBuffer<>(CAPACITY);
+        
+        if (!JOURNAL_DIR.isEmpty()) {
+            journal = new IngestJournal(Paths.get(JOURNAL_DIR, "ingest.journal"), JOURNAL_FSYNC);
+            long now = System.currentTimeMillis();
+            for (IngestJournal.Recovered r : journal.getRecovered()) {
+                replay.add(new Entry(r.seq, r.record, now));
+            }
+            if (!replay.isEmpty()) {
+                System.err.println("Из журнала восстановлено незаписанных показаний: " + replay.size());
+            }
+        } else {
+            journal = null;
+        }
+        
+        writers = new Thread[Math.max(1, WRITERS)];
+        for (int i = 0; i < writers.length; i++) {
+            boolean replays = i == 0;
+            writers[i] = new Thread(() -> runWriter(replays), "ingest-writer-" + i);
+            writers[i].setDaemon(true);
+        }
+    }
+    
+    /**
+     * Запуск очереди (при старте приложения)
+     * Показания, восстановленные из журнала, записываются первыми
+     */
+    public static synchronized void start() throws IOException {
+        if (ENABLED && instance == null) {
+            WriteBehindQueue queue = new WriteBehindQueue();
+            for (Thread writer : queue.writers) {
+                writer.start();
+            }
+            instance = queue;
+        }
+    }
+    
+    /**
+     * Текущая очередь
+     * @return очередь или null, если асинхронная запись отключена
+     */
+    public static WriteBehindQueue get() {
+        return instance;
+    }
+    
+    /**
+     * Остановка очереди (при остановке приложения)
+     * Писатели дописывают накопленные показания в пределах SHUTDOWN_TIMEOUT_MS;
+     * незаписанные показания остаются в журнале
+     */
+    public static synchronized void shutdown() {
+        WriteBehindQueue queue = instance;
+        if (queue == null) {
+            return;
+        }
+        instance = null;
+        queue.running = false;
+        
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MS);
+        for (Thread writer : queue.writers) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Thread writer : queue.writers) {
+            writer.interrupt();
+        }
+        if (queue.journal != null) {
+            queue.journal.close();
+        }
+    }
+    
+    /**
+     * Постановка показаний в очередь
+     * Показания принимаются целиком или не принимаются совсем
+     * @param records проверенные показания
+     * @return false если в буфере недостаточно места
+     * @throws IOException при ошибке записи в журнал
+     */
+    public boolean submit(List<ConsumptionRecord> records) throws IOException {
+        int count = records.size();
+        if (count == 0) {
+            return true;
+        }
+        
+        // Резервирование места: после успешного резервирования offer не может отказать
+        while (true) {
+            int current = reserved.get();
+            if (current + count > buffer.capacity()) {
+                rejectedFull.incrementAndGet();
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + count)) {
+                break;
+            }
+        }
+        
+        long[] seqs;
+        try {
+            seqs = journal != null ? journal.append(records) : null;
+        } catch (IOException e) {
+            reserved.addAndGet(-count);
+            throw e;
+        }
+        
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            if (seqs != null) {
+                records.get(i).setIngestKey(journal.key(seqs[i]));
+            }
+            Entry entry = new Entry(seqs != null ? seqs[i] : -1, records.get(i), now);
+            while (!buffer.offer(entry)) {
+                // Ячейку ещё освобождает потребитель
+                Thread.onSpinWait();
+            }
+        }
+        enqueued.addAndGet(count);
+        
+        if (buffer.size() >= BATCH_SIZE) {
+            for (Thread writer : writers) {
+                LockSupport.unpark(writer);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Снимок метрик очереди
+     * @return карта с показателями
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("capacity", buffer.capacity());
+        metrics.put("depth", buffer.size());
+        metrics.put("writers", writers.length);
+        metrics.put("journal", journal != null);
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("written", written.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("rejectedFull", rejectedFull.get());
+        metrics.put("retries", retries.get());
+        metrics.put("replaySkipped", replaySkipped.get());
+        metrics.put("flushSize", flushSize.toMap());
+        metrics.put("flushMillis", flushMillis.toMap());
+        metrics.put("commitLagMillis", commitLagMillis.toMap());
+        return metrics;
+    }
+    
+    /**
+     * Цикл потока-писателя: пакет сбрасывается при достижении BATCH_SIZE
+     * или через FLUSH_INTERVAL_MS после первого показания в пакете
+     */
+    private void runWriter(boolean replays) {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        
+        if (replays) {
+            for (int from = 0; from < replay.size(); from += BATCH_SIZE) {
+                batch.addAll(replay.subList(from, Math.min(replay.size(), from + BATCH_SIZE)));
+                if (!skipWritten(batch) || !flush(batch)) {
+                    return;
+                }
+            }
+            replay.clear();
+        }
+        
+        long batchStartedAt = 0;
+        while (true) {
+            int drained = buffer.drainTo(batch, BATCH_SIZE - batch.size());
+            if (drained > 0) {
+                reserved.addAndGet(-drained);
+                if (batch.size() == drained) {
+                    batchStartedAt = System.nanoTime();
+                }
+            }
+            
+            long waited = System.nanoTime() - batchStartedAt;
+            boolean due = !batch.isEmpty()
+                    && (batch.size() >= BATCH_SIZE || waited >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS) || !running);
+            
+            if (due) {
+                if (!flush(batch)) {
+                    return;
+                }
+            } else if (drained == 0) {
+                if (!running && batch.isEmpty()) {
+                    return;
+                }
+                long park = batch.isEmpty()
+                        ? TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS)
+                        : TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS) - waited;
+                LockSupport.parkNanos(this, Math.max(1, park));
+            }
+        }
+    }
+    
+    /**
+     * Исключение из пакета повтора показаний, уже записанных в БД до сбоя (отметка C не успела
+     * попасть в журнал); они сразу отмечаются в журнале
+     * @return false если проверка не выполнена из-за остановки приложения
+     */
+    private boolean skipWritten(List<Entry> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry.record.getIngestKey() != null) {
+                keys.add(entry.record.getIngestKey());
+            }
+        }
+        
+        Set<String> existing;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                existing = consumptionDAO.findExistingIngestKeys(keys);
+                break;
+            } catch (SQLException e) {
+                if (!running) {
+                    batch.clear();
+                    return false;
+                }
+                retries.incrementAndGet();
+                System.err.println("Ошибка проверки повторяемых показаний (попытка " + attempt + "): " + e.getMessage());
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_RETRY_DELAY_MS, 200L * attempt)));
+            }
+        }
+        if (existing.isEmpty()) {
+            return true;
+        }
+        
+        long[] seqs = new long[existing.size()];
+        int count = 0;
+        Iterator<Entry> it = batch.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.record.getIngestKey() != null && existing.contains(entry.record.getIngestKey())) {
+                seqs[count++] = entry.seq;
+                it.remove();
+            }
+        }
+        replaySkipped.addAndGet(count);
+        try {
+            journal.commit(Arrays.copyOf(seqs, count));
+        } catch (IOException e) {
+            // Без отметки показания будут снова проверены и пропущены после перезапуска
+            System.err.println("Ошибка записи отметки в журнал показаний: " + e.getMessage());
+        }
+        return true;
+    }
+    
+    /**
+     * Запись пакета в БД и отметка в журнале
+     * @return false если пакет не записан из-за остановки приложения (показания остаются в журнале)
+     */
+    private boolean flush(List<Entry> batch) {
+        long start = System.nanoTime();
+        List<ConsumptionRecord> records = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            records.add(entry.record);
+        }
+        
+        try {
+            write(records);
+        } catch (SQLException e) {
+            System.err.println("Показания не записаны до остановки (" + batch.size() + " шт.): " + e.getMessage());
+            batch.clear();
+            return false;
+        }
+        
+        // Новые показания видны после фиксации - ответы пользователей пакета устарели
+        int lastUserId = -1;
+        for (ConsumptionRecord record : records) {
+            if (record.getUserId() != lastUserId) {
+                lastUserId = record.getUserId();
+                DataVersions.bump(lastUserId);
+            }
+        }
+        
+        if (journal != null) {
+            long[] seqs = new long[batch.size()];
+            for (int i = 0; i < seqs.length; i++) {
+                seqs[i] = batch.get(i).seq;
+            }
+            Arrays.sort(seqs);
+            try {
+                journal.commit(seqs);
+            } catch (IOException e) {
+                // Без отметки показания будут повторены после перезапуска и пропущены по ingest_key
+                System.err.println("Ошибка записи отметки в журнал показаний: " + e.getMessage());
+            }
+        }
+        
+        long now = System.currentTimeMillis();
+        for (Entry entry : batch) {
+            commitLagMillis.record(now - entry.enqueuedAt);
+        }
+        flushSize.record(batch.size());
+        flushMillis.record((System.nanoTime() - start) / 1_000_000);
+        batch.clear();
+        return true;
+    }
+    
+    /**
+     * Запись с повторами: временные ошибки повторяются, пока приложение работает;
+     * пакет с некорректными данными записывается по одному показанию, чтобы отбросить только их
+     */
+    private void write(List<ConsumptionRecord> records) throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                written.addAndGet(consumptionDAO.createBatch(records));
+                return;
+            } catch (SQLException e) {
+                if (isRejected(e)) {
+                    writeIndividually(records);
+                    return;
+                }
+                retryOrThrow(e, attempt, "Ошибка записи пакета показаний");
+            }
+        }
+    }
+    
+    /**
+     * Запись по одному показанию: отбрасываются только отвергнутые базой,
+     * при временных ошибках показание повторяется
+     */
+    private void writeIndividually(List<ConsumptionRecord> records) throws SQLException {
+        for (ConsumptionRecord record : records) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    written.addAndGet(consumptionDAO.createBatch(Collections.singletonList(record)));
+                    break;
+                } catch (SQLException e) {
+                    if (isRejected(e)) {
+                        dropped.incrementAndGet();
+                        System.err.println("Показание отброшено (пользователь " + record.getUserId() + ", дата " +
+                                record.getRecordDate() + "): " + e.getMessage());
+                        break;
+                    }
+                    retryOrThrow(e, attempt, "Ошибка записи показания");
+                }
+            }
+        }
+    }
+    
+    private void retryOrThrow(SQLException e, int attempt, String message) throws SQLException {
+        if (!running) {
+            throw e;
+        }
+        retries.incrementAndGet();
+        System.err.println(message + " (попытка " + attempt + "): " + e.getMessage());
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_RETRY_DELAY_MS, 200L * attempt)));
+    }
+    
+    /**
+     * Отвергнуты ли данные базой (нарушение ограничения или недопустимое значение - SQLState 23/22)
+     * Драйвер сообщает об ошибке пакета как BatchUpdateException, исходная ошибка - в цепочке причин
+     */
+    private static boolean isRejected(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause() != t ? t.getCause() : null) {
+            if (t instanceof SQLIntegrityConstraintViolationException || t instanceof SQLDataException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                String state = ((SQLException) t).getSQLState();
+                if (state != null && (state.startsWith("23") || state.startsWith("22"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
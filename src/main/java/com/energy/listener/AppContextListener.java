@@ -0,0 +1,68 @@
+package com.energy.listener;
+
+import com.energy.dao.RollupDAO;
+import com.energy.ingest.WriteBehindQueue;
+import com.energy.store.ColdStorage;
+import com.energy.store.TieringJob;
+import com.energy.util.DataVersions;
+import com.energy.util.DatabaseConnection;
+import com.energy.util.QueryExecutor;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.io.IOException;
+
+/**
+ * Слушатель жизненного цикла приложения
+ * Освобождает общие ресурсы при остановке приложения
+ */
+@WebListener
+public class AppContextListener implements ServletContextListener {
+    
+    // Пересчёт агрегатов потребления при запуске (заполнение после миграции схемы)
+    private static final boolean REBUILD_ROLLUPS = Boolean.getBoolean("energy.rollup.rebuildOnStartup");
+    
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        // Пул соединений создаётся лениво при первом запросе
+        try {
+            // Показания из журнала, не записанные до остановки, ставятся в очередь первыми
+            WriteBehindQueue.start();
+        } catch (IOException e) {
+            System.err.println("Ошибка открытия журнала показаний: " + e.getMessage());
+        }
+        
+        try {
+            // Сегменты холодных записей подключаются до первых запросов
+            ColdStorage.open();
+            TieringJob.start();
+        } catch (IOException e) {
+            System.err.println("Ошибка открытия холодного хранилища: " + e.getMessage());
+        }
+        
+        if (REBUILD_ROLLUPS) {
+            Thread rebuild = new Thread(() -> {
+                try {
+                    long start = System.currentTimeMillis();
+                    new RollupDAO().rebuildAll();
+                    DataVersions.bumpAll();
+                    System.err.println("Агрегаты потребления пересчитаны за " + (System.currentTimeMillis() - start) + " мс");
+                } catch (Exception e) {
+                    System.err.println("Ошибка пересчёта агрегатов потребления: " + e.getMessage());
+                }
+            }, "rollup-rebuild");
+            rebuild.setDaemon(true);
+            rebuild.start();
+        }
+    }
+    
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        // Очередь останавливается до пула: писателям нужны соединения для записи остатка
+        WriteBehindQueue.shutdown();
+        TieringJob.shutdown();
+        QueryExecutor.shutdown();
+        DatabaseConnection.shutdownPool();
+    }
+}
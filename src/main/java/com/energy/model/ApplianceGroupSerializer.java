@@ -0,0 +1,39 @@
+package com.energy.model;
+
+import com.energy.util.JsonSerializer;
+import com.energy.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Запись группы приборов в JSON без промежуточной Map
+ */
+public class ApplianceGroupSerializer implements JsonSerializer<ApplianceGroup> {
+    
+    public static final ApplianceGroupSerializer INSTANCE = new ApplianceGroupSerializer();
+    
+    private static final char[] ID = JsonWriter.encodeName("id");
+    private static final char[] NAME = JsonWriter.encodeName("name");
+    private static final char[] DESCRIPTION = JsonWriter.encodeName("description");
+    private static final char[] ICON = JsonWriter.encodeName("icon");
+    private static final char[] COLOR = JsonWriter.encodeName("color");
+    private static final char[] APPLIANCE_COUNT = JsonWriter.encodeName("applianceCount");
+    private static final char[] DAILY_KWH = JsonWriter.encodeName("dailyKwh");
+    private static final char[] MONTHLY_KWH = JsonWriter.encodeName("monthlyKwh");
+    
+    private ApplianceGroupSerializer() {}
+    
+    @Override
+    public void write(JsonWriter json, ApplianceGroup g) throws IOException {
+        json.beginObject();
+        json.name(ID).value(g.getId());
+        json.name(NAME).value(g.getName());
+        json.name(DESCRIPTION).value(g.getDescription());
+        json.name(ICON).value(g.getIcon());
+        json.name(COLOR).value(g.getColor());
+        json.name(APPLIANCE_COUNT).value(g.getApplianceCount());
+        json.name(DAILY_KWH).value(Math.round(g.getTotalDailyKwh() * 100.0) / 100.0);
+        json.name(MONTHLY_KWH).value(Math.round(g.getTotalMonthlyKwh() * 100.0) / 100.0);
+        json.endObject();
+    }
+}
@@ -0,0 +1,75 @@
+package com.energy.model;
+
+import com.energy.util.JsonSerializer;
+import com.energy.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Запись электроприбора в JSON без промежуточной Map
+ * Имена полей закодированы заранее, порядок полей постоянный
+ */
+public class ApplianceSerializer implements JsonSerializer<Appliance> {
+    
+    private static final char[] ID = JsonWriter.encodeName("id");
+    private static final char[] NAME = JsonWriter.encodeName("name");
+    private static final char[] POWER_WATTS = JsonWriter.encodeName("powerWatts");
+    private static final char[] DAILY_USAGE_HOURS = JsonWriter.encodeName("dailyUsageHours");
+    private static final char[] QUANTITY = JsonWriter.encodeName("quantity");
+    private static final char[] GROUP_ID = JsonWriter.encodeName("groupId");
+    private static final char[] GROUP_NAME = JsonWriter.encodeName("groupName");
+    private static final char[] IS_ACTIVE = JsonWriter.encodeName("isActive");
+    private static final char[] DAILY_KWH = JsonWriter.encodeName("dailyKwh");
+    private static final char[] MONTHLY_KWH = JsonWriter.encodeName("monthlyKwh");
+    private static final char[] DAILY_COST = JsonWriter.encodeName("dailyCost");
+    private static final char[] MONTHLY_COST = JsonWriter.encodeName("monthlyCost");
+    
+    /**
+     * Краткое представление прибора (для списка приборов группы), без стоимости
+     */
+    public static final JsonSerializer<Appliance> SUMMARY = (json, a) -> {
+        json.beginObject();
+        json.name(ID).value(a.getId());
+        json.name(NAME).value(a.getName());
+        json.name(POWER_WATTS).value(a.getPowerWatts());
+        json.name(DAILY_USAGE_HOURS).value(a.getDailyUsageHours());
+        json.name(QUANTITY).value(a.getQuantity());
+        json.name(DAILY_KWH).value(Math.round(a.getDailyConsumptionKwh() * 1000.0) / 1000.0);
+        json.endObject();
+    };
+    
+    private final CostEngine costEngine;
+    
+    /**
+     * @param costEngine расчёт стоимости по тарифам пользователя
+     */
+    public ApplianceSerializer(CostEngine costEngine) {
+        this.costEngine = costEngine;
+    }
+    
+    @Override
+    public void write(JsonWriter json, Appliance a) throws IOException {
+        json.beginObject();
+        writeFields(json, a);
+        json.endObject();
+    }
+    
+    /**
+     * Запись полей прибора в уже открытый объект (для добавления своих полей к ответу)
+     */
+    public void writeFields(JsonWriter json, Appliance a) throws IOException {
+        json.name(ID).value(a.getId());
+        json.name(NAME).value(a.getName());
+        json.name(POWER_WATTS).value(a.getPowerWatts());
+        json.name(DAILY_USAGE_HOURS).value(a.getDailyUsageHours());
+        json.name(QUANTITY).value(a.getQuantity());
+        json.name(GROUP_ID).value(a.getGroupId());
+        json.name(GROUP_NAME).value(a.getGroupName());
+        json.name(IS_ACTIVE).value(a.isActive());
+        json.name(DAILY_KWH).value(Math.round(a.getDailyConsumptionKwh() * 1000.0) / 1000.0);
+        json.name(MONTHLY_KWH).value(Math.round(a.getMonthlyConsumptionKwh() * 100.0) / 100.0);
+        double dailyCost = costEngine.dailyCost(a);
+        json.name(DAILY_COST).value(Math.round(dailyCost * 100.0) / 100.0);
+        json.name(MONTHLY_COST).value(Math.round(dailyCost * 30 * 100.0) / 100.0);
+    }
+}
@@ -18,6 +18,9 @@ public class ConsumptionRecord {
     private Double usageHours;
     private Timestamp createdAt;
     
+    // Ключ показания в журнале очереди записи (null для записей не из очереди)
+    private String ingestKey;
+    
     // Дополнительные поля для отображения
     private String applianceName;
     
@@ -108,6 +111,14 @@ public class ConsumptionRecord {
         this.createdAt = createdAt;
     }
     
+    public String getIngestKey() {
+        return ingestKey;
+    }
+    
+    public void setIngestKey(String ingestKey) {
+        this.ingestKey = ingestKey;
+    }
+    
     public String getApplianceName() {
         return applianceName;
     }
@@ -0,0 +1,39 @@
+package com.energy.model;
+
+import com.energy.util.JsonSerializer;
+import com.energy.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Запись показания потребления в JSON без промежуточной Map
+ */
+public class ConsumptionRecordSerializer implements JsonSerializer<ConsumptionRecord> {
+    
+    public static final ConsumptionRecordSerializer INSTANCE = new ConsumptionRecordSerializer();
+    
+    private static final char[] ID = JsonWriter.encodeName("id");
+    private static final char[] APPLIANCE_ID = JsonWriter.encodeName("applianceId");
+    private static final char[] APPLIANCE_NAME = JsonWriter.encodeName("applianceName");
+    private static final char[] RECORD_DATE = JsonWriter.encodeName("recordDate");
+    private static final char[] CONSUMPTION_KWH = JsonWriter.encodeName("consumptionKwh");
+    private static final char[] COST = JsonWriter.encodeName("cost");
+    private static final char[] TARIFF_TYPE = JsonWriter.encodeName("tariffType");
+    private static final char[] USAGE_HOURS = JsonWriter.encodeName("usageHours");
+    
+    private ConsumptionRecordSerializer() {}
+    
+    @Override
+    public void write(JsonWriter json, ConsumptionRecord r) throws IOException {
+        json.beginObject();
+        json.name(ID).value(r.getId());
+        json.name(APPLIANCE_ID).value(r.getApplianceId());
+        json.name(APPLIANCE_NAME).value(r.getApplianceName());
+        json.name(RECORD_DATE).value(r.getRecordDate() != null ? r.getRecordDate().toString() : null);
+        json.name(CONSUMPTION_KWH).value(r.getConsumptionKwh());
+        json.name(COST).value(r.getCost());
+        json.name(TARIFF_TYPE).value(r.getTariffType());
+        json.name(USAGE_HOURS).value(r.getUsageHours());
+        json.endObject();
+    }
+}
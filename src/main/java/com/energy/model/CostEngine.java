@@ -0,0 +1,173 @@
+package com.energy.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Расчёт стоимости по тарифам с учётом времени суток
+ * Ставки по часам берутся из расписания тарифов (TariffSchedule), суточное потребление
+ * распределяется по часам профилем нагрузки домохозяйства (energy.cost.loadProfile - 24 положительных
+ * веса через запятую, начиная с 0:00; по умолчанию равномерный). Прибор, работающий H часов в сутки,
+ * занимает часы пропорционально профилю, но не более одного полного часа на каждый час суток,
+ * поэтому прибор на 24 часа распределяется равномерно, а короткая работа смещается в часы пик профиля.
+ *
+ * Всё, что не зависит от прибора, вычисляется при построении: стоимость прибора - проход по часам
+ * в порядке убывания профиля с досрочным выходом, без выделения памяти
+ */
+public final class CostEngine {
+    
+    private static final int HOURS = TariffSchedule.HOURS;
+    
+    // Доли суточного потребления по часам (сумма равна 1)
+    private static final double[] LOAD_PROFILE = parseProfile(System.getProperty("energy.cost.loadProfile", ""));
+    
+    // Часы в порядке убывания доли и суммы долей начиная с k-го из них
+    private static final int[] HOURS_BY_SHARE = new int[HOURS];
+    private static final double[] SORTED_SHARE = new double[HOURS];
+    private static final double[] SHARE_SUFFIX = new double[HOURS + 1];
+    
+    static {
+        Integer[] order = new Integer[HOURS];
+        for (int hour = 0; hour < HOURS; hour++) {
+            order[hour] = hour;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(LOAD_PROFILE[b], LOAD_PROFILE[a]));
+        for (int k = 0; k < HOURS; k++) {
+            HOURS_BY_SHARE[k] = order[k];
+            SORTED_SHARE[k] = LOAD_PROFILE[order[k]];
+        }
+        for (int k = HOURS - 1; k >= 0; k--) {
+            SHARE_SUFFIX[k] = SHARE_SUFFIX[k + 1] + SORTED_SHARE[k];
+        }
+    }
+    
+    // Сумма ставок k часов с наибольшей долей и сумма доля*ставка начиная с k-го часа
+    private final double[] ratePrefix = new double[HOURS + 1];
+    private final double[] weightedSuffix = new double[HOURS + 1];
+    private final double meanRate;
+    
+    /**
+     * @param rateByHour ставка за кВт·ч для каждого часа суток
+     */
+    CostEngine(double[] rateByHour) {
+        double sum = 0;
+        for (int k = 0; k < HOURS; k++) {
+            double rate = rateByHour[HOURS_BY_SHARE[k]];
+            ratePrefix[k + 1] = ratePrefix[k] + rate;
+            sum += rate;
+        }
+        for (int k = HOURS - 1; k >= 0; k--) {
+            weightedSuffix[k] = weightedSuffix[k + 1] + SORTED_SHARE[k] * rateByHour[HOURS_BY_SHARE[k]];
+        }
+        this.meanRate = sum / HOURS;
+    }
+    
+    /**
+     * Ставка за кВт·ч, взвешенная по профилю нагрузки (для потребления без известного времени работы)
+     */
+    public double getRate() {
+        return weightedSuffix[0];
+    }
+    
+    /**
+     * Ставка за кВт·ч для нагрузки, работающей указанное число часов в сутки
+     * @param usageHours часы работы в сутки (null или не больше 0 - по профилю нагрузки)
+     */
+    public double getRate(Double usageHours) {
+        if (usageHours == null || usageHours <= 0) {
+            return getRate();
+        }
+        return costPerKw(usageHours) / usageHours;
+    }
+    
+    /**
+     * Стоимость суточного потребления прибора
+     */
+    public double dailyCost(Appliance appliance) {
+        return appliance.getPowerWatts() * appliance.getQuantity() / 1000.0 * costPerKw(appliance.getDailyUsageHours());
+    }
+    
+    /**
+     * Суммарная стоимость суточного потребления активных приборов одним проходом
+     */
+    public double totalDailyCost(List<Appliance> appliances) {
+        double total = 0;
+        for (Appliance appliance : appliances) {
+            if (appliance.isActive()) {
+                total += dailyCost(appliance);
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Стоимость суточного потребления активных приборов по группам одним проходом
+     * @return ID группы -> стоимость (приборы без группы не учитываются)
+     */
+    public Map<Integer, Double> dailyCostByGroup(List<Appliance> appliances) {
+        Map<Integer, Double> costs = new HashMap<>();
+        for (Appliance appliance : appliances) {
+            if (appliance.isActive() && appliance.getGroupId() != null) {
+                costs.merge(appliance.getGroupId(), dailyCost(appliance), Double::sum);
+            }
+        }
+        return costs;
+    }
+    
+    /**
+     * Стоимость суток работы нагрузки мощностью 1 кВт в течение usageHours часов
+     * Доля часа h - min(1, L * доля профиля), где L подбирается так, чтобы сумма была равна usageHours.
+     * Насыщаются часы с наибольшей долей, поэтому их число k находится проходом по отсортированным часам
+     */
+    private double costPerKw(double usageHours) {
+        if (usageHours <= 0) {
+            return 0;
+        }
+        if (usageHours >= HOURS) {
+            return usageHours * meanRate;
+        }
+        double remaining = usageHours;
+        int k = 0;
+        while (true) {
+            double level = remaining / SHARE_SUFFIX[k];
+            if (level * SORTED_SHARE[k] <= 1) {
+                return ratePrefix[k] + level * weightedSuffix[k];
+            }
+            remaining -= 1;
+            k++;
+        }
+    }
+    
+    private static double[] parseProfile(String value) {
+        double[] profile = new double[HOURS];
+        Arrays.fill(profile, 1.0 / HOURS);
+        if (value.isEmpty()) {
+            return profile;
+        }
+        String[] parts = value.split(",");
+        double[] weights = new double[HOURS];
+        double sum = 0;
+        try {
+            if (parts.length != HOURS) {
+                throw new NumberFormatException("ожидается " + HOURS + " значения, получено " + parts.length);
+            }
+            for (int hour = 0; hour < HOURS; hour++) {
+                weights[hour] = Double.parseDouble(parts[hour].trim());
+                if (!(weights[hour] > 0) || Double.isInfinite(weights[hour])) {
+                    throw new NumberFormatException("вес часа " + hour + " должен быть положительным");
+                }
+                sum += weights[hour];
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Некорректный профиль нагрузки energy.cost.loadProfile (" + e.getMessage()
+                    + "), используется равномерный");
+            return profile;
+        }
+        for (int hour = 0; hour < HOURS; hour++) {
+            profile[hour] = weights[hour] / sum;
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,64 @@
+package com.energy.model;
+
+import java.util.Arrays;
+
+/**
+ * Упорядоченный по дате ряд дневного потребления
+ * Хранит данные в примитивных колонках (день эпохи, кВт·ч, стоимость) без упаковки значений
+ */
+public class DailySeries {
+    private int[] epochDays;
+    private double[] kwh;
+    private double[] cost;
+    private int size;
+    
+    // Конструктор по умолчанию
+    public DailySeries() {
+        this(32);
+    }
+    
+    /**
+     * @param capacity ожидаемое количество дней
+     */
+    public DailySeries(int capacity) {
+        int initial = Math.max(capacity, 1);
+        this.epochDays = new int[initial];
+        this.kwh = new double[initial];
+        this.cost = new double[initial];
+    }
+    
+    /**
+     * Добавление дня (дни должны добавляться в порядке возрастания)
+     * @param epochDay день от 1970-01-01
+     * @param dayKwh потребление за день
+     * @param dayCost стоимость за день
+     */
+    public void add(int epochDay, double dayKwh, double dayCost) {
+        if (size == epochDays.length) {
+            int capacity = size * 2;
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            kwh = Arrays.copyOf(kwh, capacity);
+            cost = Arrays.copyOf(cost, capacity);
+        }
+        epochDays[size] = epochDay;
+        kwh[size] = dayKwh;
+        cost[size] = dayCost;
+        size++;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int getEpochDay(int index) {
+        return epochDays[index];
+    }
+    
+    public double getKwh(int index) {
+        return kwh[index];
+    }
+    
+    public double getCost(int index) {
+        return cost[index];
+    }
+}
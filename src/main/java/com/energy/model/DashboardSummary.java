@@ -0,0 +1,106 @@
+package com.energy.model;
+
+/**
+ * Сводные показатели для главной панели
+ * Заполняется одним запросом {@link com.energy.dao.DashboardDAO}
+ */
+public class DashboardSummary {
+    private int applianceCount;
+    private int groupCount;
+    private double totalDailyKwh;
+    private double totalDailyCost;
+    private double currentMonthKwh;
+    private double currentMonthCost;
+    private double previousMonthKwh;
+    
+    // Тариф, действующий в текущий час (может отсутствовать)
+    private String currentTariffName;
+    private Double currentTariffRate;
+    
+    // Конструктор по умолчанию
+    public DashboardSummary() {}
+    
+    /**
+     * Изменение потребления относительно прошлого месяца
+     * @return процент изменения (0 если данных за прошлый месяц нет)
+     */
+    public double getComparisonPercent() {
+        if (previousMonthKwh > 0) {
+            return ((currentMonthKwh - previousMonthKwh) / previousMonthKwh) * 100;
+        }
+        return 0;
+    }
+    
+    // Геттеры и сеттеры
+    public int getApplianceCount() {
+        return applianceCount;
+    }
+    
+    public void setApplianceCount(int applianceCount) {
+        this.applianceCount = applianceCount;
+    }
+    
+    public int getGroupCount() {
+        return groupCount;
+    }
+    
+    public void setGroupCount(int groupCount) {
+        this.groupCount = groupCount;
+    }
+    
+    public double getTotalDailyKwh() {
+        return totalDailyKwh;
+    }
+    
+    public void setTotalDailyKwh(double totalDailyKwh) {
+        this.totalDailyKwh = totalDailyKwh;
+    }
+    
+    public double getTotalDailyCost() {
+        return totalDailyCost;
+    }
+    
+    public void setTotalDailyCost(double totalDailyCost) {
+        this.totalDailyCost = totalDailyCost;
+    }
+    
+    public double getCurrentMonthKwh() {
+        return currentMonthKwh;
+    }
+    
+    public void setCurrentMonthKwh(double currentMonthKwh) {
+        this.currentMonthKwh = currentMonthKwh;
+    }
+    
+    public double getCurrentMonthCost() {
+        return currentMonthCost;
+    }
+    
+    public void setCurrentMonthCost(double currentMonthCost) {
+        this.currentMonthCost = currentMonthCost;
+    }
+    
+    public double getPreviousMonthKwh() {
+        return previousMonthKwh;
+    }
+    
+    public void setPreviousMonthKwh(double previousMonthKwh) {
+        this.previousMonthKwh = previousMonthKwh;
+    }
+    
+    public String getCurrentTariffName() {
+        return currentTariffName;
+    }
+    
+    public void setCurrentTariffName(String currentTariffName) {
+        this.currentTariffName = currentTariffName;
+    }
+    
+    public Double getCurrentTariffRate() {
+        return currentTariffRate;
+    }
+    
+    public void setCurrentTariffRate(Double currentTariffRate) {
+        this.currentTariffRate = currentTariffRate;
+    }
+}
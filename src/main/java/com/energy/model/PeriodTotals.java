@@ -0,0 +1,22 @@
+package com.energy.model;
+
+/**
+ * Суммарное потребление и стоимость за период
+ */
+public class PeriodTotals {
+    private final double kwh;
+    private final double cost;
+    
+    public PeriodTotals(double kwh, double cost) {
+        this.kwh = kwh;
+        this.cost = cost;
+    }
+    
+    public double getKwh() {
+        return kwh;
+    }
+    
+    public double getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,87 @@
+package com.energy.model;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Расписание тарифов пользователя на день
+ * Для каждого часа суток заранее определён действующий тариф, поэтому поиск тарифа - обращение к массиву;
+ * по вектору ставок строится CostEngine для расчёта стоимости с учётом времени суток
+ */
+public class TariffSchedule {
+    
+    // Тариф по умолчанию, если у пользователя нет действующих тарифов
+    public static final double DEFAULT_RATE = 5.5;
+    
+    public static final int HOURS = 24;
+    
+    private final LocalDate date;
+    private final List<Tariff> activeTariffs;
+    private final Tariff[] tariffByHour;
+    private final double[] rateByHour;
+    private final CostEngine costEngine;
+    
+    /**
+     * @param date день, на который составлено расписание
+     * @param activeTariffs тарифы, действующие в этот день (в порядке tariff_type, start_hour)
+     */
+    public TariffSchedule(LocalDate date, List<Tariff> activeTariffs) {
+        this.date = date;
+        this.activeTariffs = Collections.unmodifiableList(activeTariffs);
+        this.tariffByHour = new Tariff[HOURS];
+        this.rateByHour = new double[HOURS];
+        
+        for (int hour = 0; hour < HOURS; hour++) {
+            Tariff match = null;
+            for (Tariff tariff : activeTariffs) {
+                if (tariff.isActiveAtHour(hour)) {
+                    match = tariff;
+                    break;
+                }
+            }
+            // Первый активный тариф, если не найден специфичный
+            if (match == null && !activeTariffs.isEmpty()) {
+                match = activeTariffs.get(0);
+            }
+            tariffByHour[hour] = match;
+            rateByHour[hour] = match != null ? match.getRatePerKwh() : DEFAULT_RATE;
+        }
+        this.costEngine = new CostEngine(rateByHour);
+    }
+    
+    public LocalDate getDate() {
+        return date;
+    }
+    
+    /**
+     * Тарифы, действующие в день расписания (список только для чтения)
+     */
+    public List<Tariff> getActiveTariffs() {
+        return activeTariffs;
+    }
+    
+    /**
+     * Тариф, действующий в указанный час
+     * @param hour час (0-23)
+     * @return тариф или null, если действующих тарифов нет
+     */
+    public Tariff getTariffForHour(int hour) {
+        return tariffByHour[hour];
+    }
+    
+    /**
+     * Ставка за кВт·ч в указанный час (DEFAULT_RATE, если действующих тарифов нет)
+     * @param hour час (0-23)
+     */
+    public double getRate(int hour) {
+        return rateByHour[hour];
+    }
+    
+    /**
+     * Расчёт стоимости по ставкам этого расписания
+     */
+    public CostEngine getCostEngine() {
+        return costEngine;
+    }
+}
@@ -0,0 +1,43 @@
+package com.energy.model;
+
+import com.energy.util.JsonSerializer;
+import com.energy.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Запись тарифа в JSON без промежуточной Map
+ */
+public class TariffSerializer implements JsonSerializer<Tariff> {
+    
+    public static final TariffSerializer INSTANCE = new TariffSerializer();
+    
+    private static final char[] ID = JsonWriter.encodeName("id");
+    private static final char[] NAME = JsonWriter.encodeName("name");
+    private static final char[] TARIFF_TYPE = JsonWriter.encodeName("tariffType");
+    private static final char[] TARIFF_TYPE_RUSSIAN = JsonWriter.encodeName("tariffTypeRussian");
+    private static final char[] RATE_PER_KWH = JsonWriter.encodeName("ratePerKwh");
+    private static final char[] START_HOUR = JsonWriter.encodeName("startHour");
+    private static final char[] END_HOUR = JsonWriter.encodeName("endHour");
+    private static final char[] IS_ACTIVE = JsonWriter.encodeName("isActive");
+    private static final char[] VALID_FROM = JsonWriter.encodeName("validFrom");
+    private static final char[] VALID_TO = JsonWriter.encodeName("validTo");
+    
+    private TariffSerializer() {}
+    
+    @Override
+    public void write(JsonWriter json, Tariff t) throws IOException {
+        json.beginObject();
+        json.name(ID).value(t.getId());
+        json.name(NAME).value(t.getName());
+        json.name(TARIFF_TYPE).value(t.getTariffType());
+        json.name(TARIFF_TYPE_RUSSIAN).value(t.getTariffTypeRussian());
+        json.name(RATE_PER_KWH).value(t.getRatePerKwh());
+        json.name(START_HOUR).value(t.getStartHour());
+        json.name(END_HOUR).value(t.getEndHour());
+        json.name(IS_ACTIVE).value(t.isActive());
+        json.name(VALID_FROM).value(t.getValidFrom() != null ? t.getValidFrom().toString() : null);
+        json.name(VALID_TO).value(t.getValidTo() != null ? t.getValidTo().toString() : null);
+        json.endObject();
+    }
+}
@@ -0,0 +1,74 @@
+package com.energy.recommendation;
+
+import com.energy.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+/**
+ * Каталог общих рекомендаций по энергосбережению
+ * Не зависит от пользователя, поэтому сериализуется в JSON один раз при загрузке класса
+ * и затем только копируется в ответ
+ */
+final class RecommendationCatalog {
+    
+    private static final String[][] ITEMS = {
+        {"Освещение", "high",
+            "Замените лампы накаливания на LED. Экономия до 80% электроэнергии на освещение. LED-лампа 10 Вт даёт столько же света, сколько лампа накаливания 75 Вт."},
+        {"Режим ожидания", "medium",
+            "Отключайте электроприборы от сети, когда не используете. Режим ожидания может потреблять до 10% от общего энергопотребления. Используйте удлинители с выключателем."},
+        {"Холодильник", "medium",
+            "Не ставьте холодильник рядом с плитой или батареей. Регулярно размораживайте, если нет системы No Frost. Не ставьте горячую еду в холодильник — это увеличивает расход энергии на 20%."},
+        {"Стиральная машина", "medium",
+            "Стирайте при полной загрузке барабана. Используйте режим 30-40°C вместо 60°C — экономия до 50% электроэнергии. Запускайте стирку в ночное время по льготному тарифу."},
+        {"Электрочайник", "low",
+            "Кипятите только необходимое количество воды. Регулярно очищайте чайник от накипи — она увеличивает расход энергии на 15-20%. Рассмотрите термопот для частого использования."},
+        {"Кондиционер", "high",
+            "Устанавливайте температуру не ниже 24°C летом. Каждый градус ниже увеличивает расход на 5-8%. Регулярно чистите фильтры. Закрывайте окна и двери при работе кондиционера."},
+        {"Естественное освещение", "low",
+            "Максимально используйте дневной свет. Держите окна чистыми. Используйте светлые шторы, которые пропускают свет. Расставьте мебель так, чтобы не загораживать окна."},
+        {"Электрообогреватели", "high",
+            "Обогреватели — одни из самых энергозатратных приборов. Утеплите окна и двери. Используйте обогреватель только в одной комнате. Выключайте при выходе из дома."},
+        {"Компьютер и ноутбук", "low",
+            "Используйте режим энергосбережения. Выключайте монитор при перерывах более 10 минут. Ноутбук потребляет в 3-4 раза меньше настольного ПК. Отключайте зарядку после полной зарядки."},
+        {"Утюг", "low",
+            "Гладьте сразу большое количество белья. Начинайте с вещей, требующих низкой температуры. Выключайте утюг за 5-10 минут до окончания — остаточного тепла хватит для лёгких тканей."},
+        {"Посудомоечная машина", "medium",
+            "Запускайте только при полной загрузке. Используйте эко-режим. Откажитесь от режима сушки — откройте дверцу и дайте посуде высохнуть естественным путём."},
+        {"Телевизор", "low",
+            "Уменьшите яркость экрана — заводские настройки часто завышены. Используйте таймер автовыключения. Полностью выключайте телевизор, а не оставляйте в режиме ожидания."},
+        {"Класс энергоэффективности", "medium",
+            "При покупке новой техники выбирайте класс A++ или A+++. Разница в потреблении между классом A и D может достигать 50%. Это окупится за 2-3 года эксплуатации."}
+    };
+    
+    // Элементы массива через запятую, без квадратных скобок
+    static final char[] JSON = serialize();
+    
+    // Контрольная сумма каталога для ETag
+    static final long HASH = RecommendationService.hash(RecommendationService.FNV_OFFSET, JSON, JSON.length);
+    
+    private RecommendationCatalog() {}
+    
+    private static char[] serialize() {
+        StringWriter sw = new StringWriter();
+        try (JsonWriter json = new JsonWriter(sw)) {
+            json.beginArray();
+            for (String[] item : ITEMS) {
+                json.beginObject();
+                json.name("type").value("general");
+                json.name("title").value(item[0]);
+                json.name("message").value(item[2]);
+                json.name("priority").value(item[1]);
+                json.endObject();
+            }
+            json.endArray();
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        // Скобки массива отбрасываются: элементы вклеиваются в ответ после персональных рекомендаций
+        String array = sw.toString();
+        return array.substring(1, array.length() - 1).toCharArray();
+    }
+}
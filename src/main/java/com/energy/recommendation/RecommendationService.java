@@ -0,0 +1,184 @@
+package com.energy.recommendation;
+
+import com.energy.dao.ApplianceDAO;
+import com.energy.dao.TariffDAO;
+import com.energy.model.Appliance;
+import com.energy.model.Tariff;
+import com.energy.util.DataVersions;
+import com.energy.util.FanOut;
+import com.energy.util.JsonWriter;
+import com.energy.util.QueryExecutor;
+import com.energy.util.SingleFlight;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Рекомендации по энергосбережению
+ * Ответ склеивается из двух частей: персональных рекомендаций (топ потребителей, экономия на ночном тарифе),
+ * которые вычисляются по данным пользователя и кэшируются, и общего каталога, сериализованного один раз.
+ * Кэш пользователя действителен, пока не изменилась версия его данных (DataVersions) и не истёк срок хранения
+ */
+public class RecommendationService {
+    
+    private static final long TTL_MS = Long.getLong("energy.recommendations.ttlMs", 300000);
+    private static final int MAX_USERS = Integer.getInteger("energy.recommendations.maxUsers", 10000);
+    private static final long DEADLINE_MS = Long.getLong("energy.analytics.deadlineMs", 10000);
+    
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private static final RecommendationService INSTANCE = new RecommendationService();
+    
+    private final ApplianceDAO applianceDAO = new ApplianceDAO();
+    private final TariffDAO tariffDAO = new TariffDAO();
+    private final Map<Integer, Recommendations> cache = new ConcurrentHashMap<>();
+    private final SingleFlight<String, char[]> personalFlights = new SingleFlight<>();
+    
+    /**
+     * Готовый ответ для пользователя
+     */
+    public static class Recommendations {
+        private final char[] personal;
+        private final String etag;
+        private final long version;
+        private final long expiresAt;
+        
+        private Recommendations(char[] personal, long version, long expiresAt) {
+            this.personal = personal;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            long hash = hash(RecommendationCatalog.HASH, personal, personal.length);
+            this.etag = "\"rec-" + Long.toHexString(hash) + "\"";
+        }
+        
+        /**
+         * ETag, покрывающий обе части ответа
+         */
+        public String getETag() {
+            return etag;
+        }
+        
+        /**
+         * Запись JSON массива: персональные рекомендации, затем общий каталог
+         */
+        public void writeTo(Writer out) throws IOException {
+            out.write('[');
+            if (personal.length > 0) {
+                out.write(personal);
+                out.write(',');
+            }
+            out.write(RecommendationCatalog.JSON);
+            out.write(']');
+        }
+    }
+    
+    private RecommendationService() {}
+    
+    public static RecommendationService get() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Рекомендации пользователя (из кэша или с вычислением персональной части)
+     */
+    public Recommendations getRecommendations(int userId) throws Exception {
+        long now = System.currentTimeMillis();
+        // Версия читается до запросов: запись, совпавшая с вычислением, не оставит в кэше устаревших данных
+        long version = DataVersions.get(userId);
+        Recommendations cached = cache.get(userId);
+        if (cached != null && cached.version == version && cached.expiresAt > now) {
+            return cached;
+        }
+        
+        // Одновременные запросы пользователя (вкладки) вычисляют персональную часть один раз
+        Recommendations fresh = new Recommendations(
+                personalFlights.execute(userId + ":" + version, () -> buildPersonal(userId), DEADLINE_MS),
+                version, now + TTL_MS);
+        if (cache.size() >= MAX_USERS) {
+            cache.values().removeIf(r -> r.expiresAt <= now);
+            if (cache.size() >= MAX_USERS) {
+                cache.clear();
+            }
+        }
+        cache.put(userId, fresh);
+        return fresh;
+    }
+    
+    /**
+     * Персональные рекомендации: элементы JSON массива через запятую, без скобок
+     */
+    private char[] buildPersonal(int userId) throws Exception {
+        // Получаем топ потребителей и активные тарифы параллельно
+        List<Appliance> topConsumers;
+        List<Tariff> tariffs;
+        try (FanOut fanOut = QueryExecutor.fanOut(DEADLINE_MS)) {
+            FanOut.Task<List<Appliance>> topTask = fanOut.submit(() -> applianceDAO.getTopConsumers(userId, 5));
+            FanOut.Task<List<Tariff>> tariffTask = fanOut.submit(() -> tariffDAO.findActiveByUserId(userId));
+            fanOut.awaitAll();
+            topConsumers = topTask.get();
+            tariffs = tariffTask.get();
+        }
+        
+        // Находим ночной и пиковый тарифы
+        Tariff nightTariff = null;
+        Tariff peakTariff = null;
+        for (Tariff t : tariffs) {
+            if ("night".equals(t.getTariffType())) {
+                nightTariff = t;
+            } else if ("peak".equals(t.getTariffType())) {
+                peakTariff = t;
+            }
+        }
+        
+        StringWriter sw = new StringWriter();
+        try (JsonWriter json = new JsonWriter(sw)) {
+            json.beginArray();
+            
+            // Рекомендации по топ потребителям
+            for (Appliance a : topConsumers) {
+                if (a.getDailyConsumptionKwh() > 2) {
+                    json.beginObject();
+                    json.name("type").value("high_consumption");
+                    json.name("appliance").value(a.getName());
+                    json.name("dailyKwh").value(Math.round(a.getDailyConsumptionKwh() * 100.0) / 100.0);
+                    json.name("message").value("Прибор \"" + a.getName() + "\" потребляет " +
+                            String.format("%.2f", a.getDailyConsumptionKwh()) + " кВт·ч в день. " +
+                            "Рассмотрите возможность сокращения времени использования.");
+                    json.name("priority").value("high");
+                    json.endObject();
+                }
+            }
+            
+            // Рекомендация по ночному тарифу
+            if (nightTariff != null && peakTariff != null) {
+                double savings = peakTariff.getRatePerKwh() - nightTariff.getRatePerKwh();
+                json.beginObject();
+                json.name("type").value("tariff_optimization");
+                json.name("message").value("Используйте энергоёмкие приборы (стиральная машина, посудомойка) " +
+                        "в ночное время (" + nightTariff.getStartHour() + ":00 - " + nightTariff.getEndHour() + ":00). " +
+                        "Экономия: " + String.format("%.2f", savings) + " руб./кВт·ч");
+                json.name("priority").value("medium");
+                json.name("savingsPerKwh").value(savings);
+                json.endObject();
+            }
+            
+            json.endArray();
+        }
+        String array = sw.toString();
+        return array.substring(1, array.length() - 1).toCharArray();
+    }
+    
+    // FNV-1a по символам
+    static long hash(long hash, char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            hash ^= chars[i];
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -2,14 +2,26 @@ package com.energy.servlet;
 
 import com.energy.dao.*;
 import com.energy.model.*;
+import com.energy.recommendation.RecommendationService;
+import com.energy.util.DataVersions;
+import com.energy.util.ETags;
+import com.energy.util.EpochDays;
+import com.energy.util.FanOut;
 import com.energy.util.JsonUtil;
+import com.energy.util.JsonWriter;
+import com.energy.util.LatencyMetrics;
+import com.energy.util.QueryExecutor;
+import com.energy.util.ResponseCache;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 /**
@@ -19,10 +31,21 @@ import java.util.*;
 @WebServlet(urlPatterns = {"/api/analytics/*"})
 public class AnalyticsServlet extends HttpServlet {
     
+    // Общий срок выполнения параллельных запросов одного обработчика
+    private static final long QUERY_DEADLINE_MS = Long.getLong("energy.analytics.deadlineMs", 10000);
+    
+    // Допустимая глубина дневной статистики (?days=), около 10 лет
+    private static final int MAX_DAILY_DAYS = 3660;
+    
+    // Ответы, полностью определяемые данными пользователя и текущей датой (условные GET и кэш ответов по версии данных)
+    private static final Set<String> VERSIONED_PATHS = new HashSet<>(Arrays.asList(
+            "/dashboard", "/daily", "/monthly", "/forecast", "/groups", "/range"));
+    
     private ConsumptionDAO consumptionDAO;
     private ApplianceDAO applianceDAO;
     private TariffDAO tariffDAO;
     private GroupDAO groupDAO;
+    private DashboardDAO dashboardDAO;
     
     @Override
     public void init() throws ServletException {
@@ -30,6 +53,7 @@ public class AnalyticsServlet extends HttpServlet {
         applianceDAO = new ApplianceDAO();
         tariffDAO = new TariffDAO();
         groupDAO = new GroupDAO();
+        dashboardDAO = new DashboardDAO();
     }
     
     @Override
@@ -49,100 +73,190 @@ public class AnalyticsServlet extends HttpServlet {
         
         int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
+        long start = System.nanoTime();
         
         try {
-            if ("/dashboard".equals(pathInfo)) {
-                handleDashboard(userId, out);
-            } else if ("/daily".equals(pathInfo)) {
-                handleDailyStats(userId, request, out);
-            } else if ("/monthly".equals(pathInfo)) {
-                handleMonthlyStats(userId, out);
-            } else if ("/forecast".equals(pathInfo)) {
-                handleForecast(userId, out);
+            if ("/daily".equals(pathInfo) && parseDays(request) == null) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print(JsonUtil.errorResponse("Параметр days должен быть целым числом от 1 до " + MAX_DAILY_DAYS));
+            } else if ("/range".equals(pathInfo) && parseRange(request) == null) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.print(JsonUtil.errorResponse("Укажите период: from и to в формате ГГГГ-ММ-ДД, from не позже to"));
+            } else if (VERSIONED_PATHS.contains(pathInfo)) {
+                handleVersioned(userId, pathInfo, request, response, out);
             } else if ("/recommendations".equals(pathInfo)) {
-                handleRecommendations(userId, out);
+                handleRecommendations(userId, request, response, out);
             } else if ("/export".equals(pathInfo)) {
                 handleExport(userId, request, response);
-            } else if ("/groups".equals(pathInfo)) {
-                handleGroupStats(userId, out);
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 out.print(JsonUtil.errorResponse("Неизвестный путь"));
             }
         } catch (Exception e) {
+            if (response.isCommitted()) {
+                // Часть потокового ответа уже отправлена - обрываем передачу, чтобы клиент не получил неполный файл как целый
+                throw new IOException("Ошибка при передаче ответа: " + e.getMessage(), e);
+            }
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
+        } finally {
+            if (response.getStatus() != HttpServletResponse.SC_NOT_FOUND) {
+                LatencyMetrics.record("analytics" + pathInfo, start);
+            }
         }
     }
     
+    /**
+     * Ответы, зависящие только от данных пользователя и текущей даты
+     * Ответ по неизменившимся данным не пересчитывается: клиенту с актуальным ETag отдаётся 304,
+     * остальным - готовое тело из ResponseCache, построенное для той же версии данных.
+     * Одновременные одинаковые запросы (вкладки, параллельная загрузка панели) строят ответ один раз
+     */
+    private void handleVersioned(int userId, String pathInfo, HttpServletRequest request,
+                                 HttpServletResponse response, PrintWriter out) throws Exception {
+        String etag = DataVersions.etag(userId, "/dashboard".equals(pathInfo));
+        if (ETags.checkNotModified(request, response, etag)) {
+            return;
+        }
+        
+        String key = ResponseCache.key(userId, pathInfo, request.getQueryString());
+        String body = ResponseCache.getOrRender(userId, key, etag, () -> {
+            StringWriter buffer = new StringWriter();
+            PrintWriter bufferOut = new PrintWriter(buffer);
+            if ("/dashboard".equals(pathInfo)) {
+                handleDashboard(userId, bufferOut);
+            } else if ("/daily".equals(pathInfo)) {
+                handleDailyStats(userId, request, bufferOut);
+            } else if ("/monthly".equals(pathInfo)) {
+                handleMonthlyStats(userId, bufferOut);
+            } else if ("/forecast".equals(pathInfo)) {
+                handleForecast(userId, bufferOut);
+            } else if ("/range".equals(pathInfo)) {
+                handleRange(userId, parseRange(request), bufferOut);
+            } else {
+                handleGroupStats(userId, bufferOut);
+            }
+            bufferOut.flush();
+            return buffer.toString();
+        }, QUERY_DEADLINE_MS);
+        out.write(body);
+    }
+    
     /**
      * Данные для главной панели
      */
     private void handleDashboard(int userId, PrintWriter out) throws Exception {
         Map<String, Object> dashboard = new HashMap<>();
         
+        // Все показатели панели одним запросом
+        Calendar cal = Calendar.getInstance();
+        DashboardSummary summary = dashboardDAO.getSummary(userId, cal.get(Calendar.HOUR_OF_DAY));
+        
         // Текущее потребление
-        double totalDailyKwh = applianceDAO.getTotalDailyConsumption(userId);
-        double avgRate = tariffDAO.getAverageRate(userId);
+        double totalDailyKwh = summary.getTotalDailyKwh();
+        double totalDailyCost = summary.getTotalDailyCost();
         
         dashboard.put("dailyKwh", Math.round(totalDailyKwh * 100.0) / 100.0);
         dashboard.put("monthlyKwh", Math.round(totalDailyKwh * 30 * 100.0) / 100.0);
-        dashboard.put("dailyCost", Math.round(totalDailyKwh * avgRate * 100.0) / 100.0);
-        dashboard.put("monthlyCost", Math.round(totalDailyKwh * 30 * avgRate * 100.0) / 100.0);
+        dashboard.put("dailyCost", Math.round(totalDailyCost * 100.0) / 100.0);
+        dashboard.put("monthlyCost", Math.round(totalDailyCost * 30 * 100.0) / 100.0);
         
         // Сравнение с прошлым месяцем
-        double comparison = consumptionDAO.getComparisonWithPreviousMonth(userId);
-        dashboard.put("comparisonPercent", Math.round(comparison * 10.0) / 10.0);
+        dashboard.put("comparisonPercent", Math.round(summary.getComparisonPercent() * 10.0) / 10.0);
         
         // Текущий месяц из записей
-        double currentMonthKwh = consumptionDAO.getCurrentMonthConsumption(userId);
-        double currentMonthCost = consumptionDAO.getCurrentMonthCost(userId);
-        dashboard.put("currentMonthKwh", Math.round(currentMonthKwh * 100.0) / 100.0);
-        dashboard.put("currentMonthCost", Math.round(currentMonthCost * 100.0) / 100.0);
+        dashboard.put("currentMonthKwh", Math.round(summary.getCurrentMonthKwh() * 100.0) / 100.0);
+        dashboard.put("currentMonthCost", Math.round(summary.getCurrentMonthCost() * 100.0) / 100.0);
         
-        // Количество приборов
-        List<Appliance> appliances = applianceDAO.findByUserId(userId);
-        dashboard.put("applianceCount", appliances.size());
-        
-        // Количество групп
-        List<ApplianceGroup> groups = groupDAO.findByUserId(userId);
-        dashboard.put("groupCount", groups.size());
+        // Количество приборов и групп
+        dashboard.put("applianceCount", summary.getApplianceCount());
+        dashboard.put("groupCount", summary.getGroupCount());
         
         // Текущий тариф
-        Calendar cal = Calendar.getInstance();
-        Tariff currentTariff = tariffDAO.getTariffForHour(userId, cal.get(Calendar.HOUR_OF_DAY));
-        if (currentTariff != null) {
-            dashboard.put("currentTariff", currentTariff.getName());
-            dashboard.put("currentRate", currentTariff.getRatePerKwh());
+        if (summary.getCurrentTariffName() != null) {
+            dashboard.put("currentTariff", summary.getCurrentTariffName());
+            dashboard.put("currentRate", summary.getCurrentTariffRate());
         }
         
-        out.print(JsonUtil.toJson(dashboard));
+        JsonUtil.writeJson(out, dashboard);
     }
     
     /**
      * Дневная статистика
      */
     private void handleDailyStats(int userId, HttpServletRequest request, PrintWriter out) throws Exception {
-        int days = 30;
+        DailySeries series = consumptionDAO.getDailyStats(userId, parseDays(request));
+        
+        // Ряд пишется напрямую в JSON, сохраняя порядок дат
+        StringBuilder date = new StringBuilder(10);
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginArray();
+            for (int i = 0; i < series.size(); i++) {
+                date.setLength(0);
+                EpochDays.appendIsoDate(date, series.getEpochDay(i));
+                json.beginObject();
+                json.name("date").value(date);
+                json.name("kwh").value(Math.round(series.getKwh(i) * 100.0) / 100.0);
+                json.name("cost").value(Math.round(series.getCost(i) * 100.0) / 100.0);
+                json.endObject();
+            }
+            json.endArray();
+        }
+    }
+    
+    /**
+     * Потребление и стоимость за произвольный период (from и to включительно)
+     */
+    private void handleRange(int userId, LocalDate[] range, PrintWriter out) throws Exception {
+        LocalDate from = range[0];
+        LocalDate to = range[1];
+        PeriodTotals totals = consumptionDAO.getPeriodTotals(userId, Date.valueOf(from), Date.valueOf(to.plusDays(1)));
+        long days = to.toEpochDay() - from.toEpochDay() + 1;
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("from", from.toString());
+        result.put("to", to.toString());
+        result.put("days", days);
+        result.put("kwh", Math.round(totals.getKwh() * 100.0) / 100.0);
+        result.put("cost", Math.round(totals.getCost() * 100.0) / 100.0);
+        result.put("avgDailyKwh", Math.round(totals.getKwh() / days * 100.0) / 100.0);
+        JsonUtil.writeJson(out, result);
+    }
+    
+    /**
+     * Разбор параметра days запроса /daily (по умолчанию 30)
+     * @return число дней или null, если параметр некорректен или вне 1..MAX_DAILY_DAYS
+     */
+    private Integer parseDays(HttpServletRequest request) {
         String daysParam = request.getParameter("days");
-        if (daysParam != null) {
-            days = Integer.parseInt(daysParam);
+        if (daysParam == null) {
+            return 30;
         }
-        
-        Map<String, Double> consumption = consumptionDAO.getDailyConsumption(userId, days);
-        Map<String, Double> costs = consumptionDAO.getDailyCost(userId, days);
-        
-        List<Map<String, Object>> result = new ArrayList<>();
-        
-        for (Map.Entry<String, Double> entry : consumption.entrySet()) {
-            Map<String, Object> day = new HashMap<>();
-            day.put("date", entry.getKey());
-            day.put("kwh", Math.round(entry.getValue() * 100.0) / 100.0);
-            day.put("cost", Math.round(costs.getOrDefault(entry.getKey(), 0.0) * 100.0) / 100.0);
-            result.add(day);
+        try {
+            int days = Integer.parseInt(daysParam);
+            return days >= 1 && days <= MAX_DAILY_DAYS ? days : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Разбор параметров from и to запроса /range
+     * @return [from, to] или null, если параметры не заданы или некорректны
+     */
+    private LocalDate[] parseRange(HttpServletRequest request) {
+        String fromParam = request.getParameter("from");
+        String toParam = request.getParameter("to");
+        if (fromParam == null || toParam == null) {
+            return null;
+        }
+        try {
+            LocalDate from = LocalDate.parse(fromParam);
+            LocalDate to = LocalDate.parse(toParam);
+            return from.isAfter(to) ? null : new LocalDate[] {from, to};
+        } catch (DateTimeParseException e) {
+            return null;
         }
-        
-        out.print(JsonUtil.toJsonArray(result));
     }
     
     /**
@@ -159,7 +273,7 @@ public class AnalyticsServlet extends HttpServlet {
             stat.put("monthName", monthNames[month]);
         }
         
-        out.print(JsonUtil.toJsonArray(stats));
+        JsonUtil.writeJson(out, stats);
     }
     
     /**
@@ -168,9 +282,21 @@ public class AnalyticsServlet extends HttpServlet {
     private void handleForecast(int userId, PrintWriter out) throws Exception {
         Map<String, Object> forecast = new HashMap<>();
         
-        // Расчёт на основе текущих приборов
-        double dailyKwh = applianceDAO.getTotalDailyConsumption(userId);
-        double avgRate = tariffDAO.getAverageRate(userId);
+        // Независимые запросы выполняются параллельно
+        double dailyKwh, dailyCost;
+        PeriodTotals currentMonth;
+        try (FanOut fanOut = QueryExecutor.fanOut(QUERY_DEADLINE_MS)) {
+            FanOut.Task<Double> dailyTask = fanOut.submit(() -> applianceDAO.getTotalDailyConsumption(userId));
+            FanOut.Task<Double> costTask = fanOut.submit(() ->
+                    tariffDAO.getCostEngine(userId).totalDailyCost(applianceDAO.findByUserId(userId)));
+            FanOut.Task<PeriodTotals> monthTask = fanOut.submit(() -> consumptionDAO.getCurrentMonthTotals(userId));
+            fanOut.awaitAll();
+            
+            // Расчёт на основе текущих приборов
+            dailyKwh = dailyTask.get();
+            dailyCost = costTask.get();
+            currentMonth = monthTask.get();
+        }
         
         // Прогноз на месяц
         Calendar cal = Calendar.getInstance();
@@ -178,9 +304,9 @@ public class AnalyticsServlet extends HttpServlet {
         int dayOfMonth = cal.get(Calendar.DAY_OF_MONTH);
         int remainingDays = daysInMonth - dayOfMonth;
         
-        double currentMonthKwh = consumptionDAO.getCurrentMonthConsumption(userId);
-        double projectedKwh = currentMonthKwh + (dailyKwh * remainingDays);
-        double projectedCost = projectedKwh * avgRate;
+        // Прошедшие дни - по записанной стоимости, оставшиеся - по тарифам времени суток
+        double projectedKwh = currentMonth.getKwh() + (dailyKwh * remainingDays);
+        double projectedCost = currentMonth.getCost() + (dailyCost * remainingDays);
         
         forecast.put("projectedMonthlyKwh", Math.round(projectedKwh * 100.0) / 100.0);
         forecast.put("projectedMonthlyCost", Math.round(projectedCost * 100.0) / 100.0);
@@ -189,155 +315,25 @@ public class AnalyticsServlet extends HttpServlet {
         
         // Прогноз на год
         double yearlyKwh = dailyKwh * 365;
-        double yearlyCost = yearlyKwh * avgRate;
+        double yearlyCost = dailyCost * 365;
         forecast.put("projectedYearlyKwh", Math.round(yearlyKwh * 100.0) / 100.0);
         forecast.put("projectedYearlyCost", Math.round(yearlyCost * 100.0) / 100.0);
         
-        out.print(JsonUtil.toJson(forecast));
+        JsonUtil.writeJson(out, forecast);
     }
     
     /**
      * Рекомендации по энергосбережению
+     * Общий каталог сериализован заранее, персональная часть берётся из кэша пользователя
      */
-    private void handleRecommendations(int userId, PrintWriter out) throws Exception {
-        List<Map<String, Object>> recommendations = new ArrayList<>();
+    private void handleRecommendations(int userId, HttpServletRequest request, HttpServletResponse response,
+                                       PrintWriter out) throws Exception {
+        RecommendationService.Recommendations recommendations = RecommendationService.get().getRecommendations(userId);
         
-        // Получаем топ потребителей
-        List<Appliance> topConsumers = applianceDAO.getTopConsumers(userId, 5);
-        List<Tariff> tariffs = tariffDAO.findActiveByUserId(userId);
-        
-        // Находим ночной тариф
-        Tariff nightTariff = null;
-        Tariff peakTariff = null;
-        for (Tariff t : tariffs) {
-            if ("night".equals(t.getTariffType())) {
-                nightTariff = t;
-            } else if ("peak".equals(t.getTariffType())) {
-                peakTariff = t;
-            }
-        }
-        
-        // Рекомендации по топ потребителям
-        for (Appliance a : topConsumers) {
-            if (a.getDailyConsumptionKwh() > 2) {
-                Map<String, Object> rec = new HashMap<>();
-                rec.put("type", "high_consumption");
-                rec.put("appliance", a.getName());
-                rec.put("dailyKwh", Math.round(a.getDailyConsumptionKwh() * 100.0) / 100.0);
-                rec.put("message", "Прибор \"" + a.getName() + "\" потребляет " + 
-                        String.format("%.2f", a.getDailyConsumptionKwh()) + " кВт·ч в день. " +
-                        "Рассмотрите возможность сокращения времени использования.");
-                rec.put("priority", "high");
-                recommendations.add(rec);
-            }
-        }
-        
-        // Рекомендация по ночному тарифу
-        if (nightTariff != null && peakTariff != null) {
-            double savings = peakTariff.getRatePerKwh() - nightTariff.getRatePerKwh();
-            Map<String, Object> rec = new HashMap<>();
-            rec.put("type", "tariff_optimization");
-            rec.put("message", "Используйте энергоёмкие приборы (стиральная машина, посудомойка) " +
-                    "в ночное время (" + nightTariff.getStartHour() + ":00 - " + nightTariff.getEndHour() + ":00). " +
-                    "Экономия: " + String.format("%.2f", savings) + " руб./кВт·ч");
-            rec.put("priority", "medium");
-            rec.put("savingsPerKwh", savings);
-            recommendations.add(rec);
+        if (ETags.checkNotModified(request, response, recommendations.getETag())) {
+            return;
         }
-        
-        // Общие рекомендации по энергосбережению
-        Map<String, Object> ledRec = new HashMap<>();
-        ledRec.put("type", "general");
-        ledRec.put("title", "Освещение");
-        ledRec.put("message", "Замените лампы накаливания на LED. Экономия до 80% электроэнергии на освещение. LED-лампа 10 Вт даёт столько же света, сколько лампа накаливания 75 Вт.");
-        ledRec.put("priority", "high");
-        recommendations.add(ledRec);
-        
-        Map<String, Object> standbyRec = new HashMap<>();
-        standbyRec.put("type", "general");
-        standbyRec.put("title", "Режим ожидания");
-        standbyRec.put("message", "Отключайте электроприборы от сети, когда не используете. Режим ожидания может потреблять до 10% от общего энергопотребления. Используйте удлинители с выключателем.");
-        standbyRec.put("priority", "medium");
-        recommendations.add(standbyRec);
-        
-        Map<String, Object> fridgeRec = new HashMap<>();
-        fridgeRec.put("type", "general");
-        fridgeRec.put("title", "Холодильник");
-        fridgeRec.put("message", "Не ставьте холодильник рядом с плитой или батареей. Регулярно размораживайте, если нет системы No Frost. Не ставьте горячую еду в холодильник — это увеличивает расход энергии на 20%.");
-        fridgeRec.put("priority", "medium");
-        recommendations.add(fridgeRec);
-        
-        Map<String, Object> washingRec = new HashMap<>();
-        washingRec.put("type", "general");
-        washingRec.put("title", "Стиральная машина");
-        washingRec.put("message", "Стирайте при полной загрузке барабана. Используйте режим 30-40°C вместо 60°C — экономия до 50% электроэнергии. Запускайте стирку в ночное время по льготному тарифу.");
-        washingRec.put("priority", "medium");
-        recommendations.add(washingRec);
-        
-        Map<String, Object> kettleRec = new HashMap<>();
-        kettleRec.put("type", "general");
-        kettleRec.put("title", "Электрочайник");
-        kettleRec.put("message", "Кипятите только необходимое количество воды. Регулярно очищайте чайник от накипи — она увеличивает расход энергии на 15-20%. Рассмотрите термопот для частого использования.");
-        kettleRec.put("priority", "low");
-        recommendations.add(kettleRec);
-        
-        Map<String, Object> acRec = new HashMap<>();
-        acRec.put("type", "general");
-        acRec.put("title", "Кондиционер");
-        acRec.put("message", "Устанавливайте температуру не ниже 24°C летом. Каждый градус ниже увеличивает расход на 5-8%. Регулярно чистите фильтры. Закрывайте окна и двери при работе кондиционера.");
-        acRec.put("priority", "high");
-        recommendations.add(acRec);
-        
-        Map<String, Object> windowRec = new HashMap<>();
-        windowRec.put("type", "general");
-        windowRec.put("title", "Естественное освещение");
-        windowRec.put("message", "Максимально используйте дневной свет. Держите окна чистыми. Используйте светлые шторы, которые пропускают свет. Расставьте мебель так, чтобы не загораживать окна.");
-        windowRec.put("priority", "low");
-        recommendations.add(windowRec);
-        
-        Map<String, Object> heaterRec = new HashMap<>();
-        heaterRec.put("type", "general");
-        heaterRec.put("title", "Электрообогреватели");
-        heaterRec.put("message", "Обогреватели — одни из самых энергозатратных приборов. Утеплите окна и двери. Используйте обогреватель только в одной комнате. Выключайте при выходе из дома.");
-        heaterRec.put("priority", "high");
-        recommendations.add(heaterRec);
-        
-        Map<String, Object> computerRec = new HashMap<>();
-        computerRec.put("type", "general");
-        computerRec.put("title", "Компьютер и ноутбук");
-        computerRec.put("message", "Используйте режим энергосбережения. Выключайте монитор при перерывах более 10 минут. Ноутбук потребляет в 3-4 раза меньше настольного ПК. Отключайте зарядку после полной зарядки.");
-        computerRec.put("priority", "low");
-        recommendations.add(computerRec);
-        
-        Map<String, Object> ironRec = new HashMap<>();
-        ironRec.put("type", "general");
-        ironRec.put("title", "Утюг");
-        ironRec.put("message", "Гладьте сразу большое количество белья. Начинайте с вещей, требующих низкой температуры. Выключайте утюг за 5-10 минут до окончания — остаточного тепла хватит для лёгких тканей.");
-        ironRec.put("priority", "low");
-        recommendations.add(ironRec);
-        
-        Map<String, Object> dishwasherRec = new HashMap<>();
-        dishwasherRec.put("type", "general");
-        dishwasherRec.put("title", "Посудомоечная машина");
-        dishwasherRec.put("message", "Запускайте только при полной загрузке. Используйте эко-режим. Откажитесь от режима сушки — откройте дверцу и дайте посуде высохнуть естественным путём.");
-        dishwasherRec.put("priority", "medium");
-        recommendations.add(dishwasherRec);
-        
-        Map<String, Object> tvRec = new HashMap<>();
-        tvRec.put("type", "general");
-        tvRec.put("title", "Телевизор");
-        tvRec.put("message", "Уменьшите яркость экрана — заводские настройки часто завышены. Используйте таймер автовыключения. Полностью выключайте телевизор, а не оставляйте в режиме ожидания.");
-        tvRec.put("priority", "low");
-        recommendations.add(tvRec);
-        
-        Map<String, Object> classRec = new HashMap<>();
-        classRec.put("type", "general");
-        classRec.put("title", "Класс энергоэффективности");
-        classRec.put("message", "При покупке новой техники выбирайте класс A++ или A+++. Разница в потреблении между классом A и D может достигать 50%. Это окупится за 2-3 года эксплуатации.");
-        classRec.put("priority", "medium");
-        recommendations.add(classRec);
-        
-        out.print(JsonUtil.toJsonArray(recommendations));
+        recommendations.writeTo(out);
     }
     
     /**
@@ -359,19 +355,27 @@ public class AnalyticsServlet extends HttpServlet {
             startDate = new Date(cal.getTimeInMillis());
         }
         
-        String csv = consumptionDAO.exportToCSV(userId, startDate, endDate);
-        
+        // Длина заранее неизвестна - контейнер передаёт ответ частями
         response.setContentType("text/csv; charset=UTF-8");
         response.setHeader("Content-Disposition", "attachment; filename=\"consumption_report.csv\"");
-        response.getWriter().print(csv);
+        consumptionDAO.exportToCSV(userId, startDate, endDate, response.getWriter());
     }
     
     /**
      * Статистика по группам
      */
     private void handleGroupStats(int userId, PrintWriter out) throws Exception {
-        List<ApplianceGroup> groups = groupDAO.findByUserId(userId);
-        double avgRate = tariffDAO.getAverageRate(userId);
+        List<ApplianceGroup> groups;
+        Map<Integer, Double> dailyCosts;
+        try (FanOut fanOut = QueryExecutor.fanOut(QUERY_DEADLINE_MS)) {
+            FanOut.Task<List<ApplianceGroup>> groupTask = fanOut.submit(() -> groupDAO.findByUserId(userId));
+            // Стоимость всех групп - один проход по приборам пользователя
+            FanOut.Task<Map<Integer, Double>> costTask = fanOut.submit(() ->
+                    tariffDAO.getCostEngine(userId).dailyCostByGroup(applianceDAO.findByUserId(userId)));
+            fanOut.awaitAll();
+            groups = groupTask.get();
+            dailyCosts = costTask.get();
+        }
         
         List<Map<String, Object>> result = new ArrayList<>();
         
@@ -383,12 +387,13 @@ public class AnalyticsServlet extends HttpServlet {
             stat.put("applianceCount", g.getApplianceCount());
             stat.put("dailyKwh", Math.round(g.getTotalDailyKwh() * 100.0) / 100.0);
             stat.put("monthlyKwh", Math.round(g.getTotalMonthlyKwh() * 100.0) / 100.0);
-            stat.put("dailyCost", Math.round(g.getTotalDailyKwh() * avgRate * 100.0) / 100.0);
-            stat.put("monthlyCost", Math.round(g.getTotalMonthlyKwh() * avgRate * 100.0) / 100.0);
+            double dailyCost = dailyCosts.getOrDefault(g.getId(), 0.0);
+            stat.put("dailyCost", Math.round(dailyCost * 100.0) / 100.0);
+            stat.put("monthlyCost", Math.round(dailyCost * 30 * 100.0) / 100.0);
             result.add(stat);
         }
         
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJson(out, result);
     }
 }
 
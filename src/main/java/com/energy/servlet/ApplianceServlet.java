@@ -3,12 +3,15 @@ package com.energy.servlet;
 import com.energy.dao.ApplianceDAO;
 import com.energy.dao.TariffDAO;
 import com.energy.model.Appliance;
+import com.energy.model.ApplianceSerializer;
+import com.energy.model.CostEngine;
+import com.energy.util.DataVersions;
+import com.energy.util.ETags;
 import com.energy.util.JsonUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
@@ -47,6 +50,11 @@ public class ApplianceServlet extends HttpServlet {
         int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
+        // Данные пользователя не менялись - ответ у клиента актуален
+        if (ETags.checkNotModified(request, response, DataVersions.etag(userId, false))) {
+            return;
+        }
+        
         try {
             if (pathInfo == null || pathInfo.equals("/")) {
                 // Получить все приборы
@@ -88,6 +96,7 @@ public class ApplianceServlet extends HttpServlet {
         try {
             Map<String, Object> data = parseRequestBody(request);
             handleCreate(userId, data, out);
+            DataVersions.bump(userId);
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
@@ -109,6 +118,7 @@ public class ApplianceServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
@@ -116,6 +126,7 @@ public class ApplianceServlet extends HttpServlet {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 Map<String, Object> data = parseRequestBody(request);
                 handleUpdate(id, data, out);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID прибора"));
@@ -141,12 +152,14 @@ public class ApplianceServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
             if (pathInfo != null && pathInfo.length() > 1) {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 handleDelete(id, out);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID прибора"));
@@ -159,22 +172,17 @@ public class ApplianceServlet extends HttpServlet {
     
     private void handleGetAll(int userId, PrintWriter out) throws Exception {
         List<Appliance> appliances = applianceDAO.findByUserId(userId);
-        double avgRate = tariffDAO.getAverageRate(userId);
-        
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Appliance a : appliances) {
-            result.add(applianceToMap(a, avgRate));
-        }
+        CostEngine costEngine = tariffDAO.getCostEngine(userId);
         
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, appliances, new ApplianceSerializer(costEngine));
     }
     
     private void handleGetById(int id, PrintWriter out) throws Exception {
         Appliance appliance = applianceDAO.findById(id);
         
         if (appliance != null) {
-            double avgRate = tariffDAO.getAverageRate(appliance.getUserId());
-            out.print(JsonUtil.toJson(applianceToMap(appliance, avgRate)));
+            CostEngine costEngine = tariffDAO.getCostEngine(appliance.getUserId());
+            JsonUtil.writeJson(out, appliance, new ApplianceSerializer(costEngine));
         } else {
             out.print(JsonUtil.errorResponse("Прибор не найден"));
         }
@@ -182,28 +190,26 @@ public class ApplianceServlet extends HttpServlet {
     
     private void handleGetTopConsumers(int userId, PrintWriter out) throws Exception {
         List<Appliance> appliances = applianceDAO.getTopConsumers(userId, 5);
-        double avgRate = tariffDAO.getAverageRate(userId);
+        CostEngine costEngine = tariffDAO.getCostEngine(userId);
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Appliance a : appliances) {
-            result.add(applianceToMap(a, avgRate));
-        }
-        
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, appliances, new ApplianceSerializer(costEngine));
     }
     
     private void handleGetStats(int userId, PrintWriter out) throws Exception {
         double totalDaily = applianceDAO.getTotalDailyConsumption(userId);
-        double avgRate = tariffDAO.getAverageRate(userId);
+        CostEngine costEngine = tariffDAO.getCostEngine(userId);
+        double totalDailyCost = costEngine.totalDailyCost(applianceDAO.findByUserId(userId));
         
         Map<String, Object> stats = new HashMap<>();
         stats.put("totalDailyKwh", Math.round(totalDaily * 100.0) / 100.0);
         stats.put("totalMonthlyKwh", Math.round(totalDaily * 30 * 100.0) / 100.0);
-        stats.put("totalDailyCost", Math.round(totalDaily * avgRate * 100.0) / 100.0);
-        stats.put("totalMonthlyCost", Math.round(totalDaily * 30 * avgRate * 100.0) / 100.0);
-        stats.put("avgTariff", Math.round(avgRate * 100.0) / 100.0);
+        stats.put("totalDailyCost", Math.round(totalDailyCost * 100.0) / 100.0);
+        stats.put("totalMonthlyCost", Math.round(totalDailyCost * 30 * 100.0) / 100.0);
+        // Средняя ставка по фактическому распределению нагрузки приборов по часам
+        double avgTariff = totalDaily > 0 ? totalDailyCost / totalDaily : costEngine.getRate();
+        stats.put("avgTariff", Math.round(avgTariff * 100.0) / 100.0);
         
-        out.print(JsonUtil.toJson(stats));
+        JsonUtil.writeJson(out, stats);
     }
     
     private void handleCreate(int userId, Map<String, Object> data, PrintWriter out) throws Exception {
@@ -221,16 +227,19 @@ public class ApplianceServlet extends HttpServlet {
         Appliance created = applianceDAO.create(appliance);
         
         if (created != null) {
-            double avgRate = tariffDAO.getAverageRate(userId);
-            Map<String, Object> response = applianceToMap(created, avgRate);
+            ApplianceSerializer serializer = new ApplianceSerializer(tariffDAO.getCostEngine(userId));
             
             // Добавляем рекомендацию если есть
             String tip = getApplianceTip(created.getName(), created.getDailyConsumptionKwh());
-            if (tip != null) {
-                response.put("tip", tip);
-            }
             
-            out.print(JsonUtil.successResponse("Прибор добавлен", response));
+            out.print(JsonUtil.successResponse("Прибор добавлен", created, (json, a) -> {
+                json.beginObject();
+                serializer.writeFields(json, a);
+                if (tip != null) {
+                    json.name("tip").value(tip);
+                }
+                json.endObject();
+            }));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при создании прибора"));
         }
@@ -265,8 +274,8 @@ public class ApplianceServlet extends HttpServlet {
         }
         
         if (applianceDAO.update(appliance)) {
-            double avgRate = tariffDAO.getAverageRate(appliance.getUserId());
-            out.print(JsonUtil.successResponse("Прибор обновлён", applianceToMap(appliance, avgRate)));
+            CostEngine costEngine = tariffDAO.getCostEngine(appliance.getUserId());
+            out.print(JsonUtil.successResponse("Прибор обновлён", appliance, new ApplianceSerializer(costEngine)));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при обновлении"));
         }
@@ -280,31 +289,9 @@ public class ApplianceServlet extends HttpServlet {
         }
     }
     
-    private Map<String, Object> applianceToMap(Appliance a, double avgRate) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("id", a.getId());
-        map.put("name", a.getName());
-        map.put("powerWatts", a.getPowerWatts());
-        map.put("dailyUsageHours", a.getDailyUsageHours());
-        map.put("quantity", a.getQuantity());
-        map.put("groupId", a.getGroupId());
-        map.put("groupName", a.getGroupName());
-        map.put("isActive", a.isActive());
-        map.put("dailyKwh", Math.round(a.getDailyConsumptionKwh() * 1000.0) / 1000.0);
-        map.put("monthlyKwh", Math.round(a.getMonthlyConsumptionKwh() * 100.0) / 100.0);
-        map.put("dailyCost", Math.round(a.getDailyCost(avgRate) * 100.0) / 100.0);
-        map.put("monthlyCost", Math.round(a.getMonthlyCost(avgRate) * 100.0) / 100.0);
-        return map;
-    }
-    
     private Map<String, Object> parseRequestBody(HttpServletRequest request) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader = request.getReader();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
-        }
-        return JsonUtil.parseJson(sb.toString());
+        // Тело разбирается прямо из потока запроса
+        return JsonUtil.parseJson(request.getReader());
     }
     
     // Вспомогательные методы для безопасного преобразования типов
@@ -181,7 +181,7 @@ public class AuthServlet extends HttpServlet {
     /**
      * Проверка авторизации
      */
-    private void handleCheckAuth(HttpServletRequest request, PrintWriter out) {
+    private void handleCheckAuth(HttpServletRequest request, PrintWriter out) throws IOException {
         HttpSession session = request.getSession(false);
         
         Map<String, Object> result = new HashMap<>();
@@ -193,7 +193,7 @@ public class AuthServlet extends HttpServlet {
             result.put("authenticated", false);
         }
         
-        out.print(JsonUtil.toJson(result));
+        JsonUtil.writeJson(out, result);
     }
     
     /**
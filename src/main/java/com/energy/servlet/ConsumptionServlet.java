@@ -0,0 +1,398 @@
+package com.energy.servlet;
+
+import com.energy.dao.ApplianceDAO;
+import com.energy.dao.ConsumptionDAO;
+import com.energy.dao.TariffDAO;
+import com.energy.ingest.WriteBehindQueue;
+import com.energy.model.Appliance;
+import com.energy.model.ConsumptionRecord;
+import com.energy.model.ConsumptionRecordSerializer;
+import com.energy.model.CostEngine;
+import com.energy.util.DataVersions;
+import com.energy.util.ETags;
+import com.energy.util.IngestMetrics;
+import com.energy.util.JsonReader;
+import com.energy.util.JsonUtil;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Сервлет для загрузки показаний потребления
+ * Принимает пакеты показаний счётчиков в виде JSON массива или NDJSON (один объект на строку):
+ * /batch - синхронная запись, /queue - постановка в очередь асинхронной записи.
+ * GET возвращает показания за период
+ */
+@WebServlet(urlPatterns = {"/api/consumption/*"})
+public class ConsumptionServlet extends HttpServlet {
+    
+    // Максимальное число показаний в одном запросе
+    private static final int MAX_READINGS = Integer.getInteger("energy.ingest.maxReadings", 10000);
+    
+    // Максимальное число ошибок проверки, возвращаемых в ответе
+    private static final int MAX_REPORTED_ERRORS = 100;
+    
+    // HTTP 429 отсутствует среди констант Servlet API
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final int RETRY_AFTER_SECONDS = Integer.getInteger("energy.ingest.queue.retryAfterSec", 1);
+    
+    // Пределы столбцов consumption_records: consumption_kwh DECIMAL(10,4), cost DECIMAL(10,2)
+    private static final double MAX_KWH = 999999.9999;
+    private static final double MAX_COST = 99999999.99;
+    
+    // Показания старше этого числа лет не принимаются
+    private static final int MAX_AGE_YEARS = Integer.getInteger("energy.ingest.maxAgeYears", 5);
+    
+    private static final Set<String> TARIFF_TYPES = new HashSet<>(Arrays.asList("peak", "night", "shoulder", "flat"));
+    
+    private ConsumptionDAO consumptionDAO;
+    private ApplianceDAO applianceDAO;
+    private TariffDAO tariffDAO;
+    
+    @Override
+    public void init() throws ServletException {
+        consumptionDAO = new ConsumptionDAO();
+        applianceDAO = new ApplianceDAO();
+        tariffDAO = new TariffDAO();
+    }
+    
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            out.print(JsonUtil.errorResponse("Требуется авторизация"));
+            return;
+        }
+        
+        int userId = (int) session.getAttribute("userId");
+        String pathInfo = request.getPathInfo();
+        
+        // Данные пользователя не менялись - ответ у клиента актуален
+        if (ETags.checkNotModified(request, response, DataVersions.etag(userId, false))) {
+            return;
+        }
+        
+        try {
+            if (pathInfo == null || pathInfo.equals("/")) {
+                handleGetRecords(userId, request, out);
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print(JsonUtil.errorResponse("Неизвестный путь"));
+            }
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+    
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            out.print(JsonUtil.errorResponse("Требуется авторизация"));
+            return;
+        }
+        
+        int userId = (int) session.getAttribute("userId");
+        String pathInfo = request.getPathInfo();
+        
+        try {
+            if ("/batch".equals(pathInfo)) {
+                handleBatch(userId, request, response, out);
+            } else if ("/queue".equals(pathInfo)) {
+                handleQueue(userId, request, response, out);
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print(JsonUtil.errorResponse("Неизвестный путь"));
+            }
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+    
+    /**
+     * Показания за период (по умолчанию - последние 30 дней)
+     */
+    private void handleGetRecords(int userId, HttpServletRequest request, PrintWriter out) throws Exception {
+        String startDateStr = request.getParameter("startDate");
+        String endDateStr = request.getParameter("endDate");
+        
+        LocalDate endDate = endDateStr != null ? LocalDate.parse(endDateStr) : LocalDate.now();
+        LocalDate startDate = startDateStr != null ? LocalDate.parse(startDateStr) : endDate.minusDays(30);
+        
+        List<ConsumptionRecord> records = consumptionDAO.findByPeriod(userId, Date.valueOf(startDate), Date.valueOf(endDate));
+        JsonUtil.writeJsonArray(out, records, ConsumptionRecordSerializer.INSTANCE);
+    }
+    
+    /**
+     * Пакетная загрузка показаний
+     * Некорректные показания пропускаются и перечисляются в ответе с их индексом,
+     * корректные записываются одной транзакцией
+     */
+    private void handleBatch(int userId, HttpServletRequest request, HttpServletResponse response,
+                             PrintWriter out) throws Exception {
+        long start = System.nanoTime();
+        
+        List<ConsumptionRecord> records = new ArrayList<>();
+        List<Map<String, Object>> errors = new ArrayList<>();
+        Integer rejected = validate(userId, request, response, out, records, errors);
+        if (rejected == null) {
+            return;
+        }
+        
+        int accepted;
+        try {
+            accepted = consumptionDAO.createBatch(records);
+        } catch (Exception e) {
+            IngestMetrics.recordFailure(records.size() + rejected);
+            throw e;
+        }
+        IngestMetrics.recordBatch(accepted, rejected, start);
+        if (accepted > 0) {
+            DataVersions.bump(userId);
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("success", accepted > 0);
+        result.put("accepted", accepted);
+        result.put("rejected", rejected);
+        result.put("errors", errors);
+        result.put("elapsedMs", (System.nanoTime() - start) / 1_000_000);
+        
+        if (accepted == 0) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        }
+        JsonUtil.writeJson(out, result);
+    }
+    
+    /**
+     * Асинхронная загрузка показаний через очередь записи
+     * Ответ 202 означает, что показания приняты (и записаны в журнал, если он включён);
+     * при заполненной очереди возвращается 429 с заголовком Retry-After
+     */
+    private void handleQueue(int userId, HttpServletRequest request, HttpServletResponse response,
+                             PrintWriter out) throws Exception {
+        WriteBehindQueue queue = WriteBehindQueue.get();
+        if (queue == null) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            out.print(JsonUtil.errorResponse("Асинхронная загрузка отключена"));
+            return;
+        }
+        
+        List<ConsumptionRecord> records = new ArrayList<>();
+        List<Map<String, Object>> errors = new ArrayList<>();
+        Integer rejected = validate(userId, request, response, out, records, errors);
+        if (rejected == null) {
+            return;
+        }
+        
+        if (!queue.submit(records)) {
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            out.print(JsonUtil.errorResponse("Очередь загрузки заполнена, повторите позже"));
+            return;
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("success", !records.isEmpty());
+        result.put("queued", records.size());
+        result.put("rejected", rejected);
+        result.put("errors", errors);
+        
+        response.setStatus(records.isEmpty() ? HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_ACCEPTED);
+        JsonUtil.writeJson(out, result);
+    }
+    
+    /**
+     * Разбор и проверка показаний из тела запроса
+     * Показания читаются из потока по одному и сразу проверяются, тело целиком в память не загружается
+     * @param records список для корректных показаний
+     * @param errors список для ошибок проверки (не более MAX_REPORTED_ERRORS)
+     * @return количество отклонённых показаний или null, если ответ об ошибке уже отправлен
+     */
+    private Integer validate(int userId, HttpServletRequest request, HttpServletResponse response, PrintWriter out,
+                             List<ConsumptionRecord> records, List<Map<String, Object>> errors) throws Exception {
+        Set<Integer> applianceIds = new HashSet<>();
+        for (Appliance a : applianceDAO.findByUserId(userId)) {
+            applianceIds.add(a.getId());
+        }
+        CostEngine costEngine = tariffDAO.getCostEngine(userId);
+        LocalDate today = LocalDate.now();
+        int rejected = 0;
+        int index = 0;
+        
+        try {
+            // JSON массив или NDJSON (по одному объекту на строку)
+            JsonReader reader = new JsonReader(request.getReader());
+            boolean array = reader.hasNextDocument() && reader.peek() == JsonReader.Token.BEGIN_ARRAY;
+            if (array) {
+                reader.beginArray();
+            }
+            while (array ? reader.hasNext() : reader.hasNextDocument()) {
+                if (index == MAX_READINGS) {
+                    response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    out.print(JsonUtil.errorResponse("Слишком много показаний в запросе (максимум " + MAX_READINGS + ")"));
+                    return null;
+                }
+                Map<String, Object> reading = reader.readObject();
+                try {
+                    records.add(toRecord(userId, reading, applianceIds, costEngine, today));
+                } catch (IllegalArgumentException e) {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) {
+                        Map<String, Object> error = new LinkedHashMap<>();
+                        error.put("index", index);
+                        error.put("error", e.getMessage());
+                        errors.add(error);
+                    }
+                }
+                index++;
+            }
+            if (array) {
+                reader.endArray();
+            }
+        } catch (JsonReader.SyntaxException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print(JsonUtil.errorResponse("Некорректный JSON: " + e.getMessage()));
+            return null;
+        }
+        
+        if (index == 0) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.print(JsonUtil.errorResponse("Нет показаний для загрузки"));
+            return null;
+        }
+        return rejected;
+    }
+    
+    /**
+     * Проверка показания и преобразование в запись потребления
+     * @throws IllegalArgumentException с описанием ошибки, если показание некорректно
+     */
+    private ConsumptionRecord toRecord(int userId, Map<String, Object> data, Set<Integer> applianceIds,
+                                       CostEngine costEngine, LocalDate today) {
+        ConsumptionRecord record = new ConsumptionRecord();
+        record.setUserId(userId);
+        
+        Object date = data.get("recordDate");
+        if (date == null) {
+            throw new IllegalArgumentException("Не указана дата (recordDate)");
+        }
+        LocalDate recordDate;
+        try {
+            recordDate = LocalDate.parse(date.toString());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Некорректная дата: " + date);
+        }
+        if (recordDate.isAfter(today)) {
+            throw new IllegalArgumentException("Дата в будущем: " + date);
+        }
+        if (recordDate.isBefore(today.minusYears(MAX_AGE_YEARS))) {
+            throw new IllegalArgumentException("Дата старше " + MAX_AGE_YEARS + " лет: " + date);
+        }
+        record.setRecordDate(Date.valueOf(recordDate));
+        
+        Double kwh = toNumber(data.get("consumptionKwh"), "consumptionKwh");
+        if (kwh == null) {
+            throw new IllegalArgumentException("Не указано потребление (consumptionKwh)");
+        }
+        if (kwh < 0) {
+            throw new IllegalArgumentException("Потребление не может быть отрицательным");
+        }
+        if (round(kwh, 10000.0) > MAX_KWH) {
+            throw new IllegalArgumentException("Потребление не может превышать " + MAX_KWH + " кВт·ч");
+        }
+        record.setConsumptionKwh(kwh);
+        
+        Double cost = toNumber(data.get("cost"), "cost");
+        if (cost != null && cost < 0) {
+            throw new IllegalArgumentException("Стоимость не может быть отрицательной");
+        }
+        if (cost != null && round(cost, 100.0) > MAX_COST) {
+            throw new IllegalArgumentException("Стоимость не может превышать " + MAX_COST);
+        }
+        
+        Object applianceId = data.get("applianceId");
+        if (applianceId != null && !applianceId.toString().isEmpty()) {
+            Double id = toNumber(applianceId, "applianceId");
+            if (id != Math.rint(id) || id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Некорректный ID прибора: " + applianceId);
+            }
+            if (!applianceIds.contains(id.intValue())) {
+                throw new IllegalArgumentException("Прибор не найден: " + applianceId);
+            }
+            record.setApplianceId(id.intValue());
+        }
+        
+        Object tariffType = data.get("tariffType");
+        if (tariffType != null) {
+            if (!TARIFF_TYPES.contains(tariffType.toString())) {
+                throw new IllegalArgumentException("Неизвестный тип тарифа: " + tariffType);
+            }
+            record.setTariffType(tariffType.toString());
+        }
+        
+        Double usageHours = toNumber(data.get("usageHours"), "usageHours");
+        if (usageHours != null) {
+            if (usageHours < 0 || usageHours > 24) {
+                throw new IllegalArgumentException("Часы работы должны быть от 0 до 24");
+            }
+            record.setUsageHours(usageHours);
+        }
+        
+        // Стоимость по тарифам времени суток, если счётчик её не передал: при известных часах работы
+        // нагрузка распределяется на них, иначе - по профилю нагрузки
+        double recordCost = cost != null ? cost : round(kwh * costEngine.getRate(usageHours), 100.0);
+        if (recordCost > MAX_COST) {
+            throw new IllegalArgumentException("Расчётная стоимость превышает " + MAX_COST + ", укажите cost");
+        }
+        record.setCost(recordCost);
+        
+        return record;
+    }
+    
+    // Округление как при записи в DECIMAL с указанным множителем знаков (100 - два знака)
+    private static double round(double value, double scale) {
+        return Math.round(value * scale) / scale;
+    }
+    
+    // Вспомогательный метод для строгого преобразования чисел
+    private Double toNumber(Object value, String field) {
+        if (value == null) return null;
+        double number;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+        } else {
+            try {
+                number = Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Некорректное число в поле " + field + ": " + value);
+            }
+        }
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException("Некорректное число в поле " + field + ": " + value);
+        }
+        return number;
+    }
+}
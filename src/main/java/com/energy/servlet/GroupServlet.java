@@ -1,15 +1,19 @@
 package com.energy.servlet;
 
+import com.energy.dao.ApplianceCache;
 import com.energy.dao.GroupDAO;
 import com.energy.dao.ApplianceDAO;
 import com.energy.model.ApplianceGroup;
 import com.energy.model.Appliance;
+import com.energy.model.ApplianceGroupSerializer;
+import com.energy.model.ApplianceSerializer;
+import com.energy.util.DataVersions;
+import com.energy.util.ETags;
 import com.energy.util.JsonUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
@@ -47,6 +51,11 @@ public class GroupServlet extends HttpServlet {
         int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
+        // Данные пользователя не менялись - ответ у клиента актуален
+        if (ETags.checkNotModified(request, response, DataVersions.etag(userId, false))) {
+            return;
+        }
+        
         try {
             if (pathInfo == null || pathInfo.equals("/")) {
                 handleGetAll(userId, out);
@@ -83,6 +92,7 @@ public class GroupServlet extends HttpServlet {
         try {
             Map<String, Object> data = parseRequestBody(request);
             handleCreate(userId, data, out);
+            DataVersions.bump(userId);
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
@@ -104,6 +114,7 @@ public class GroupServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
@@ -111,6 +122,8 @@ public class GroupServlet extends HttpServlet {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 Map<String, Object> data = parseRequestBody(request);
                 handleUpdate(id, data, out);
+                ApplianceCache.invalidate(userId);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID группы"));
@@ -136,12 +149,15 @@ public class GroupServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
             if (pathInfo != null && pathInfo.length() > 1) {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 handleDelete(id, out);
+                ApplianceCache.invalidate(userId);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID группы"));
@@ -155,19 +171,14 @@ public class GroupServlet extends HttpServlet {
     private void handleGetAll(int userId, PrintWriter out) throws Exception {
         List<ApplianceGroup> groups = groupDAO.findByUserId(userId);
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (ApplianceGroup g : groups) {
-            result.add(groupToMap(g));
-        }
-        
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, groups, ApplianceGroupSerializer.INSTANCE);
     }
     
     private void handleGetById(int id, PrintWriter out) throws Exception {
         ApplianceGroup group = groupDAO.findById(id);
         
         if (group != null) {
-            out.print(JsonUtil.toJson(groupToMap(group)));
+            JsonUtil.writeJson(out, group, ApplianceGroupSerializer.INSTANCE);
         } else {
             out.print(JsonUtil.errorResponse("Группа не найдена"));
         }
@@ -176,19 +187,7 @@ public class GroupServlet extends HttpServlet {
     private void handleGetAppliances(int groupId, PrintWriter out) throws Exception {
         List<Appliance> appliances = applianceDAO.findByGroupId(groupId);
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Appliance a : appliances) {
-            Map<String, Object> map = new HashMap<>();
-            map.put("id", a.getId());
-            map.put("name", a.getName());
-            map.put("powerWatts", a.getPowerWatts());
-            map.put("dailyUsageHours", a.getDailyUsageHours());
-            map.put("quantity", a.getQuantity());
-            map.put("dailyKwh", Math.round(a.getDailyConsumptionKwh() * 1000.0) / 1000.0);
-            result.add(map);
-        }
-        
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, appliances, ApplianceSerializer.SUMMARY);
     }
     
     private void handleCreate(int userId, Map<String, Object> data, PrintWriter out) throws Exception {
@@ -207,7 +206,7 @@ public class GroupServlet extends HttpServlet {
         ApplianceGroup created = groupDAO.create(group);
         
         if (created != null) {
-            out.print(JsonUtil.successResponse("Группа создана", groupToMap(created)));
+            out.print(JsonUtil.successResponse("Группа создана", created, ApplianceGroupSerializer.INSTANCE));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при создании группы"));
         }
@@ -235,7 +234,7 @@ public class GroupServlet extends HttpServlet {
         }
         
         if (groupDAO.update(group)) {
-            out.print(JsonUtil.successResponse("Группа обновлена", groupToMap(group)));
+            out.print(JsonUtil.successResponse("Группа обновлена", group, ApplianceGroupSerializer.INSTANCE));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при обновлении"));
         }
@@ -249,27 +248,9 @@ public class GroupServlet extends HttpServlet {
         }
     }
     
-    private Map<String, Object> groupToMap(ApplianceGroup g) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("id", g.getId());
-        map.put("name", g.getName());
-        map.put("description", g.getDescription());
-        map.put("icon", g.getIcon());
-        map.put("color", g.getColor());
-        map.put("applianceCount", g.getApplianceCount());
-        map.put("dailyKwh", Math.round(g.getTotalDailyKwh() * 100.0) / 100.0);
-        map.put("monthlyKwh", Math.round(g.getTotalMonthlyKwh() * 100.0) / 100.0);
-        return map;
-    }
-    
     private Map<String, Object> parseRequestBody(HttpServletRequest request) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader = request.getReader();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
-        }
-        return JsonUtil.parseJson(sb.toString());
+        // Тело разбирается прямо из потока запроса
+        return JsonUtil.parseJson(request.getReader());
     }
 }
 
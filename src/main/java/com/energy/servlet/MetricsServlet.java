@@ -0,0 +1,107 @@
+package com.energy.servlet;
+
+import com.energy.dao.ApplianceCache;
+import com.energy.dao.TariffCache;
+import com.energy.ingest.WriteBehindQueue;
+import com.energy.store.ColdStorage;
+import com.energy.store.ConsumptionStore;
+import com.energy.store.TieringJob;
+import com.energy.util.DatabaseConnection;
+import com.energy.util.IngestMetrics;
+import com.energy.util.JsonUtil;
+import com.energy.util.LatencyMetrics;
+import com.energy.util.QueryExecutor;
+import com.energy.util.ResponseCache;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Сервлет для получения метрик производительности
+ * Используется для подбора размеров пулов и кэшей под нагрузкой. Метрики общие для всего процесса
+ * (состояние пула, стеки утечек, очередь записи), поэтому доступны только при energy.metrics.enabled
+ * и только с локального адреса; на остальные запросы отвечает 404
+ */
+@WebServlet(urlPatterns = {"/api/metrics/*"})
+public class MetricsServlet extends HttpServlet {
+    
+    private static final boolean ENABLED = Boolean.getBoolean("energy.metrics.enabled");
+    
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        
+        if (!ENABLED || !isLocal(request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            out.print(JsonUtil.errorResponse("Метрики недоступны"));
+            return;
+        }
+        
+        HttpSession session = request.getSession(false);
+        if (session == null || session.getAttribute("userId") == null) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            out.print(JsonUtil.errorResponse("Требуется авторизация"));
+            return;
+        }
+        
+        String pathInfo = request.getPathInfo();
+        
+        try {
+            if ("/pool".equals(pathInfo)) {
+                // Метрики пула соединений
+                JsonUtil.writeJson(out, DatabaseConnection.getPool().getMetrics());
+            } else if ("/handlers".equals(pathInfo)) {
+                // Время обработки запросов по обработчикам (мкс)
+                Map<String, Object> handlers = new LinkedHashMap<>();
+                handlers.put("executorMode", QueryExecutor.getMode());
+                handlers.put("latencyMicros", LatencyMetrics.snapshot());
+                JsonUtil.writeJson(out, handlers);
+            } else if ("/ingest".equals(pathInfo)) {
+                // Пропускная способность пакетной загрузки показаний
+                Map<String, Object> ingest = IngestMetrics.snapshot();
+                WriteBehindQueue queue = WriteBehindQueue.get();
+                ingest.put("writeBehind", queue != null ? queue.getMetrics() : null);
+                JsonUtil.writeJson(out, ingest);
+            } else if ("/cache".equals(pathInfo)) {
+                // Заполненность и попадания кэшей
+                Map<String, Object> caches = new LinkedHashMap<>();
+                caches.put("tariffs", TariffCache.getMetrics());
+                caches.put("appliances", ApplianceCache.getMetrics());
+                caches.put("analytics", ResponseCache.getMetrics());
+                caches.put("consumption", ConsumptionStore.getMetrics());
+                JsonUtil.writeJson(out, caches);
+            } else if ("/storage".equals(pathInfo)) {
+                // Холодное хранилище и перенос в него закрытых месяцев
+                Map<String, Object> storage = new LinkedHashMap<>();
+                storage.put("cold", ColdStorage.getMetrics());
+                storage.put("tiering", TieringJob.getMetrics());
+                JsonUtil.writeJson(out, storage);
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                out.print(JsonUtil.errorResponse("Неизвестный путь"));
+            }
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
+        }
+    }
+    
+    private boolean isLocal(HttpServletRequest request) {
+        try {
+            return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.energy.servlet;
 
+import com.energy.dao.TariffCache;
 import com.energy.dao.TariffDAO;
 import com.energy.model.Tariff;
+import com.energy.model.TariffSchedule;
+import com.energy.model.TariffSerializer;
+import com.energy.util.DataVersions;
+import com.energy.util.ETags;
 import com.energy.util.JsonUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Date;
@@ -44,6 +48,11 @@ public class TariffServlet extends HttpServlet {
         int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
+        // Данные пользователя не менялись - ответ у клиента актуален
+        if (ETags.checkNotModified(request, response, DataVersions.etag(userId, "/current".equals(pathInfo)))) {
+            return;
+        }
+        
         try {
             if (pathInfo == null || pathInfo.equals("/")) {
                 handleGetAll(userId, out);
@@ -81,6 +90,8 @@ public class TariffServlet extends HttpServlet {
         try {
             Map<String, Object> data = parseRequestBody(request);
             handleCreate(userId, data, out);
+            TariffCache.invalidate(userId);
+            DataVersions.bump(userId);
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             out.print(JsonUtil.errorResponse("Ошибка: " + e.getMessage()));
@@ -102,6 +113,7 @@ public class TariffServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
@@ -109,6 +121,8 @@ public class TariffServlet extends HttpServlet {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 Map<String, Object> data = parseRequestBody(request);
                 handleUpdate(id, data, out);
+                TariffCache.invalidate(userId);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID тарифа"));
@@ -134,12 +148,15 @@ public class TariffServlet extends HttpServlet {
             return;
         }
         
+        int userId = (int) session.getAttribute("userId");
         String pathInfo = request.getPathInfo();
         
         try {
             if (pathInfo != null && pathInfo.length() > 1) {
                 int id = Integer.parseInt(pathInfo.substring(1));
                 handleDelete(id, out);
+                TariffCache.invalidate(userId);
+                DataVersions.bump(userId);
             } else {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.print(JsonUtil.errorResponse("Укажите ID тарифа"));
@@ -153,23 +170,13 @@ public class TariffServlet extends HttpServlet {
     private void handleGetAll(int userId, PrintWriter out) throws Exception {
         List<Tariff> tariffs = tariffDAO.findByUserId(userId);
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Tariff t : tariffs) {
-            result.add(tariffToMap(t));
-        }
-        
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, tariffs, TariffSerializer.INSTANCE);
     }
     
     private void handleGetActive(int userId, PrintWriter out) throws Exception {
         List<Tariff> tariffs = tariffDAO.findActiveByUserId(userId);
         
-        List<Map<String, Object>> result = new ArrayList<>();
-        for (Tariff t : tariffs) {
-            result.add(tariffToMap(t));
-        }
-        
-        out.print(JsonUtil.toJsonArray(result));
+        JsonUtil.writeJsonArray(out, tariffs, TariffSerializer.INSTANCE);
     }
     
     private void handleGetCurrent(int userId, PrintWriter out) throws Exception {
@@ -179,12 +186,12 @@ public class TariffServlet extends HttpServlet {
         Tariff tariff = tariffDAO.getTariffForHour(userId, currentHour);
         
         if (tariff != null) {
-            out.print(JsonUtil.toJson(tariffToMap(tariff)));
+            JsonUtil.writeJson(out, tariff, TariffSerializer.INSTANCE);
         } else {
             Map<String, Object> defaultTariff = new HashMap<>();
             defaultTariff.put("name", "Стандартный");
-            defaultTariff.put("ratePerKwh", 5.5);
-            out.print(JsonUtil.toJson(defaultTariff));
+            defaultTariff.put("ratePerKwh", TariffSchedule.DEFAULT_RATE);
+            JsonUtil.writeJson(out, defaultTariff);
         }
     }
     
@@ -192,7 +199,7 @@ public class TariffServlet extends HttpServlet {
         Tariff tariff = tariffDAO.findById(id);
         
         if (tariff != null) {
-            out.print(JsonUtil.toJson(tariffToMap(tariff)));
+            JsonUtil.writeJson(out, tariff, TariffSerializer.INSTANCE);
         } else {
             out.print(JsonUtil.errorResponse("Тариф не найден"));
         }
@@ -223,7 +230,7 @@ public class TariffServlet extends HttpServlet {
         Tariff created = tariffDAO.create(tariff);
         
         if (created != null) {
-            out.print(JsonUtil.successResponse("Тариф создан", tariffToMap(created)));
+            out.print(JsonUtil.successResponse("Тариф создан", created, TariffSerializer.INSTANCE));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при создании тарифа"));
         }
@@ -257,7 +264,7 @@ public class TariffServlet extends HttpServlet {
         }
         
         if (tariffDAO.update(tariff)) {
-            out.print(JsonUtil.successResponse("Тариф обновлён", tariffToMap(tariff)));
+            out.print(JsonUtil.successResponse("Тариф обновлён", tariff, TariffSerializer.INSTANCE));
         } else {
             out.print(JsonUtil.errorResponse("Ошибка при обновлении"));
         }
@@ -271,29 +278,9 @@ public class TariffServlet extends HttpServlet {
         }
     }
     
-    private Map<String, Object> tariffToMap(Tariff t) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("id", t.getId());
-        map.put("name", t.getName());
-        map.put("tariffType", t.getTariffType());
-        map.put("tariffTypeRussian", t.getTariffTypeRussian());
-        map.put("ratePerKwh", t.getRatePerKwh());
-        map.put("startHour", t.getStartHour());
-        map.put("endHour", t.getEndHour());
-        map.put("isActive", t.isActive());
-        map.put("validFrom", t.getValidFrom() != null ? t.getValidFrom().toString() : null);
-        map.put("validTo", t.getValidTo() != null ? t.getValidTo().toString() : null);
-        return map;
-    }
-    
     private Map<String, Object> parseRequestBody(HttpServletRequest request) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader reader = request.getReader();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
-        }
-        return JsonUtil.parseJson(sb.toString());
+        // Тело разбирается прямо из потока запроса
+        return JsonUtil.parseJson(request.getReader());
     }
 }
 
@@ -0,0 +1,630 @@
+package com.energy.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Сжатие блока холодных записей (один пользователь, один месяц) по столбцам
+ * <ul>
+ * <li>ID, даты, время создания и индексы словарей - целочисленные столбцы: первое значение целиком,
+ *     далее самый короткий для блока способ из delta-of-delta (как в Gorilla), разности с минимальным
+ *     шагом или упаковки от минимума; время создания (TIMESTAMP) хранится в секундах, если все
+ *     значения кратны 1000 мс</li>
+ * <li>прибор и тип тарифа - словарь блока и индексы строк</li>
+ * <li>кВт·ч, стоимость, часы работы - столбцы DECIMAL с известным числом знаков, поэтому хранятся
+ *     целыми (значение * 10^scale) со смещением от минимума блока или прибора и общей разрядностью;
+ *     если значение не точно представимо в этом масштабе, столбец блока кодируется XOR с предыдущим
+ *     значением (Gorilla)</li>
+ * </ul>
+ * Все поля пишутся в один битовый поток (старшие биты первыми). Чтение идёт по 8 байт абсолютными
+ * чтениями из отображённого сегмента; за последним блоком всегда следует индекс и окончание сегмента,
+ * поэтому чтение за границу блока не выходит за границу файла
+ */
+final class BlockCodec {
+    
+    // Масштабы столбцов DECIMAL(10,4), DECIMAL(10,2), DECIMAL(5,2)
+    static final int KWH_SCALE = 4;
+    static final int COST_SCALE = 2;
+    static final int USAGE_SCALE = 2;
+    
+    private static final double[] POW10 = {1, 10, 100, 1000, 10000};
+    
+    // Значения, при которых value * 10^scale может потерять точность в double
+    private static final double EXACT_LIMIT = 1e15;
+    
+    // Способы записи столбцов DECIMAL
+    private static final int MODE_SCALED = 0;
+    private static final int MODE_XOR = 1;
+    
+    // Способы записи целочисленных столбцов
+    private static final int INT_DELTA_OF_DELTA = 0;
+    private static final int INT_DELTA = 1;
+    private static final int INT_PACKED = 2;
+    
+    // Разрядность значения по числу единиц в префиксе корзины
+    private static final int[] BUCKET_WIDTH = {0, 7, 9, 12, 20, 32, 64};
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private BlockCodec() {}
+    
+    /**
+     * Сжатие строк блока
+     * @param columns строки блока в порядке записи
+     * @return сжатый блок
+     */
+    static byte[] encode(Segment.Columns columns) {
+        int n = columns.size;
+        BitOutput out = new BitOutput(n * 8 + 64);
+        out.write(n, 32);
+        
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = columns.ids[i];
+        }
+        writeIntegers(out, values, n);
+        for (int i = 0; i < n; i++) {
+            values[i] = columns.epochDays[i];
+        }
+        writeIntegers(out, values, n);
+        
+        boolean seconds = true;
+        for (int i = 0; i < n && seconds; i++) {
+            seconds = columns.createdAt[i] % 1000 == 0;
+        }
+        out.write(seconds ? 1 : 0, 1);
+        for (int i = 0; i < n; i++) {
+            values[i] = seconds ? columns.createdAt[i] / 1000 : columns.createdAt[i];
+        }
+        writeIntegers(out, values, n);
+        
+        // Индексы приборов в словаре блока служат и группами для столбцов DECIMAL
+        for (int i = 0; i < n; i++) {
+            values[i] = columns.applianceIds[i];
+        }
+        int groupCount = writeDictionary(out, values, n, 32);
+        int[] groups = new int[n];
+        for (int i = 0; i < n; i++) {
+            groups[i] = (int) values[i];
+        }
+        for (int i = 0; i < n; i++) {
+            values[i] = columns.tariffCodes[i] & 0xFF;
+        }
+        writeDictionary(out, values, n, 8);
+        
+        writeDecimals(out, columns.kwh, n, KWH_SCALE, groups, groupCount);
+        writeDecimals(out, columns.cost, n, COST_SCALE, groups, groupCount);
+        
+        // Часы работы: битовая маска наличия, затем только заполненные значения
+        double[] usage = new double[n];
+        int[] usageGroups = new int[n];
+        int present = 0;
+        for (int i = 0; i < n; i++) {
+            boolean has = columns.hasUsageHours[i];
+            out.write(has ? 1 : 0, 1);
+            if (has) {
+                usageGroups[present] = groups[i];
+                usage[present++] = columns.usageHours[i];
+            }
+        }
+        writeDecimals(out, usage, present, USAGE_SCALE, usageGroups, groupCount);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Распаковка блока
+     * @param data сегмент (после блока должно быть не менее 9 байт)
+     * @param offset смещение блока
+     * @param into столбцы для результата (расширяются при необходимости)
+     */
+    static void decode(ByteBuffer data, int offset, Segment.Columns into) {
+        BitInput in = new BitInput(data, offset);
+        int n = (int) in.read(32);
+        into.ensureCapacity(n);
+        into.size = n;
+        
+        long[] values = into.scratch;
+        readIntegers(in, values, n);
+        for (int i = 0; i < n; i++) {
+            into.ids[i] = (int) values[i];
+        }
+        readIntegers(in, values, n);
+        for (int i = 0; i < n; i++) {
+            into.epochDays[i] = (int) values[i];
+        }
+        
+        long unit = in.read(1) == 1 ? 1000 : 1;
+        readIntegers(in, values, n);
+        for (int i = 0; i < n; i++) {
+            into.createdAt[i] = values[i] * unit;
+        }
+        
+        int[] groups = into.groups;
+        int groupCount = readDictionary(in, values, groups, n, 32);
+        for (int i = 0; i < n; i++) {
+            into.applianceIds[i] = (int) values[i];
+        }
+        readDictionary(in, values, null, n, 8);
+        for (int i = 0; i < n; i++) {
+            into.tariffCodes[i] = (byte) values[i];
+        }
+        
+        readDecimals(in, into.kwh, n, KWH_SCALE, groups, groupCount);
+        readDecimals(in, into.cost, n, COST_SCALE, groups, groupCount);
+        
+        int present = 0;
+        for (int i = 0; i < n; i++) {
+            boolean has = in.read(1) == 1;
+            into.hasUsageHours[i] = has;
+            if (has) {
+                // Группы заполненных строк сдвигаются к началу (индекс заполненной строки не больше i)
+                groups[present++] = groups[i];
+            }
+        }
+        double[] usage = into.usageHours;
+        readDecimals(in, usage, present, USAGE_SCALE, groups, groupCount);
+        // Разворачиваем заполненные значения на свои строки с конца, чтобы не затирать непрочитанные
+        for (int i = n - 1; i >= 0; i--) {
+            usage[i] = into.hasUsageHours[i] ? usage[--present] : 0;
+        }
+    }
+    
+    /**
+     * Первая строка блока - ID (без распаковки остального)
+     */
+    static int firstId(ByteBuffer data, int offset) {
+        BitInput in = new BitInput(data, offset);
+        int n = (int) in.read(32);
+        if (n == 0) {
+            return 0;
+        }
+        // Во всех способах целочисленного столбца первое значение записано целиком
+        in.read(2);
+        return (int) in.read(64);
+    }
+    
+    /**
+     * Целочисленный столбец: первое значение целиком, затем самый короткий из способов
+     * <ul>
+     * <li>INT_DELTA_OF_DELTA - разность разностей (zigzag) по корзинам</li>
+     * <li>INT_DELTA - разность с предыдущим за вычетом минимальной разности по корзинам
+     *     (одинаковый шаг, например следующий ID той же пачки, занимает 1 бит)</li>
+     * <li>INT_PACKED - смещение от минимума столбца общей разрядностью</li>
+     * </ul>
+     * Корзины: 0 | 10+7 бит | 110+9 бит | 1110+12 бит | 11110+20 бит | 111110+32 бита | 111111+64 бита
+     */
+    private static void writeIntegers(BitOutput out, long[] values, int n) {
+        if (n == 0) {
+            return;
+        }
+        long minDelta = Long.MAX_VALUE;
+        long min = values[0];
+        long max = values[0];
+        for (int i = 1; i < n; i++) {
+            minDelta = Math.min(minDelta, values[i] - values[i - 1]);
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        long deltaOfDeltaBits = 0;
+        long deltaBits = 64;
+        long previousDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = values[i] - values[i - 1];
+            deltaOfDeltaBits += bucketBits(zigzag(delta - previousDelta));
+            deltaBits += bucketBits(delta - minDelta);
+            previousDelta = delta;
+        }
+        int width = bitsFor(max - min);
+        long packedBits = 64 + 7 + (long) (n - 1) * width;
+        
+        if (deltaOfDeltaBits <= deltaBits && deltaOfDeltaBits <= packedBits) {
+            out.write(INT_DELTA_OF_DELTA, 2);
+            out.write(values[0], 64);
+            previousDelta = 0;
+            for (int i = 1; i < n; i++) {
+                long delta = values[i] - values[i - 1];
+                writeBucket(out, zigzag(delta - previousDelta));
+                previousDelta = delta;
+            }
+        } else if (deltaBits <= packedBits) {
+            out.write(INT_DELTA, 2);
+            out.write(values[0], 64);
+            out.write(minDelta, 64);
+            for (int i = 1; i < n; i++) {
+                writeBucket(out, values[i] - values[i - 1] - minDelta);
+            }
+        } else {
+            out.write(INT_PACKED, 2);
+            out.write(values[0], 64);
+            out.write(min, 64);
+            out.write(width, 7);
+            for (int i = 1; i < n; i++) {
+                out.write(values[i] - min, width);
+            }
+        }
+    }
+    
+    private static void readIntegers(BitInput in, long[] values, int n) {
+        if (n == 0) {
+            return;
+        }
+        int mode = (int) in.read(2);
+        long value = in.read(64);
+        values[0] = value;
+        if (mode == INT_DELTA_OF_DELTA) {
+            long delta = 0;
+            for (int i = 1; i < n; i++) {
+                delta += unzigzag(readBucket(in));
+                value += delta;
+                values[i] = value;
+            }
+        } else if (mode == INT_DELTA) {
+            long minDelta = in.read(64);
+            for (int i = 1; i < n; i++) {
+                value += readBucket(in) + minDelta;
+                values[i] = value;
+            }
+        } else {
+            long min = in.read(64);
+            int width = (int) in.read(7);
+            for (int i = 1; i < n; i++) {
+                values[i] = min + in.read(width);
+            }
+        }
+    }
+    
+    // Длина значения в корзинах (значение без знака)
+    private static int bucketBits(long value) {
+        if (value == 0) {
+            return 1;
+        } else if (value >>> 7 == 0) {
+            return 9;
+        } else if (value >>> 9 == 0) {
+            return 12;
+        } else if (value >>> 12 == 0) {
+            return 16;
+        } else if (value >>> 20 == 0) {
+            return 25;
+        } else if (value >>> 32 == 0) {
+            return 38;
+        }
+        return 70;
+    }
+    
+    private static void writeBucket(BitOutput out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else if (value >>> 7 == 0) {
+            out.write(0b10, 2);
+            out.write(value, 7);
+        } else if (value >>> 9 == 0) {
+            out.write(0b110, 3);
+            out.write(value, 9);
+        } else if (value >>> 12 == 0) {
+            out.write(0b1110, 4);
+            out.write(value, 12);
+        } else if (value >>> 20 == 0) {
+            out.write(0b11110, 5);
+            out.write(value, 20);
+        } else if (value >>> 32 == 0) {
+            out.write(0b111110, 6);
+            out.write(value, 32);
+        } else {
+            out.write(0b111111, 6);
+            out.write(value, 64);
+        }
+    }
+    
+    private static long readBucket(BitInput in) {
+        // Префикс корзины - число единиц до первого нуля (не более 6) в следующих 6 битах
+        int ones = Math.min(Long.numberOfLeadingZeros(~(in.peek(6) << 58)), 6);
+        in.skip(ones < 6 ? ones + 1 : 6);
+        return in.read(BUCKET_WIDTH[ones]);
+    }
+    
+    /**
+     * Словарь блока: число значений (16 бит), значения по width бит, затем индексы строк
+     * целочисленным столбцом. Значения заменяются индексами
+     * @return размер словаря
+     */
+    private static int writeDictionary(BitOutput out, long[] values, int n, int width) {
+        long[] dictionary = Arrays.copyOf(values, n);
+        Arrays.sort(dictionary);
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size == 0 || dictionary[size - 1] != dictionary[i]) {
+                dictionary[size++] = dictionary[i];
+            }
+        }
+        out.write(size, 16);
+        for (int i = 0; i < size; i++) {
+            out.write(dictionary[i], width);
+        }
+        for (int i = 0; i < n; i++) {
+            values[i] = Arrays.binarySearch(dictionary, 0, size, values[i]);
+        }
+        writeIntegers(out, values, n);
+        return size;
+    }
+    
+    /**
+     * @param indexes индексы строк в словаре (может быть null)
+     * @return размер словаря
+     */
+    private static int readDictionary(BitInput in, long[] values, int[] indexes, int n, int width) {
+        int size = (int) in.read(16);
+        long[] dictionary = new long[size];
+        for (int i = 0; i < size; i++) {
+            dictionary[i] = width == 32 ? (int) in.read(width) : in.read(width);
+        }
+        readIntegers(in, values, n);
+        for (int i = 0; i < n; i++) {
+            int index = (int) values[i];
+            if (indexes != null) {
+                indexes[i] = index;
+            }
+            values[i] = dictionary[index];
+        }
+        return size;
+    }
+    
+    /**
+     * Столбец DECIMAL: целые значения в масштабе scale со смещением от минимума
+     * столбца или, если так короче, от минимума своей группы (прибора) со своей разрядностью;
+     * значения, не представимые точно, кодируются XOR
+     */
+    private static void writeDecimals(BitOutput out, double[] values, int n, int scale, int[] groups, int groupCount) {
+        double factor = POW10[scale];
+        boolean exact = true;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long[] scaled = new long[n];
+        for (int i = 0; i < n && exact; i++) {
+            double value = values[i];
+            scaled[i] = Math.round(value * factor);
+            exact = Math.abs(value) < EXACT_LIMIT && scaled[i] / factor == value;
+            min = Math.min(min, scaled[i]);
+            max = Math.max(max, scaled[i]);
+        }
+        
+        if (exact) {
+            out.write(MODE_SCALED, 1);
+            if (n == 0) {
+                return;
+            }
+            int width = bitsFor(max - min);
+            out.write(min, 64);
+            out.write(width, 7);
+            
+            long[] groupMin = new long[groupCount];
+            long[] groupMax = new long[groupCount];
+            Arrays.fill(groupMin, max);
+            Arrays.fill(groupMax, min);
+            for (int i = 0; i < n; i++) {
+                int group = groups[i];
+                groupMin[group] = Math.min(groupMin[group], scaled[i]);
+                groupMax[group] = Math.max(groupMax[group], scaled[i]);
+            }
+            int[] groupWidth = new int[groupCount];
+            long groupedBits = (long) groupCount * (width + 7);
+            for (int g = 0; g < groupCount; g++) {
+                groupWidth[g] = groupMax[g] >= groupMin[g] ? bitsFor(groupMax[g] - groupMin[g]) : 0;
+            }
+            for (int i = 0; i < n; i++) {
+                groupedBits += groupWidth[groups[i]];
+            }
+            
+            if (groupedBits < (long) n * width) {
+                out.write(1, 1);
+                for (int g = 0; g < groupCount; g++) {
+                    out.write(groupMax[g] >= groupMin[g] ? groupMin[g] - min : 0, width);
+                    out.write(groupWidth[g], 7);
+                }
+                for (int i = 0; i < n; i++) {
+                    int group = groups[i];
+                    out.write(scaled[i] - groupMin[group], groupWidth[group]);
+                }
+            } else {
+                out.write(0, 1);
+                for (int i = 0; i < n; i++) {
+                    out.write(scaled[i] - min, width);
+                }
+            }
+            return;
+        }
+        
+        // XOR с предыдущим значением: 0 - совпадает; 10 - значащие биты в прежнем окне;
+        // 11 + 6 бит ведущих нулей + 6 бит (длина - 1) + значащие биты
+        out.write(MODE_XOR, 1);
+        long previous = Double.doubleToRawLongBits(values[0]);
+        out.write(previous, 64);
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < n; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 63);
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                leading = newLeading;
+                trailing = newTrailing;
+                int length = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 6);
+                out.write(length - 1, 6);
+                out.write(xor >>> trailing, length);
+            }
+        }
+    }
+    
+    private static void readDecimals(BitInput in, double[] values, int n, int scale, int[] groups, int groupCount) {
+        if (in.read(1) == MODE_SCALED) {
+            if (n == 0) {
+                return;
+            }
+            double factor = POW10[scale];
+            long min = in.read(64);
+            int width = (int) in.read(7);
+            if (in.read(1) == 1) {
+                long[] groupMin = new long[groupCount];
+                int[] groupWidth = new int[groupCount];
+                for (int g = 0; g < groupCount; g++) {
+                    groupMin[g] = min + in.read(width);
+                    groupWidth[g] = (int) in.read(7);
+                }
+                for (int i = 0; i < n; i++) {
+                    int group = groups[i];
+                    values[i] = (groupMin[group] + in.read(groupWidth[group])) / factor;
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    values[i] = (min + in.read(width)) / factor;
+                }
+            }
+            return;
+        }
+        
+        long bits = in.read(64);
+        values[0] = Double.longBitsToDouble(bits);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < n; i++) {
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(6);
+                    trailing = 64 - leading - ((int) in.read(6) + 1);
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+        }
+    }
+    
+    private static int bitsFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+    
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Битовый поток для записи (старшие биты первыми)
+     */
+    private static final class BitOutput {
+        
+        private byte[] buffer;
+        private long bits;
+        
+        BitOutput(int capacity) {
+            buffer = new byte[capacity];
+        }
+        
+        // Младшие width бит значения (0-64)
+        void write(long value, int width) {
+            while (width > 0) {
+                int index = (int) (bits >>> 3);
+                if (index == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int free = 8 - (int) (bits & 7);
+                int take = Math.min(free, width);
+                int chunk = (int) (value >>> (width - take)) & ((1 << take) - 1);
+                buffer[index] |= (byte) (chunk << (free - take));
+                width -= take;
+                bits += take;
+            }
+        }
+        
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (int) ((bits + 7) >>> 3));
+        }
+    }
+    
+    /**
+     * Битовый поток для чтения из буфера абсолютными чтениями по 8 байт
+     * Следующие биты держатся в окне (long, выровнены по старшему разряду); окно перечитывается из
+     * буфера, только когда в нём не хватает бит
+     */
+    private static final class BitInput {
+        
+        // Значения шире этого читаются в обход окна (после сдвига на 0-7 бит в окне остаётся не меньше 57)
+        private static final int MAX_WINDOW_READ = 56;
+        
+        private final ByteBuffer data;
+        private final int offset;
+        private long bits;
+        private long window;
+        private int available;
+        
+        BitInput(ByteBuffer data, int offset) {
+            this.data = data;
+            this.offset = offset;
+        }
+        
+        // Следующие width бит (0-64)
+        long read(int width) {
+            if (width == 0) {
+                return 0;
+            }
+            if (width > MAX_WINDOW_READ) {
+                long value = readWide(width);
+                bits += width;
+                available = 0;
+                return value;
+            }
+            if (width > available) {
+                refill();
+            }
+            long value = window >>> (64 - width);
+            skip(width);
+            return value;
+        }
+        
+        // Следующие width бит (1-56) без сдвига позиции
+        long peek(int width) {
+            if (width > available) {
+                refill();
+            }
+            return window >>> (64 - width);
+        }
+        
+        void skip(int width) {
+            window <<= width;
+            available -= width;
+            bits += width;
+        }
+        
+        private void refill() {
+            int index = offset + (int) (bits >>> 3);
+            int shift = (int) (bits & 7);
+            window = data.getLong(index) << shift;
+            available = 64 - shift;
+        }
+        
+        private long readWide(int width) {
+            int index = offset + (int) (bits >>> 3);
+            int shift = (int) (bits & 7);
+            long value = (data.getLong(index) << shift) >>> (64 - width);
+            int extra = shift + width - 64;
+            if (extra > 0) {
+                // Значение задевает девятый байт
+                value |= (data.get(index + 8) & 0xFF) >>> (8 - extra);
+            }
+            return value;
+        }
+    }
+}
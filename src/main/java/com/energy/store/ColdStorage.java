@@ -0,0 +1,356 @@
+package com.energy.store;
+
+import com.energy.dao.ApplianceCache;
+import com.energy.model.Appliance;
+import com.energy.model.ConsumptionRecord;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Холодное хранилище записей потребления закрытых месяцев
+ * TieringJob переносит старые записи из consumption_records в неизменяемые файлы сегментов
+ * (каталог energy.tiering.dir), которые отображаются в память; блоки сжаты по столбцам (BlockCodec).
+ * Агрегаты (consumption_*_rollup) при переносе не меняются, поэтому статистика по-прежнему
+ * читается из базы; сырые записи (выборка за период, экспорт, загрузка ConsumptionStore)
+ * объединяются из базы и сегментов.
+ *
+ * Чтение базы и сегментов выполняется под блокировкой чтения {@link #lock()}: перенос фиксирует
+ * удаление строк из базы и публикует сегмент под блокировкой записи, поэтому читатель видит
+ * каждую запись ровно один раз.
+ * Записи приборов, удалённых после переноса, отдаются как общие (как ON DELETE SET NULL)
+ */
+public class ColdStorage {
+    
+    private static final String DIR = System.getProperty("energy.tiering.dir", "");
+    
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String TEMP_SUFFIX = ".seg.tmp";
+    
+    // Порядок блоков пользователя: по месяцу
+    private static final Comparator<Segment.Block> BLOCK_ORDER = Comparator.comparingInt(b -> b.monthDay);
+    
+    private static final List<Segment> SEGMENTS = new ArrayList<>();
+    
+    // Блоки по пользователям; заменяется целиком при публикации сегмента (читатели не блокируются)
+    private static volatile Map<Integer, List<Segment.Block>> blocksByUser = Collections.emptyMap();
+    
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private ColdStorage() {}
+    
+    /**
+     * Задан ли каталог сегментов
+     */
+    public static boolean isEnabled() {
+        return !DIR.isEmpty();
+    }
+    
+    static Path directory() {
+        return Paths.get(DIR);
+    }
+    
+    /**
+     * Отображение в память всех сегментов каталога (при старте приложения)
+     * Незавершённые переносы (*.seg.tmp) восстанавливает TieringJob
+     */
+    public static synchronized void open() throws IOException {
+        if (!isEnabled() || !SEGMENTS.isEmpty()) {
+            return;
+        }
+        Path dir = directory();
+        Files.createDirectories(dir);
+        List<Segment> opened = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                opened.add(Segment.open(file));
+            }
+        }
+        for (Segment segment : opened) {
+            add(segment);
+        }
+    }
+    
+    /**
+     * Подключение нового сегмента
+     * Вызывается под блокировкой записи, сразу после фиксации удаления его строк из базы
+     */
+    static synchronized void publish(Segment segment) {
+        add(segment);
+    }
+    
+    /**
+     * Блокировка согласованного чтения базы и сегментов
+     */
+    public static ReadWriteLock lock() {
+        return LOCK;
+    }
+    
+    /**
+     * Пользователи, у которых есть холодные записи
+     */
+    public static Set<Integer> getUserIds() {
+        return blocksByUser.keySet();
+    }
+    
+    /**
+     * Есть ли у пользователя холодные записи в периоде [from, to)
+     */
+    public static boolean hasRecords(int userId, int fromDay, int toDay) {
+        for (Segment.Block block : blocksByUser.getOrDefault(userId, Collections.emptyList())) {
+            if (overlaps(block, fromDay, toDay)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Холодные записи пользователя за период [from, to) от новых к старым
+     * @param userId ID пользователя
+     * @param fromDay первый день (от 1970-01-01)
+     * @param toDay день после последнего
+     * @return курсор (пустой, если записей нет)
+     */
+    public static Cursor cursor(int userId, int fromDay, int toDay) throws SQLException {
+        List<Segment.Block> blocks = new ArrayList<>();
+        for (Segment.Block block : blocksByUser.getOrDefault(userId, Collections.emptyList())) {
+            if (overlaps(block, fromDay, toDay)) {
+                blocks.add(block);
+            }
+        }
+        Map<Integer, String> appliances = Collections.emptyMap();
+        if (!blocks.isEmpty()) {
+            appliances = new HashMap<>();
+            for (Appliance appliance : ApplianceCache.findByUserId(userId)) {
+                appliances.put(appliance.getId(), appliance.getName());
+            }
+        }
+        return new Cursor(userId, blocks, fromDay, toDay, appliances);
+    }
+    
+    /**
+     * Холодные записи пользователя за период [from, to) от новых к старым
+     */
+    public static List<ConsumptionRecord> findByPeriod(int userId, int fromDay, int toDay) throws SQLException {
+        List<ConsumptionRecord> records = new ArrayList<>();
+        Cursor cursor = cursor(userId, fromDay, toDay);
+        while (cursor.next()) {
+            records.add(cursor.toRecord());
+        }
+        return records;
+    }
+    
+    /**
+     * Метрики сегментов
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", isEnabled());
+        long bytes = 0;
+        long blocks = 0;
+        long rows = 0;
+        synchronized (ColdStorage.class) {
+            metrics.put("segments", SEGMENTS.size());
+            for (Segment segment : SEGMENTS) {
+                bytes += segment.size();
+                for (Segment.Block block : segment.getBlocks()) {
+                    blocks++;
+                    rows += block.rows;
+                }
+            }
+        }
+        metrics.put("users", blocksByUser.size());
+        metrics.put("blocks", blocks);
+        metrics.put("rows", rows);
+        metrics.put("mappedBytes", bytes);
+        return metrics;
+    }
+    
+    // Вызывается под блокировкой класса
+    private static void add(Segment segment) {
+        SEGMENTS.add(segment);
+        Map<Integer, List<Segment.Block>> updated = new HashMap<>(blocksByUser);
+        for (Segment.Block block : segment.getBlocks()) {
+            List<Segment.Block> blocks = new ArrayList<>(updated.getOrDefault(block.userId, Collections.emptyList()));
+            blocks.add(block);
+            blocks.sort(BLOCK_ORDER);
+            updated.put(block.userId, Collections.unmodifiableList(blocks));
+        }
+        blocksByUser = updated;
+    }
+    
+    private static boolean overlaps(Segment.Block block, int fromDay, int toDay) {
+        int monthEnd = (int) LocalDate.ofEpochDay(block.monthDay).plusMonths(1).toEpochDay();
+        return block.monthDay < toDay && monthEnd > fromDay;
+    }
+    
+    /**
+     * Последовательное чтение холодных записей от новых к старым
+     * Блоки месяца распаковываются в переиспользуемые столбцы; объекты создаются только в toRecord()
+     */
+    public static final class Cursor {
+        
+        private final int userId;
+        private final List<Segment.Block> blocks;
+        private final int fromDay;
+        private final int toDay;
+        private final Map<Integer, String> appliances;
+        
+        // Строки текущего месяца: распакованные блоки и номера строк, упорядоченные по дате
+        private int nextBlock;
+        private final List<Segment.Columns> decoded = new ArrayList<>();
+        private Segment.Columns[] sources = new Segment.Columns[0];
+        private int[] rows = new int[0];
+        private long[] order = new long[0];
+        private int remaining;
+        
+        private Segment.Columns columns;
+        private int row;
+        
+        private Cursor(int userId, List<Segment.Block> blocks, int fromDay, int toDay, Map<Integer, String> appliances) {
+            this.userId = userId;
+            this.blocks = blocks;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.appliances = appliances;
+            this.nextBlock = blocks.size() - 1;
+        }
+        
+        /**
+         * Переход к следующей (более старой) записи
+         * @return false если записи закончились
+         */
+        public boolean next() {
+            while (remaining == 0) {
+                if (nextBlock < 0) {
+                    return false;
+                }
+                loadMonth();
+            }
+            int index = (int) order[--remaining];
+            columns = sources[index];
+            row = rows[index];
+            return true;
+        }
+        
+        public int getId() {
+            return columns.ids[row];
+        }
+        
+        public int getEpochDay() {
+            return columns.epochDays[row];
+        }
+        
+        /**
+         * ID прибора или 0 для общих записей и записей удалённых приборов
+         */
+        public int getApplianceId() {
+            int applianceId = columns.applianceIds[row];
+            return appliances.containsKey(applianceId) ? applianceId : 0;
+        }
+        
+        public String getApplianceName() {
+            return appliances.get(columns.applianceIds[row]);
+        }
+        
+        public double getKwh() {
+            return columns.kwh[row];
+        }
+        
+        public double getCost() {
+            return columns.cost[row];
+        }
+        
+        public String getTariffType() {
+            return columns.tariffType(row);
+        }
+        
+        public Double getUsageHours() {
+            return columns.hasUsageHours[row] ? columns.usageHours[row] : null;
+        }
+        
+        public long getCreatedAt() {
+            return columns.createdAt[row];
+        }
+        
+        /**
+         * Текущая запись в виде модели (как из consumption_records с именем прибора)
+         */
+        public ConsumptionRecord toRecord() {
+            ConsumptionRecord record = new ConsumptionRecord();
+            record.setId(getId());
+            record.setUserId(userId);
+            int applianceId = getApplianceId();
+            if (applianceId != 0) {
+                record.setApplianceId(applianceId);
+                record.setApplianceName(getApplianceName());
+            }
+            record.setRecordDate(Date.valueOf(LocalDate.ofEpochDay(getEpochDay())));
+            record.setConsumptionKwh(getKwh());
+            record.setCost(getCost());
+            record.setTariffType(getTariffType());
+            record.setUsageHours(getUsageHours());
+            record.setCreatedAt(new Timestamp(getCreatedAt()));
+            return record;
+        }
+        
+        // Строки одного месяца могут лежать в нескольких сегментах (поздние показания) - сортируем их вместе
+        private void loadMonth() {
+            int monthDay = blocks.get(nextBlock).monthDay;
+            int count = 0;
+            for (int i = nextBlock; i >= 0 && blocks.get(i).monthDay == monthDay; i--) {
+                count += blocks.get(i).rows;
+            }
+            if (rows.length < count) {
+                sources = new Segment.Columns[count];
+                rows = new int[count];
+                order = new long[count];
+            }
+            
+            int size = 0;
+            int used = 0;
+            while (nextBlock >= 0 && blocks.get(nextBlock).monthDay == monthDay) {
+                Segment.Block block = blocks.get(nextBlock--);
+                if (used == decoded.size()) {
+                    decoded.add(new Segment.Columns(block.rows));
+                }
+                Segment.Columns target = decoded.get(used++);
+                block.segment.read(block, target);
+                for (int i = 0; i < target.size; i++) {
+                    int day = target.epochDays[i];
+                    if (day >= fromDay && day < toDay) {
+                        sources[size] = target;
+                        rows[size] = i;
+                        // Старшие разряды - день, младшие - индекс строки: сортировка по дате с сохранением порядка записи
+                        order[size] = ((long) day << 32) | size;
+                        size++;
+                    }
+                }
+            }
+            Arrays.sort(order, 0, size);
+            remaining = size;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.energy.store;
+
+/**
+ * Блок записей потребления в колоночном виде
+ * Каждая колонка - примитивный массив фиксированной ёмкости; границы дат блока
+ * позволяют пропускать его целиком при запросе за период
+ */
+final class ColumnChunk {
+    
+    // День (int) + прибор (int) + кВт·ч (float) + стоимость (float) + тип тарифа (byte)
+    static final int BYTES_PER_ROW = 4 + 4 + 4 + 4 + 1;
+    
+    final int[] epochDays;
+    final int[] applianceIds;
+    final float[] kwh;
+    final float[] cost;
+    final byte[] tariffTypes;
+    
+    int size;
+    int minDay = Integer.MAX_VALUE;
+    int maxDay = Integer.MIN_VALUE;
+    
+    ColumnChunk(int capacity) {
+        epochDays = new int[capacity];
+        applianceIds = new int[capacity];
+        kwh = new float[capacity];
+        cost = new float[capacity];
+        tariffTypes = new byte[capacity];
+    }
+    
+    int capacity() {
+        return epochDays.length;
+    }
+    
+    boolean isFull() {
+        return size == epochDays.length;
+    }
+    
+    void append(int epochDay, int applianceId, float rowKwh, float rowCost, byte tariffType) {
+        epochDays[size] = epochDay;
+        applianceIds[size] = applianceId;
+        kwh[size] = rowKwh;
+        cost[size] = rowCost;
+        tariffTypes[size] = tariffType;
+        size++;
+        minDay = Math.min(minDay, epochDay);
+        maxDay = Math.max(maxDay, epochDay);
+    }
+    
+    /**
+     * Есть ли в блоке записи из периода [from, to)
+     */
+    boolean overlaps(int from, int to) {
+        return size > 0 && minDay < to && maxDay >= from;
+    }
+}
@@ -0,0 +1,309 @@
+package com.energy.store;
+
+import com.energy.dao.ConsumptionDAO;
+import com.energy.model.ConsumptionRecord;
+import com.energy.model.DailySeries;
+import com.energy.model.PeriodTotals;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хранилище записей потребления в памяти процесса
+ * Записи пользователя загружаются из consumption_records при первом запросе и хранятся
+ * в колоночных блоках примитивных массивов (UserSeries). Запись через ConsumptionDAO
+ * дописывает строки в загруженные ряды после фиксации транзакции, поэтому дневные, месячные
+ * и периодические суммы считаются без обращения к базе данных.
+ *
+ * Объём ограничен energy.store.maxBytes; при превышении вытесняются ряды давно не запрошенных
+ * пользователей (LRU). Если ряд нельзя загрузить согласованно (у пользователя идёт запись)
+ * или он больше всего бюджета, методы возвращают null и вызывающий код читает агрегаты из базы.
+ * Отключается свойством energy.store.disabled
+ */
+public class ConsumptionStore {
+    
+    private static final boolean ENABLED = !Boolean.getBoolean("energy.store.disabled");
+    private static final long MAX_BYTES = Long.getLong("energy.store.maxBytes", 64L * 1024 * 1024);
+    
+    private static final LinkedHashMap<Integer, UserSeries> SERIES = new LinkedHashMap<>(256, 0.75f, true);
+    private static long totalBytes;
+    
+    /**
+     * Состояние записи пользователя
+     * Загрузка принимается, только если за время чтения из базы у пользователя
+     * не начиналась и не шла запись - иначе строки могли бы потеряться или задвоиться
+     */
+    private static final class WriteState {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong started = new AtomicLong();
+    }
+    
+    private static final Map<Integer, WriteState> WRITES = new ConcurrentHashMap<>();
+    
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong SKIPPED_LOADS = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+    
+    private static final ConsumptionDAO CONSUMPTION_DAO = new ConsumptionDAO();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private ConsumptionStore() {}
+    
+    /**
+     * Потребление по дням начиная с указанного дня (как consumption_daily_rollup)
+     * @param userId ID пользователя
+     * @param fromDay первый день (от 1970-01-01)
+     * @return ряд по дням с данными или null, если ряд пользователя недоступен
+     */
+    public static DailySeries getDailyStats(int userId, int fromDay) throws SQLException {
+        UserSeries series = get(userId);
+        if (series == null) {
+            return null;
+        }
+        UserSeries.DayTotals days = series.days(fromDay, Integer.MAX_VALUE);
+        DailySeries result = new DailySeries(days.count.length);
+        for (int i = 0; i < days.count.length; i++) {
+            if (days.count[i] > 0) {
+                result.add(days.from + i, days.kwh[i], days.cost[i]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Помесячная статистика начиная с указанного месяца (как consumption_monthly_rollup), новые месяцы первыми
+     * @param userId ID пользователя
+     * @param fromMonth первый день первого месяца
+     * @return данные по месяцам или null, если ряд пользователя недоступен
+     */
+    public static List<Map<String, Object>> getMonthlyStats(int userId, LocalDate fromMonth) throws SQLException {
+        UserSeries series = get(userId);
+        if (series == null) {
+            return null;
+        }
+        UserSeries.DayTotals days = series.days((int) fromMonth.toEpochDay(), Integer.MAX_VALUE);
+        
+        List<Map<String, Object>> stats = new ArrayList<>();
+        LocalDate month = LocalDate.ofEpochDay(days.from).withDayOfMonth(1);
+        int end = days.from + days.count.length;
+        while (month.toEpochDay() < end) {
+            LocalDate next = month.plusMonths(1);
+            int first = Math.max((int) month.toEpochDay() - days.from, 0);
+            int last = Math.min((int) next.toEpochDay() - days.from, days.count.length);
+            
+            double kwh = 0;
+            double cost = 0;
+            int records = 0;
+            int daysRecorded = 0;
+            for (int i = first; i < last; i++) {
+                if (days.count[i] > 0) {
+                    kwh += days.kwh[i];
+                    cost += days.cost[i];
+                    records += days.count[i];
+                    daysRecorded++;
+                }
+            }
+            if (records > 0) {
+                Map<String, Object> stat = new HashMap<>();
+                stat.put("year", month.getYear());
+                stat.put("month", month.getMonthValue());
+                stat.put("totalKwh", kwh);
+                stat.put("totalCost", cost);
+                stat.put("avgDailyKwh", kwh / records);
+                stat.put("daysRecorded", daysRecorded);
+                stats.add(0, stat);
+            }
+            month = next;
+        }
+        return stats;
+    }
+    
+    /**
+     * Суммарное потребление и стоимость за период [from, to)
+     * @return суммы или null, если ряд пользователя недоступен
+     */
+    public static PeriodTotals getPeriodTotals(int userId, int fromDay, int toDay) throws SQLException {
+        UserSeries series = get(userId);
+        return series != null ? series.sum(fromDay, toDay) : null;
+    }
+    
+    /**
+     * Потребление и стоимость по приборам за период [from, to); общие записи - под ключом 0
+     * @return суммы по ID прибора или null, если ряд пользователя недоступен
+     */
+    public static Map<Integer, PeriodTotals> getApplianceTotals(int userId, int fromDay, int toDay) throws SQLException {
+        UserSeries series = get(userId);
+        return series != null ? series.byAppliance(fromDay, toDay) : null;
+    }
+    
+    /**
+     * Отметка начала записи (до открытия транзакции)
+     * @param userIds пользователи, чьи записи будут изменены
+     */
+    public static void beginWrite(Collection<Integer> userIds) {
+        for (int userId : userIds) {
+            WriteState state = WRITES.computeIfAbsent(userId, id -> new WriteState());
+            // Сначала active: загрузка, увидевшая новый started, обязательно увидит и active > 0
+            state.active.incrementAndGet();
+            state.started.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Отметка окончания записи (в finally, в том числе после отката)
+     * @param userIds те же пользователи, что и в beginWrite
+     */
+    public static void endWrite(Collection<Integer> userIds) {
+        for (int userId : userIds) {
+            WRITES.get(userId).active.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Пользователи записей (для beginWrite/endWrite)
+     */
+    public static Set<Integer> usersOf(Collection<ConsumptionRecord> records) {
+        Set<Integer> userIds = new LinkedHashSet<>();
+        for (ConsumptionRecord record : records) {
+            userIds.add(record.getUserId());
+        }
+        return userIds;
+    }
+    
+    /**
+     * Дописывание зафиксированных записей в загруженные ряды
+     * Вызывается после commit и до endWrite
+     * @param records вставленные записи
+     */
+    public static void append(Collection<ConsumptionRecord> records) {
+        if (!ENABLED) {
+            return;
+        }
+        synchronized (SERIES) {
+            // Рост ряда учитывается в бюджете только пока ряд в хранилище
+            for (ConsumptionRecord record : records) {
+                UserSeries series = SERIES.get(record.getUserId());
+                if (series != null) {
+                    int applianceId = record.getApplianceId() != null ? record.getApplianceId() : 0;
+                    totalBytes += series.append((int) record.getRecordDate().toLocalDate().toEpochDay(), applianceId,
+                            record.getConsumptionKwh(), record.getCost(), record.getTariffType());
+                }
+            }
+            evict();
+        }
+    }
+    
+    /**
+     * Записи удалённого прибора становятся общими (ON DELETE SET NULL)
+     * Вызывается после commit и до endWrite
+     * @param userId ID владельца прибора
+     * @param applianceId ID прибора
+     */
+    public static void applianceRemoved(int userId, int applianceId) {
+        UserSeries series = peek(userId);
+        if (series != null) {
+            series.clearAppliance(applianceId);
+        }
+    }
+    
+    /**
+     * Метрики хранилища
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", ENABLED);
+        long rows = 0;
+        synchronized (SERIES) {
+            metrics.put("users", SERIES.size());
+            metrics.put("bytes", totalBytes);
+            for (UserSeries series : SERIES.values()) {
+                rows += series.getRows();
+            }
+        }
+        metrics.put("rows", rows);
+        metrics.put("maxBytes", MAX_BYTES);
+        metrics.put("hits", HITS.get());
+        metrics.put("misses", MISSES.get());
+        metrics.put("skippedLoads", SKIPPED_LOADS.get());
+        metrics.put("evictions", EVICTIONS.get());
+        return metrics;
+    }
+    
+    /**
+     * Ряд пользователя (загружается при промахе)
+     * @return ряд или null, если хранилище отключено или загрузку пришлось пропустить
+     */
+    private static UserSeries get(int userId) throws SQLException {
+        if (!ENABLED) {
+            return null;
+        }
+        UserSeries series = peek(userId);
+        if (series != null) {
+            HITS.incrementAndGet();
+            return series;
+        }
+        MISSES.incrementAndGet();
+        
+        WriteState state = WRITES.computeIfAbsent(userId, id -> new WriteState());
+        long started = state.started.get();
+        if (state.active.get() > 0) {
+            SKIPPED_LOADS.incrementAndGet();
+            return null;
+        }
+        
+        UserSeries loaded = new UserSeries();
+        CONSUMPTION_DAO.scanRecords(userId, loaded::append);
+        
+        synchronized (SERIES) {
+            if (state.started.get() != started) {
+                // Запись пересеклась с чтением - ряд может не совпадать с базой
+                SKIPPED_LOADS.incrementAndGet();
+                return null;
+            }
+            if (loaded.getBytes() > MAX_BYTES) {
+                // Ряд больше всего бюджета - используем его для этого запроса, но не храним
+                return loaded;
+            }
+            UserSeries existing = SERIES.get(userId);
+            if (existing != null) {
+                return existing;
+            }
+            SERIES.put(userId, loaded);
+            totalBytes += loaded.getBytes();
+            evict();
+        }
+        return loaded;
+    }
+    
+    private static UserSeries peek(int userId) {
+        synchronized (SERIES) {
+            return SERIES.get(userId);
+        }
+    }
+    
+    // Вызывается под блокировкой SERIES
+    private static void evict() {
+        Iterator<UserSeries> it = SERIES.values().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            UserSeries eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.getBytes();
+            EVICTIONS.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.energy.store;
+
+import com.energy.model.PeriodTotals;
+
+/**
+ * Накопительные суммы потребления и стоимости по дням (дерево Фенвика)
+ * Сумма за любой период и добавление записи, в том числе задним числом, занимают O(log n)
+ * по числу дней в диапазоне индекса и не зависят от числа записей.
+ * При записи за пределами диапазона он расширяется вдвое в сторону новой даты
+ */
+final class DayIndex {
+    
+    private static final int FIRST_DAYS = 64;
+    
+    // Байт на день: кВт·ч (double) + стоимость (double)
+    static final int BYTES_PER_DAY = 8 + 8;
+    
+    // День, соответствующий позиции 1; массивы нумеруются с 1 (элемент 0 не используется)
+    private int base;
+    private double[] kwh;
+    private double[] cost;
+    
+    /**
+     * Добавление записи
+     * @return прирост занятой памяти в байтах (при расширении диапазона)
+     */
+    long add(int epochDay, double rowKwh, double rowCost) {
+        long added = 0;
+        if (kwh == null) {
+            base = epochDay - FIRST_DAYS / 2;
+            kwh = new double[FIRST_DAYS + 1];
+            cost = new double[FIRST_DAYS + 1];
+            added = (long) FIRST_DAYS * BYTES_PER_DAY;
+        } else if (epochDay < base || epochDay >= base + capacity()) {
+            added = grow(epochDay);
+        }
+        int n = capacity();
+        for (int i = epochDay - base + 1; i <= n; i += i & -i) {
+            kwh[i] += rowKwh;
+            cost[i] += rowCost;
+        }
+        return added;
+    }
+    
+    /**
+     * Сумма за период [from, to)
+     */
+    PeriodTotals sum(int from, int to) {
+        if (kwh == null || to <= from) {
+            return new PeriodTotals(0, 0);
+        }
+        int upper = position(to);
+        int lower = position(from);
+        double sumKwh = 0;
+        double sumCost = 0;
+        // Общая часть двух префиксов сокращается - спускаемся только по различающимся узлам
+        while (upper > lower) {
+            sumKwh += kwh[upper];
+            sumCost += cost[upper];
+            upper -= upper & -upper;
+        }
+        while (lower > upper) {
+            sumKwh -= kwh[lower];
+            sumCost -= cost[lower];
+            lower -= lower & -lower;
+        }
+        return new PeriodTotals(sumKwh, sumCost);
+    }
+    
+    // Число дней до указанного (не включая его) в пределах диапазона
+    private int position(int epochDay) {
+        return Math.max(0, Math.min(epochDay - base, capacity()));
+    }
+    
+    private int capacity() {
+        return kwh.length - 1;
+    }
+    
+    private long grow(int epochDay) {
+        int n = capacity();
+        int first = Math.min(base, epochDay);
+        int last = Math.max(base + n - 1, epochDay);
+        int size = n * 2;
+        while (size < last - first + 1) {
+            size *= 2;
+        }
+        // Запас оставляем в сторону новой даты: поздние показания - в прошлое, новые - в будущее
+        int newBase = epochDay < base ? last - size + 1 : first;
+        
+        double[] newKwh = new double[size + 1];
+        double[] newCost = new double[size + 1];
+        toPoints(kwh);
+        toPoints(cost);
+        System.arraycopy(kwh, 1, newKwh, base - newBase + 1, n);
+        System.arraycopy(cost, 1, newCost, base - newBase + 1, n);
+        toTree(newKwh);
+        toTree(newCost);
+        base = newBase;
+        kwh = newKwh;
+        cost = newCost;
+        return (long) (size - n) * BYTES_PER_DAY;
+    }
+    
+    // Построение дерева из значений по дням за O(n)
+    private static void toTree(double[] values) {
+        for (int i = 1; i < values.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < values.length) {
+                values[parent] += values[i];
+            }
+        }
+    }
+    
+    // Обратное преобразование: дерево в значения по дням
+    private static void toPoints(double[] tree) {
+        for (int i = tree.length - 1; i >= 1; i--) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] -= tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.energy.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Файл сегмента холодных записей потребления
+ * Сегмент неизменяем после записи и отображается в память целиком. Формат (big-endian):
+ * <pre>
+ * заголовок:  int MAGIC, int VERSION
+ * блоки:      строки, сгруппированные по (пользователь, месяц) и упорядоченные по дате
+ * индекс:     int число типов тарифа, для каждого - short длина + UTF-8;
+ *             int число блоков, для каждого - int userId, int первый день месяца, long смещение, int строк
+ * окончание:  long смещение индекса, int MAGIC
+ * </pre>
+ * Версия 2 хранит блок сжатым по столбцам (BlockCodec); блок распаковывается целиком при чтении.
+ * Версия 1 (читается для совместимости) хранит строки по ROW_BYTES байт: int id, int день,
+ * int прибор (0 - общая запись), byte тип тарифа (0 - нет), byte флаги (1 - нет часов работы),
+ * 2 байта выравнивания, double кВт·ч, double стоимость, double часы работы, long время создания (мс)
+ */
+final class Segment {
+    
+    static final int MAGIC = 0x45534547; // "ESEG"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 8;
+    static final int TRAILER_BYTES = 12;
+    static final int ROW_BYTES = 48;
+    
+    private static final int FLAG_NO_USAGE_HOURS = 1;
+    
+    /**
+     * Блок строк одного пользователя за один месяц
+     */
+    static final class Block {
+        final Segment segment;
+        final int userId;
+        final int monthDay;
+        final long offset;
+        final int rows;
+        
+        Block(Segment segment, int userId, int monthDay, long offset, int rows) {
+            this.segment = segment;
+            this.userId = userId;
+            this.monthDay = monthDay;
+            this.offset = offset;
+            this.rows = rows;
+        }
+    }
+    
+    /**
+     * Распакованные строки блока по столбцам
+     */
+    static final class Columns {
+        int size;
+        String[] tariffTypes;
+        int[] ids;
+        int[] epochDays;
+        int[] applianceIds;
+        byte[] tariffCodes;
+        double[] kwh;
+        double[] cost;
+        double[] usageHours;
+        boolean[] hasUsageHours;
+        long[] createdAt;
+        
+        // Рабочие массивы распаковки
+        long[] scratch;
+        int[] groups;
+        
+        Columns(int capacity) {
+            allocate(capacity);
+        }
+        
+        void ensureCapacity(int capacity) {
+            if (ids.length < capacity) {
+                allocate(Math.max(capacity, ids.length * 2));
+            }
+        }
+        
+        String tariffType(int row) {
+            return tariffTypes[tariffCodes[row] & 0xFF];
+        }
+        
+        private void allocate(int capacity) {
+            ids = ids == null ? new int[capacity] : Arrays.copyOf(ids, capacity);
+            epochDays = epochDays == null ? new int[capacity] : Arrays.copyOf(epochDays, capacity);
+            applianceIds = applianceIds == null ? new int[capacity] : Arrays.copyOf(applianceIds, capacity);
+            tariffCodes = tariffCodes == null ? new byte[capacity] : Arrays.copyOf(tariffCodes, capacity);
+            kwh = kwh == null ? new double[capacity] : Arrays.copyOf(kwh, capacity);
+            cost = cost == null ? new double[capacity] : Arrays.copyOf(cost, capacity);
+            usageHours = usageHours == null ? new double[capacity] : Arrays.copyOf(usageHours, capacity);
+            hasUsageHours = hasUsageHours == null ? new boolean[capacity] : Arrays.copyOf(hasUsageHours, capacity);
+            createdAt = createdAt == null ? new long[capacity] : Arrays.copyOf(createdAt, capacity);
+            scratch = new long[capacity];
+            groups = new int[capacity];
+        }
+    }
+    
+    private final MappedByteBuffer data;
+    private final int version;
+    private final String[] tariffTypes;
+    private final List<Block> blocks;
+    
+    private Segment(MappedByteBuffer data, int version, String[] tariffTypes, List<Block> blocks) {
+        this.data = data;
+        this.version = version;
+        this.tariffTypes = tariffTypes;
+        this.blocks = blocks;
+    }
+    
+    /**
+     * Отображение сегмента в память и чтение индекса
+     * @throws IOException если файл неполный (нет окончания) или повреждён
+     */
+    static Segment open(Path file) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Некорректный размер сегмента " + file + ": " + size);
+            }
+            // Отображение остаётся действительным после закрытия канала
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        
+        int limit = data.limit();
+        int version = data.getInt(4);
+        if (data.getInt(0) != MAGIC || (version != 1 && version != VERSION) || data.getInt(limit - 4) != MAGIC) {
+            throw new IOException("Сегмент повреждён или не дописан: " + file);
+        }
+        
+        ByteBuffer index = data.duplicate();
+        index.position((int) data.getLong(limit - TRAILER_BYTES));
+        String[] tariffTypes = new String[index.getInt() + 1];
+        for (int i = 1; i < tariffTypes.length; i++) {
+            byte[] name = new byte[index.getShort()];
+            index.get(name);
+            tariffTypes[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        
+        Segment segment = new Segment(data, version, tariffTypes, new ArrayList<>());
+        int blockCount = index.getInt();
+        for (int i = 0; i < blockCount; i++) {
+            segment.blocks.add(new Block(segment, index.getInt(), index.getInt(), index.getLong(), index.getInt()));
+        }
+        return segment;
+    }
+    
+    List<Block> getBlocks() {
+        return blocks;
+    }
+    
+    long size() {
+        return data.limit();
+    }
+    
+    /**
+     * Распаковка строк блока
+     * @param block блок этого сегмента
+     * @param into столбцы для результата (переиспользуются между блоками)
+     */
+    void read(Block block, Columns into) {
+        into.tariffTypes = tariffTypes;
+        if (version != 1) {
+            // Абсолютные чтения не меняют состояние буфера, поэтому безопасны из нескольких потоков
+            BlockCodec.decode(data, (int) block.offset, into);
+            return;
+        }
+        into.ensureCapacity(block.rows);
+        into.size = block.rows;
+        for (int row = 0; row < block.rows; row++) {
+            int pos = (int) (block.offset + (long) row * ROW_BYTES);
+            into.ids[row] = data.getInt(pos);
+            into.epochDays[row] = data.getInt(pos + 4);
+            into.applianceIds[row] = data.getInt(pos + 8);
+            into.tariffCodes[row] = data.get(pos + 12);
+            into.hasUsageHours[row] = (data.get(pos + 13) & FLAG_NO_USAGE_HOURS) == 0;
+            into.kwh[row] = data.getDouble(pos + 16);
+            into.cost[row] = data.getDouble(pos + 24);
+            into.usageHours[row] = data.getDouble(pos + 32);
+            into.createdAt[row] = data.getLong(pos + 40);
+        }
+    }
+    
+    /**
+     * ID первой строки блока
+     */
+    int firstId(Block block) {
+        return version != 1 ? BlockCodec.firstId(data, (int) block.offset) : data.getInt((int) block.offset);
+    }
+    
+    /**
+     * Последовательная запись сегмента
+     * Строки должны поступать упорядоченными по пользователю и дате; блок сжимается и записывается
+     * при смене пользователя или месяца. Данные сбрасываются на диск в finish()
+     */
+    static final class Writer implements AutoCloseable {
+        
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final Map<String, Integer> tariffCodes = new HashMap<>();
+        private final List<String> tariffNames = new ArrayList<>();
+        private final List<long[]> blocks = new ArrayList<>();
+        private final Columns block = new Columns(256);
+        private long position = HEADER_BYTES;
+        private int blockUser = -1;
+        private int blockMonth = Integer.MIN_VALUE;
+        private long rows;
+        
+        Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream stream = Channels.newOutputStream(channel);
+            out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        
+        void write(int userId, int monthDay, int id, int epochDay, int applianceId, String tariffType,
+                   double kwh, double cost, Double usageHours, long createdAt) throws IOException {
+            if (userId != blockUser || monthDay != blockMonth) {
+                closeBlock();
+                blockUser = userId;
+                blockMonth = monthDay;
+            }
+            int row = block.size;
+            block.ensureCapacity(row + 1);
+            block.size++;
+            block.ids[row] = id;
+            block.epochDays[row] = epochDay;
+            block.applianceIds[row] = applianceId;
+            block.tariffCodes[row] = (byte) encode(tariffType);
+            block.kwh[row] = kwh;
+            block.cost[row] = cost;
+            block.hasUsageHours[row] = usageHours != null;
+            block.usageHours[row] = usageHours != null ? usageHours : 0;
+            block.createdAt[row] = createdAt;
+            rows++;
+        }
+        
+        long getRows() {
+            return rows;
+        }
+        
+        long getSize() {
+            return position;
+        }
+        
+        /**
+         * Запись индекса и окончания, сброс на диск
+         */
+        void finish() throws IOException {
+            closeBlock();
+            long indexOffset = position;
+            out.writeInt(tariffNames.size());
+            for (String name : tariffNames) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(blocks.size());
+            for (long[] entry : blocks) {
+                out.writeInt((int) entry[0]);
+                out.writeInt((int) entry[1]);
+                out.writeLong(entry[2]);
+                out.writeInt((int) entry[3]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            channel.force(true);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+        
+        private void closeBlock() throws IOException {
+            if (block.size > 0) {
+                byte[] encoded = BlockCodec.encode(block);
+                blocks.add(new long[] {blockUser, blockMonth, position, block.size});
+                out.write(encoded);
+                position += encoded.length;
+                block.size = 0;
+            }
+        }
+        
+        private int encode(String tariffType) {
+            if (tariffType == null) {
+                return 0;
+            }
+            Integer code = tariffCodes.get(tariffType);
+            if (code == null) {
+                if (tariffNames.size() == 255) {
+                    return 0;
+                }
+                tariffNames.add(tariffType);
+                code = tariffNames.size();
+                tariffCodes.put(tariffType, code);
+            }
+            return code;
+        }
+    }
+}
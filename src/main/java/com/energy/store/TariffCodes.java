@@ -0,0 +1,48 @@
+package com.energy.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь типов тарифа для колонки byte
+ * Код 0 означает отсутствие типа; типов в системе единицы, поэтому 255 кодов хватает с запасом.
+ * Типы сверх ёмкости словаря сохраняются как отсутствующие
+ */
+final class TariffCodes {
+    
+    private static final int MAX_CODES = 255;
+    
+    private static final Map<String, Byte> CODES = new HashMap<>();
+    private static final List<String> NAMES = new ArrayList<>();
+    
+    static {
+        NAMES.add(null);
+    }
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private TariffCodes() {}
+    
+    static synchronized byte encode(String tariffType) {
+        if (tariffType == null) {
+            return 0;
+        }
+        Byte code = CODES.get(tariffType);
+        if (code == null) {
+            if (NAMES.size() > MAX_CODES) {
+                return 0;
+            }
+            code = (byte) NAMES.size();
+            CODES.put(tariffType, code);
+            NAMES.add(tariffType);
+        }
+        return code;
+    }
+    
+    static synchronized String decode(byte code) {
+        return NAMES.get(code & 0xFF);
+    }
+}
@@ -0,0 +1,382 @@
+package com.energy.store;
+
+import com.energy.util.DatabaseConnection;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Перенос записей закрытых месяцев из consumption_records в сегменты ColdStorage
+ * Раз в energy.tiering.intervalMinutes записи старше energy.tiering.hotMonths полных месяцев
+ * переносятся диапазонами по energy.tiering.usersPerSegment пользователей: строки выгружаются
+ * во временный файл (*.seg.tmp) и сбрасываются на диск, затем в одной транзакции удаляются
+ * из базы по точному списку ID, после фиксации файл переименовывается и подключается.
+ * Один перенос ограничен energy.tiering.maxMoveRows строками, чтобы транзакция удаления не держала
+ * блокировки строк и не копила undo-журнал; больший диапазон переносится несколькими сегментами.
+ * Показания, пришедшие за старые месяцы во время переноса, остаются в базе до следующего запуска.
+ *
+ * Сбой между фиксацией удаления и переименованием восстанавливается при старте: если строк
+ * временного файла в базе уже нет, удаление зафиксировано и файл подключается, иначе удаляется.
+ * Включается свойством energy.tiering.enabled (нужен также energy.tiering.dir)
+ */
+public class TieringJob {
+    
+    private static final boolean ENABLED = Boolean.getBoolean("energy.tiering.enabled");
+    private static final int HOT_MONTHS = Integer.getInteger("energy.tiering.hotMonths", 3);
+    private static final long INTERVAL_MINUTES = Long.getLong("energy.tiering.intervalMinutes", 360);
+    private static final int USERS_PER_SEGMENT = Integer.getInteger("energy.tiering.usersPerSegment", 1000);
+    
+    // Предел строк в одном сегменте (отображение в память ограничено 2 ГБ)
+    private static final int MAX_SEGMENT_ROWS = Integer.getInteger("energy.tiering.maxSegmentRows", 4_000_000);
+    
+    // Предел строк одного переноса (одна транзакция удаления и один сегмент)
+    private static final int MAX_MOVE_ROWS = Math.max(Integer.getInteger("energy.tiering.maxMoveRows", 50_000), 1);
+    
+    // Число ID в одном DELETE ... WHERE id IN (...)
+    private static final int DELETE_BATCH_SIZE = 1000;
+    
+    // Ожидание читателей перед фиксацией удаления; при превышении перенос откладывается
+    private static final long LOCK_TIMEOUT_MS = Long.getLong("energy.tiering.lockTimeoutMs", 5000);
+    
+    private static final AtomicLong RUNS = new AtomicLong();
+    private static final AtomicLong FAILURES = new AtomicLong();
+    private static final AtomicLong SEGMENTS_WRITTEN = new AtomicLong();
+    private static final AtomicLong ROWS_MOVED = new AtomicLong();
+    private static final AtomicLong POSTPONED = new AtomicLong();
+    private static volatile long lastRunMs;
+    
+    private static ScheduledExecutorService scheduler;
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private TieringJob() {}
+    
+    /**
+     * Восстановление незавершённых переносов и запуск по расписанию (при старте приложения)
+     * Вызывается после ColdStorage.open()
+     */
+    public static synchronized void start() throws IOException {
+        if (!ColdStorage.isEnabled() || scheduler != null) {
+            return;
+        }
+        try {
+            recover();
+        } catch (SQLException e) {
+            // Временные файлы остаются до следующего запуска
+            System.err.println("Ошибка восстановления переноса в холодное хранилище: " + e.getMessage());
+        }
+        if (!ENABLED) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tiering-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (Exception e) {
+                FAILURES.incrementAndGet();
+                System.err.println("Ошибка переноса записей в холодное хранилище: " + e.getMessage());
+            }
+        }, INTERVAL_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Остановка (при остановке приложения); идущий перенос прерывается до фиксации
+     */
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    /**
+     * Один проход переноса
+     * @return количество перенесённых записей
+     */
+    public static long runOnce() throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        RUNS.incrementAndGet();
+        Date before = Date.valueOf(LocalDate.now().withDayOfMonth(1).minusMonths(HOT_MONTHS));
+        
+        long moved = 0;
+        List<Integer> userIds = findUsersBefore(before);
+        int i = 0;
+        while (i < userIds.size() && !Thread.currentThread().isInterrupted()) {
+            int fromUser = userIds.get(i) / USERS_PER_SEGMENT * USERS_PER_SEGMENT;
+            int toUser = fromUser + USERS_PER_SEGMENT;
+            while (i < userIds.size() && userIds.get(i) < toUser) {
+                i++;
+            }
+            // Полный перенос означает, что в диапазоне могли остаться строки - продолжаем следующим сегментом
+            long rangeMoved;
+            do {
+                rangeMoved = moveRange(fromUser, toUser, before);
+                moved += rangeMoved;
+            } while (rangeMoved == moveLimit() && !Thread.currentThread().isInterrupted());
+        }
+        lastRunMs = System.currentTimeMillis() - start;
+        return moved;
+    }
+    
+    /**
+     * Метрики переноса
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", ENABLED && ColdStorage.isEnabled());
+        metrics.put("hotMonths", HOT_MONTHS);
+        metrics.put("runs", RUNS.get());
+        metrics.put("failures", FAILURES.get());
+        metrics.put("postponed", POSTPONED.get());
+        metrics.put("segmentsWritten", SEGMENTS_WRITTEN.get());
+        metrics.put("rowsMoved", ROWS_MOVED.get());
+        metrics.put("lastRunMs", lastRunMs);
+        return metrics;
+    }
+    
+    private static List<Integer> findUsersBefore(Date before) throws SQLException {
+        String sql = "SELECT DISTINCT user_id FROM consumption_records WHERE record_date < ? ORDER BY user_id";
+        
+        List<Integer> userIds = new ArrayList<>();
+        
+        try (Connection conn = DatabaseConnection.getPooledConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setDate(1, before);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    userIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return userIds;
+    }
+    
+    /**
+     * Перенос записей пользователей [fromUser, toUser) до указанной даты в новый сегмент
+     */
+    private static long moveRange(int fromUser, int toUser, Date before) throws SQLException, IOException {
+        String sql = "SELECT id, user_id, record_date, appliance_id, consumption_kwh, cost, tariff_type, usage_hours, created_at " +
+                    "FROM consumption_records WHERE user_id >= ? AND user_id < ? AND record_date < ? " +
+                    "ORDER BY user_id, record_date, id";
+        
+        String name = "users-" + fromUser + "-" + (toUser - 1) + "-" + System.currentTimeMillis();
+        Path temp = ColdStorage.directory().resolve(name + ColdStorage.TEMP_SUFFIX);
+        Path target = ColdStorage.directory().resolve(name + ColdStorage.SEGMENT_SUFFIX);
+        
+        int[] ids = new int[1024];
+        int count = 0;
+        Set<Integer> userIds = new LinkedHashSet<>();
+        Segment segment;
+        
+        try {
+            try (Segment.Writer writer = new Segment.Writer(temp);
+                 Connection conn = DatabaseConnection.getPooledConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                
+                stmt.setFetchSize(1000);
+                stmt.setInt(1, fromUser);
+                stmt.setInt(2, toUser);
+                stmt.setDate(3, before);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    // Остаток сверх предела уйдёт в следующий сегмент
+                    int limit = moveLimit();
+                    while (count < limit && rs.next()) {
+                        int userId = rs.getInt(2);
+                        LocalDate date = rs.getObject(3, LocalDate.class);
+                        double usageHours = rs.getDouble(8);
+                        Double usage = rs.wasNull() ? null : usageHours;
+                        Timestamp createdAt = rs.getTimestamp(9);
+                        writer.write(userId, (int) date.withDayOfMonth(1).toEpochDay(), rs.getInt(1),
+                                (int) date.toEpochDay(), rs.getInt(4), rs.getString(7), rs.getDouble(5),
+                                rs.getDouble(6), usage, createdAt != null ? createdAt.getTime() : 0);
+                        
+                        if (count == ids.length) {
+                            ids = Arrays.copyOf(ids, count * 2);
+                        }
+                        ids[count++] = rs.getInt(1);
+                        userIds.add(userId);
+                    }
+                }
+                writer.finish();
+            }
+            segment = count > 0 ? Segment.open(temp) : null;
+        } catch (SQLException | IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        if (segment == null) {
+            Files.deleteIfExists(temp);
+            return 0;
+        }
+        if (!commitMove(segment, ids, count, userIds, temp, target)) {
+            return 0;
+        }
+        
+        SEGMENTS_WRITTEN.incrementAndGet();
+        ROWS_MOVED.addAndGet(count);
+        return count;
+    }
+    
+    /**
+     * Удаление перенесённых строк из базы и подключение сегмента
+     * До фиксации удаления временный файл удаляется при любой ошибке, после - остаётся для recover()
+     * @return false если перенос отложен (читатели не освободили хранилище за LOCK_TIMEOUT_MS)
+     */
+    private static boolean commitMove(Segment segment, int[] ids, int count, Set<Integer> userIds,
+                                      Path temp, Path target) throws SQLException, IOException {
+        // Загрузки ConsumptionStore, пересекающиеся с переносом, отбрасываются
+        ConsumptionStore.beginWrite(userIds);
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            conn.setAutoCommit(false);
+            Lock lock = ColdStorage.lock().writeLock();
+            try {
+                deleteByIds(conn, ids, count);
+                if (!lock.tryLock(LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    conn.rollback();
+                    Files.deleteIfExists(temp);
+                    POSTPONED.incrementAndGet();
+                    return false;
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                Files.deleteIfExists(temp);
+                throw e;
+            } catch (InterruptedException e) {
+                conn.rollback();
+                Files.deleteIfExists(temp);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            
+            try {
+                conn.commit();
+                // После фиксации сегмент обязан появиться - при сбое его подключит recover() при старте
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                ColdStorage.publish(segment);
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        } finally {
+            ConsumptionStore.endWrite(userIds);
+        }
+    }
+    
+    private static int moveLimit() {
+        return Math.min(MAX_SEGMENT_ROWS, MAX_MOVE_ROWS);
+    }
+    
+    private static void deleteByIds(Connection conn, int[] ids, int count) throws SQLException {
+        for (int from = 0; from < count; from += DELETE_BATCH_SIZE) {
+            int to = Math.min(from + DELETE_BATCH_SIZE, count);
+            StringBuilder sql = new StringBuilder("DELETE FROM consumption_records WHERE id IN (");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "?" : ",?");
+            }
+            sql.append(')');
+            
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                for (int i = from; i < to; i++) {
+                    stmt.setInt(i - from + 1, ids[i]);
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+    
+    /**
+     * Разбор временных файлов, оставшихся после сбоя
+     */
+    private static void recover() throws IOException, SQLException {
+        List<Path> temps = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(ColdStorage.directory(), "*" + ColdStorage.TEMP_SUFFIX)) {
+            for (Path file : files) {
+                temps.add(file);
+            }
+        }
+        
+        for (Path temp : temps) {
+            Segment segment;
+            try {
+                segment = Segment.open(temp);
+            } catch (IOException e) {
+                // Файл не дописан - до удаления из базы дело не дошло
+                Files.delete(temp);
+                continue;
+            }
+            if (anyExists(segment)) {
+                // Удаление не зафиксировано - строки остались в базе
+                Files.delete(temp);
+                continue;
+            }
+            String name = temp.getFileName().toString();
+            Path target = temp.resolveSibling(name.substring(0, name.length() - ColdStorage.TEMP_SUFFIX.length())
+                    + ColdStorage.SEGMENT_SUFFIX);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            ColdStorage.publish(segment);
+            System.err.println("Подключён сегмент после незавершённого переноса: " + target);
+        }
+    }
+    
+    /**
+     * Осталась ли в базе хоть одна строка сегмента
+     * Проверяется первая строка каждого блока: удаление выполняется одной транзакцией
+     */
+    private static boolean anyExists(Segment segment) throws SQLException {
+        List<Segment.Block> blocks = segment.getBlocks();
+        
+        try (Connection conn = DatabaseConnection.getPooledConnection()) {
+            for (int from = 0; from < blocks.size(); from += DELETE_BATCH_SIZE) {
+                int to = Math.min(from + DELETE_BATCH_SIZE, blocks.size());
+                StringBuilder sql = new StringBuilder("SELECT 1 FROM consumption_records WHERE id IN (");
+                for (int i = from; i < to; i++) {
+                    sql.append(i == from ? "?" : ",?");
+                }
+                sql.append(") LIMIT 1");
+                
+                try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                    for (int i = from; i < to; i++) {
+                        stmt.setInt(i - from + 1, segment.firstId(blocks.get(i)));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,172 @@
+package com.energy.store;
+
+import com.energy.model.PeriodTotals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Все записи потребления одного пользователя в колоночных блоках
+ * Блоки растут от FIRST_CHUNK_ROWS до MAX_CHUNK_ROWS строк, чтобы пользователи
+ * с короткой историей не занимали лишней памяти. Порядок строк - порядок поступления.
+ * Суммы за период читаются из накопительного индекса по дням (DayIndex) без просмотра строк
+ */
+final class UserSeries {
+    
+    private static final int FIRST_CHUNK_ROWS = 64;
+    private static final int MAX_CHUNK_ROWS = 4096;
+    
+    private final List<ColumnChunk> chunks = new ArrayList<>();
+    private final DayIndex index = new DayIndex();
+    private int rows;
+    private long bytes;
+    private int minDay = Integer.MAX_VALUE;
+    private int maxDay = Integer.MIN_VALUE;
+    
+    /**
+     * Дневные суммы за период [from, to)
+     */
+    static final class DayTotals {
+        final int from;
+        final double[] kwh;
+        final double[] cost;
+        final int[] count;
+        
+        DayTotals(int from, int to) {
+            int days = Math.max(to - from, 0);
+            this.from = from;
+            this.kwh = new double[days];
+            this.cost = new double[days];
+            this.count = new int[days];
+        }
+    }
+    
+    /**
+     * Добавление записи
+     * @return прирост занятой памяти в байтах (при выделении нового блока)
+     */
+    synchronized long append(int epochDay, int applianceId, double kwh, double cost, String tariffType) {
+        long added = 0;
+        ColumnChunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (last == null || last.isFull()) {
+            int capacity = last == null ? FIRST_CHUNK_ROWS : Math.min(last.capacity() * 2, MAX_CHUNK_ROWS);
+            last = new ColumnChunk(capacity);
+            chunks.add(last);
+            added = (long) capacity * ColumnChunk.BYTES_PER_ROW;
+            bytes += added;
+        }
+        last.append(epochDay, applianceId, (float) kwh, (float) cost, TariffCodes.encode(tariffType));
+        long indexed = index.add(epochDay, kwh, cost);
+        added += indexed;
+        bytes += indexed;
+        rows++;
+        minDay = Math.min(minDay, epochDay);
+        maxDay = Math.max(maxDay, epochDay);
+        return added;
+    }
+    
+    synchronized long getBytes() {
+        return bytes;
+    }
+    
+    synchronized int getRows() {
+        return rows;
+    }
+    
+    /**
+     * Суммы по дням за период [from, to), суженный до дней, в которые есть данные
+     * (длина результата не зависит от запрошенной глубины истории)
+     */
+    synchronized DayTotals days(int from, int to) {
+        int start = Math.max(from, minDay);
+        int end = maxDay == Integer.MIN_VALUE ? start : Math.min(to, maxDay + 1);
+        DayTotals totals = new DayTotals(start, end);
+        for (ColumnChunk chunk : chunks) {
+            if (!chunk.overlaps(start, end)) {
+                continue;
+            }
+            int[] days = chunk.epochDays;
+            for (int i = 0; i < chunk.size; i++) {
+                int day = days[i];
+                if (day >= start && day < end) {
+                    int slot = day - start;
+                    totals.kwh[slot] += chunk.kwh[i];
+                    totals.cost[slot] += chunk.cost[i];
+                    totals.count[slot]++;
+                }
+            }
+        }
+        return totals;
+    }
+    
+    /**
+     * Записи удалённого прибора становятся общими (как ON DELETE SET NULL)
+     */
+    synchronized void clearAppliance(int applianceId) {
+        for (ColumnChunk chunk : chunks) {
+            int[] ids = chunk.applianceIds;
+            for (int i = 0; i < chunk.size; i++) {
+                if (ids[i] == applianceId) {
+                    ids[i] = 0;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Сумма за период [from, to) за O(log n) по числу дней истории
+     */
+    synchronized PeriodTotals sum(int from, int to) {
+        return index.sum(from, to);
+    }
+    
+    /**
+     * Суммы по приборам за период [from, to); общие записи - под ключом 0
+     */
+    synchronized Map<Integer, PeriodTotals> byAppliance(int from, int to) {
+        // Приборов у пользователя немного - суммируем в параллельных массивах по индексу прибора
+        Map<Integer, Integer> slots = new HashMap<>();
+        double[] kwh = new double[8];
+        double[] cost = new double[8];
+        for (ColumnChunk chunk : chunks) {
+            if (!chunk.overlaps(from, to)) {
+                continue;
+            }
+            int[] days = chunk.epochDays;
+            int lastId = Integer.MIN_VALUE;
+            int slot = -1;
+            for (int i = 0; i < chunk.size; i++) {
+                int day = days[i];
+                if (day < from || day >= to) {
+                    continue;
+                }
+                int applianceId = chunk.applianceIds[i];
+                if (applianceId != lastId) {
+                    Integer known = slots.get(applianceId);
+                    if (known == null) {
+                        known = slots.size();
+                        slots.put(applianceId, known);
+                        if (known == kwh.length) {
+                            kwh = Arrays.copyOf(kwh, known * 2);
+                            cost = Arrays.copyOf(cost, known * 2);
+                        }
+                    }
+                    lastId = applianceId;
+                    slot = known;
+                }
+                kwh[slot] += chunk.kwh[i];
+                cost[slot] += chunk.cost[i];
+            }
+        }
+        
+        Map<Integer, PeriodTotals> result = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : slots.entrySet()) {
+            int slot = entry.getValue();
+            result.put(entry.getKey(), new PeriodTotals(kwh[slot], cost[slot]));
+        }
+        return result;
+    }
+}
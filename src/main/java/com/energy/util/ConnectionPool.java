@@ -0,0 +1,277 @@
+package com.energy.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченный пул JDBC-соединений
+ * Поддерживает проверку соединения при выдаче, вытеснение простаивающих соединений,
+ * обнаружение утечек (с сохранением стека получения) и таймаут ожидания свободного соединения
+ */
+public class ConnectionPool {
+    
+    /**
+     * Фабрика физических соединений
+     */
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+    
+    // Соединение, возвращённое недавно, не проверяется повторно
+    private static final long VALIDATION_BYPASS_MS = 500;
+    
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    
+    // Метрики
+    private final Histogram waitTimeMicros = new Histogram();
+    private final Histogram holdTimeMillis = new Histogram();
+    private final Histogram activeOnBorrow = new Histogram();
+    private final Histogram idleOnBorrow = new Histogram();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong leaksDetected = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+    
+    /**
+     * @param factory фабрика физических соединений
+     * @param maxSize максимальное число соединений
+     * @param minIdle число простаивающих соединений, которые не вытесняются
+     * @param acquireTimeoutMs максимальное время ожидания свободного соединения
+     * @param idleTimeoutMs время простоя, после которого соединение закрывается
+     * @param leakThresholdMs время удержания, после которого соединение считается утёкшим (0 - отключено)
+     * @param validationTimeoutSeconds таймаут проверки соединения при выдаче
+     * @param statementCacheSize число подготовленных запросов, кэшируемых на одно соединение (0 - без кэша)
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, int minIdle, long acquireTimeoutMs,
+                          long idleTimeoutMs, long leakThresholdMs, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным");
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, Math.min(idleTimeoutMs, leakThresholdMs > 0 ? leakThresholdMs : idleTimeoutMs) / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Получение соединения из пула
+     * Соединение необходимо закрыть (close) для возврата в пул
+     * @return соединение
+     * @throws SQLTimeoutException если свободное соединение не появилось за acquireTimeoutMs
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Пул соединений закрыт");
+        }
+        
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Не удалось получить соединение из пула за " + acquireTimeoutMs +
+                        " мс (активно: " + leased.size() + ", максимум: " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание соединения прервано");
+        }
+        
+        try {
+            idleOnBorrow.record(idle.size());
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = createPooled();
+            }
+            
+            Connection connection = pooled.lease(leakThresholdMs > 0);
+            leased.add(pooled);
+            borrowed.incrementAndGet();
+            waitTimeMicros.record((System.nanoTime() - start) / 1000);
+            activeOnBorrow.record(leased.size());
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Возврат соединения в пул (вызывается прокси при close)
+     */
+    void release(PooledConnection pooled) {
+        if (!leased.remove(pooled)) {
+            return;
+        }
+        holdTimeMillis.record(System.currentTimeMillis() - pooled.getLeasedAt());
+        
+        if (!closed && pooled.reset()) {
+            pooled.markReturned();
+            idle.offerFirst(pooled);
+        } else {
+            destroy(pooled);
+        }
+        permits.release();
+    }
+    
+    /**
+     * Закрытие пула и всех простаивающих соединений
+     * Выданные соединения закрываются при возврате
+     */
+    public void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+    
+    /**
+     * Снимок метрик пула
+     * @return карта с показателями
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("maxSize", maxSize);
+        metrics.put("active", leased.size());
+        metrics.put("idle", idle.size());
+        metrics.put("waiting", permits.getQueueLength());
+        metrics.put("borrowed", borrowed.get());
+        metrics.put("created", created.get());
+        metrics.put("destroyed", destroyed.get());
+        metrics.put("timeouts", timeouts.get());
+        metrics.put("validationFailures", validationFailures.get());
+        metrics.put("idleEvictions", idleEvictions.get());
+        metrics.put("leaksDetected", leaksDetected.get());
+        
+        Map<String, Object> statements = new LinkedHashMap<>();
+        long hits = statementHits.get();
+        long misses = statementMisses.get();
+        statements.put("sizePerConnection", statementCacheSize);
+        statements.put("hits", hits);
+        statements.put("misses", misses);
+        statements.put("evictions", statementEvictions.get());
+        statements.put("hitRatio", hits + misses == 0 ? 0.0 : Math.round(hits * 1000.0 / (hits + misses)) / 1000.0);
+        metrics.put("statementCache", statements);
+        
+        metrics.put("waitTimeMicros", waitTimeMicros.toMap());
+        metrics.put("holdTimeMillis", holdTimeMillis.toMap());
+        metrics.put("activeOnBorrow", activeOnBorrow.toMap());
+        metrics.put("idleOnBorrow", idleOnBorrow.toMap());
+        return metrics;
+    }
+    
+    void recordStatementHit() {
+        statementHits.incrementAndGet();
+    }
+    
+    void recordStatementMiss() {
+        statementMisses.incrementAndGet();
+    }
+    
+    void recordStatementEviction() {
+        statementEvictions.incrementAndGet();
+    }
+    
+    private PooledConnection takeIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            boolean recentlyUsed = System.currentTimeMillis() - pooled.getLastReturnedAt() < VALIDATION_BYPASS_MS;
+            if (recentlyUsed || pooled.isValid(validationTimeoutSeconds)) {
+                return pooled;
+            }
+            validationFailures.incrementAndGet();
+            destroy(pooled);
+        }
+        return null;
+    }
+    
+    private PooledConnection createPooled() throws SQLException {
+        PooledConnection pooled = new PooledConnection(this, factory.create(), statementCacheSize);
+        created.incrementAndGet();
+        return pooled;
+    }
+    
+    private void destroy(PooledConnection pooled) {
+        pooled.closePhysical();
+        destroyed.incrementAndGet();
+    }
+    
+    /**
+     * Периодическое обслуживание: вытеснение простаивающих соединений и поиск утечек
+     */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        
+        if (idleTimeoutMs > 0) {
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection pooled = it.next();
+                if (now - pooled.getLastReturnedAt() > idleTimeoutMs && idle.remove(pooled)) {
+                    idleEvictions.incrementAndGet();
+                    destroy(pooled);
+                }
+            }
+        }
+        
+        if (leakThresholdMs > 0) {
+            for (PooledConnection pooled : leased) {
+                long heldFor = now - pooled.getLeasedAt();
+                if (heldFor > leakThresholdMs && !pooled.isLeakReported()) {
+                    pooled.setLeakReported(true);
+                    leaksDetected.incrementAndGet();
+                    System.err.println("Возможная утечка соединения: удерживается " + heldFor + " мс");
+                    Throwable stack = pooled.getLeaseStack();
+                    if (stack != null) {
+                        stack.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
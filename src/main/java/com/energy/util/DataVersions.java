@@ -0,0 +1,69 @@
+package com.energy.util;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Версии данных пользователей для условных GET запросов
+ * Версия пользователя увеличивается после каждой записи его данных (приборы, группы, тарифы, показания).
+ * Счётчики хранятся в памяти и начинаются с момента запуска, поэтому ETag, выданные до перезапуска,
+ * после него не совпадут. Версию нужно увеличивать после фиксации транзакции, иначе ответ
+ * со старыми данными может получить новую версию
+ */
+public class DataVersions {
+    
+    // Общая эпоха: меняется при запуске и при массовом пересчёте данных
+    private static final AtomicLong EPOCH = new AtomicLong(System.currentTimeMillis());
+    
+    private static final Map<Integer, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private DataVersions() {}
+    
+    /**
+     * Текущая версия данных пользователя
+     */
+    public static long get(int userId) {
+        AtomicLong version = VERSIONS.get(userId);
+        return version != null ? version.get() : 0;
+    }
+    
+    /**
+     * Отметка изменения данных пользователя
+     * Готовые ответы пользователя в ResponseCache сбрасываются сразу, не дожидаясь вытеснения
+     */
+    public static void bump(int userId) {
+        VERSIONS.computeIfAbsent(userId, id -> new AtomicLong()).incrementAndGet();
+        ResponseCache.invalidate(userId);
+    }
+    
+    /**
+     * Отметка изменения данных всех пользователей (например, после пересчёта агрегатов)
+     */
+    public static void bumpAll() {
+        EPOCH.incrementAndGet();
+        ResponseCache.clear();
+    }
+    
+    /**
+     * Слабый ETag для ответа по данным пользователя
+     * Ответы, зависящие от текущей даты или часа, включают их в ETag, чтобы устаревать вместе с ними
+     * @param userId ID пользователя
+     * @param hourly true если ответ зависит от текущего часа (действующий тариф)
+     */
+    public static String etag(int userId, boolean hourly) {
+        LocalDateTime now = LocalDateTime.now();
+        StringBuilder sb = new StringBuilder(48);
+        sb.append("W/\"").append(userId).append('.').append(Long.toHexString(EPOCH.get()))
+          .append('.').append(get(userId)).append('-');
+        sb.append(now.getYear() * 10000 + now.getMonthValue() * 100 + now.getDayOfMonth());
+        if (hourly) {
+            sb.append('T').append(now.getHour());
+        }
+        return sb.append('"').toString();
+    }
+}
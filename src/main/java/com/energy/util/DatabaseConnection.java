@@ -11,11 +11,23 @@ import java.sql.SQLException;
 public class DatabaseConnection {
     
     // Параметры подключения к базе данных
-    private static final String URL = "jdbc:mysql://localhost:3307/energy_analysis?useSSL=false&serverTimezone=UTC&characterEncoding=UTF-8";
+    private static final String URL = "jdbc:mysql://localhost:3307/energy_analysis?useSSL=false&serverTimezone=UTC&characterEncoding=UTF-8" +
+            "&useServerPrepStmts=true&useCursorFetch=true&rewriteBatchedStatements=true";
     private static final String USERNAME = "root";
     private static final String PASSWORD = "0000"; // Укажите ваш пароль MySQL
     
+    // Параметры пула соединений (переопределяются системными свойствами)
+    private static final int POOL_MAX_SIZE = Integer.getInteger("energy.db.pool.maxSize", 10);
+    private static final int POOL_MIN_IDLE = Integer.getInteger("energy.db.pool.minIdle", 2);
+    private static final long POOL_ACQUIRE_TIMEOUT_MS = Long.getLong("energy.db.pool.acquireTimeoutMs", 5000);
+    private static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("energy.db.pool.idleTimeoutMs", 10 * 60 * 1000);
+    // Поиск утечек снимает стек при каждой выдаче соединения - включается явно (0 - отключён)
+    private static final long POOL_LEAK_THRESHOLD_MS = Long.getLong("energy.db.pool.leakThresholdMs", 0);
+    private static final int POOL_VALIDATION_TIMEOUT_SEC = Integer.getInteger("energy.db.pool.validationTimeoutSec", 2);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("energy.db.pool.statementCacheSize", 64);
+    
     private static Connection connection = null;
+    private static volatile ConnectionPool pool = null;
     
     /**
      * Приватный конструктор для предотвращения создания экземпляров
@@ -54,7 +66,48 @@ public class DatabaseConnection {
     }
     
     /**
-     * Создание нового подключения (для многопоточности)
+     * Получение соединения из общего пула
+     * Закрытие соединения возвращает его в пул
+     * @return соединение из пула
+     * @throws SQLException при ошибке подключения или таймауте ожидания
+     */
+    public static Connection getPooledConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+    
+    /**
+     * Получение общего пула соединений (создаётся при первом обращении)
+     * @return пул соединений
+     */
+    public static ConnectionPool getPool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (DatabaseConnection.class) {
+                current = pool;
+                if (current == null) {
+                    current = new ConnectionPool(DatabaseConnection::createNewConnection,
+                            POOL_MAX_SIZE, POOL_MIN_IDLE, POOL_ACQUIRE_TIMEOUT_MS,
+                            POOL_IDLE_TIMEOUT_MS, POOL_LEAK_THRESHOLD_MS, POOL_VALIDATION_TIMEOUT_SEC,
+                            STATEMENT_CACHE_SIZE);
+                    pool = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Закрытие пула соединений (при остановке приложения)
+     */
+    public static synchronized void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    /**
+     * Создание нового физического подключения (используется пулом)
      * @return новое подключение к БД
      * @throws SQLException при ошибке подключения
      */
@@ -0,0 +1,54 @@
+package com.energy.util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Утилитарный класс для условных GET запросов (ETag / If-None-Match)
+ */
+public class ETags {
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private ETags() {}
+    
+    /**
+     * Установка ETag и ответ 304, если у клиента актуальная версия
+     * Клиент обязан перепроверять ответ при каждом использовании (no-cache)
+     * @return true если отправлен ответ 304 и тело писать не нужно
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Проверка заголовка If-None-Match (слабое сравнение, как требует RFC 7232 для GET)
+     * @param ifNoneMatch значение заголовка (может быть null)
+     * @param etag текущий ETag ресурса
+     * @return true если у клиента актуальная версия и можно ответить 304
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String current = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if ("*".equals(tag) || stripWeak(tag).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,45 @@
+package com.energy.util;
+
+/**
+ * Утилитарный класс для работы с датами в виде номера дня от 1970-01-01
+ * Позволяет форматировать даты без создания объектов LocalDate/Date
+ */
+public class EpochDays {
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private EpochDays() {}
+    
+    /**
+     * Запись даты в формате ISO (YYYY-MM-DD)
+     * @param sb буфер
+     * @param epochDay день от 1970-01-01
+     * @return тот же буфер
+     */
+    public static StringBuilder appendIsoDate(StringBuilder sb, int epochDay) {
+        // Алгоритм civil_from_days (Howard Hinnant)
+        long z = epochDay + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        
+        if (year >= 0 && year < 1000) {
+            sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        }
+        sb.append(year).append('-');
+        if (month < 10) {
+            sb.append('0');
+        }
+        sb.append(month).append('-');
+        if (day < 10) {
+            sb.append('0');
+        }
+        return sb.append(day);
+    }
+}
@@ -0,0 +1,132 @@
+package com.energy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Группа независимых запросов, выполняемых параллельно
+ * Все запросы группы ограничены общим сроком; при ошибке одного из них
+ * или истечении срока остальные отменяются вместе с выполняющимися SQL-запросами
+ */
+public class FanOut implements AutoCloseable {
+    
+    /**
+     * Задача группы
+     * @param <T> тип результата
+     */
+    public static class Task<T> {
+        private final Future<T> future;
+        
+        private Task(Future<T> future) {
+            this.future = future;
+        }
+        
+        /**
+         * Результат задачи (доступен после {@link FanOut#awaitAll()})
+         */
+        public T get() throws Exception {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+    
+    private final ExecutorCompletionService<Object> completion;
+    private final long deadlineNanos;
+    private final long deadlineMs;
+    private final QueryScope scope = new QueryScope();
+    private final List<Future<?>> futures = new ArrayList<>();
+    
+    FanOut(ExecutorService executor, long deadlineMs) {
+        this.completion = new ExecutorCompletionService<>(executor);
+        this.deadlineMs = deadlineMs;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    }
+    
+    /**
+     * Запуск задачи
+     * @param callable вычисление (обычно вызов DAO)
+     * @return задача для получения результата
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Task<T> submit(Callable<T> callable) {
+        Future<Object> future = completion.submit(() -> {
+            scope.enter();
+            try {
+                return callable.call();
+            } finally {
+                scope.exit();
+            }
+        });
+        futures.add(future);
+        return new Task<>((Future<T>) (Future<?>) future);
+    }
+    
+    /**
+     * Ожидание завершения всех задач
+     * @throws TimeoutException если срок группы истёк
+     * @throws Exception первая ошибка одной из задач
+     */
+    public void awaitAll() throws Exception {
+        for (int remaining = futures.size(); remaining > 0; remaining--) {
+            long waitNanos = deadlineNanos - System.nanoTime();
+            Future<Object> done = waitNanos > 0 ? completion.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+            
+            if (done == null) {
+                cancel();
+                throw new TimeoutException("Превышено время выполнения запросов (" + deadlineMs + " мс)");
+            }
+            
+            try {
+                done.get();
+            } catch (ExecutionException e) {
+                cancel();
+                throw unwrap(e);
+            } catch (CancellationException e) {
+                cancel();
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Отмена незавершённых задач и их SQL-запросов
+     */
+    public void cancel() {
+        scope.cancel();
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+    
+    @Override
+    public void close() {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                cancel();
+                return;
+            }
+        }
+    }
+    
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+}
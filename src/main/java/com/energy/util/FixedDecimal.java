@@ -0,0 +1,60 @@
+package com.energy.util;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Утилитарный класс для форматирования чисел с фиксированным числом знаков после запятой
+ * Заменяет String.format("%.Nf") в горячих циклах: не разбирает шаблон и не создаёт объектов
+ */
+public class FixedDecimal {
+    
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    
+    // Значения, при которых value * 10^scale может не поместиться в long без потери точности
+    private static final double FAST_PATH_LIMIT = 1e15;
+    
+    // Тот же разделитель, что использует String.format с локалью по умолчанию
+    private static final char DECIMAL_SEPARATOR =
+            DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private FixedDecimal() {}
+    
+    /**
+     * Запись числа с округлением до scale знаков (половина округляется вверх)
+     * @param sb буфер
+     * @param value значение
+     * @param scale число знаков после запятой (0-9)
+     * @return тот же буфер
+     */
+    public static StringBuilder append(StringBuilder sb, double value, int scale) {
+        if (scale < 0 || scale >= POW10.length) {
+            throw new IllegalArgumentException("Недопустимое число знаков: " + scale);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= FAST_PATH_LIMIT) {
+            return sb.append(String.format("%." + scale + "f", value));
+        }
+        
+        long scaled = Math.round(Math.abs(value) * POW10[scale]);
+        if (value < 0) {
+            sb.append('-');
+        }
+        sb.append(scaled / POW10[scale]);
+        
+        if (scale > 0) {
+            long fraction = scaled % POW10[scale];
+            sb.append(DECIMAL_SEPARATOR);
+            // Ведущие нули дробной части
+            for (long p = POW10[scale - 1]; p > 1 && fraction < p; p /= 10) {
+                sb.append('0');
+            }
+            sb.append(fraction);
+        }
+        return sb;
+    }
+}
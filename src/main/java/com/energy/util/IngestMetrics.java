@@ -0,0 +1,65 @@
+package com.energy.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Метрики пакетной загрузки показаний
+ */
+public class IngestMetrics {
+    
+    private static final AtomicLong BATCHES = new AtomicLong();
+    private static final AtomicLong FAILED_BATCHES = new AtomicLong();
+    private static final AtomicLong ACCEPTED = new AtomicLong();
+    private static final AtomicLong REJECTED = new AtomicLong();
+    private static final Histogram BATCH_SIZE = new Histogram();
+    private static final Histogram DURATION_MILLIS = new Histogram();
+    private static final Histogram ROWS_PER_SECOND = new Histogram();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private IngestMetrics() {}
+    
+    /**
+     * Учёт записанного пакета
+     * @param accepted количество записанных показаний
+     * @param rejected количество отклонённых при проверке показаний
+     * @param startNanos время начала обработки (System.nanoTime)
+     */
+    public static void recordBatch(int accepted, int rejected, long startNanos) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        BATCHES.incrementAndGet();
+        ACCEPTED.addAndGet(accepted);
+        REJECTED.addAndGet(rejected);
+        BATCH_SIZE.record(accepted + rejected);
+        DURATION_MILLIS.record(elapsedNanos / 1_000_000);
+        ROWS_PER_SECOND.record(accepted * 1_000_000_000L / elapsedNanos);
+    }
+    
+    /**
+     * Учёт пакета, который не удалось записать
+     * @param size количество показаний в пакете
+     */
+    public static void recordFailure(int size) {
+        FAILED_BATCHES.incrementAndGet();
+        REJECTED.addAndGet(size);
+    }
+    
+    /**
+     * Снимок метрик
+     * @return карта с показателями
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("batches", BATCHES.get());
+        metrics.put("failedBatches", FAILED_BATCHES.get());
+        metrics.put("accepted", ACCEPTED.get());
+        metrics.put("rejected", REJECTED.get());
+        metrics.put("batchSize", BATCH_SIZE.toMap());
+        metrics.put("durationMillis", DURATION_MILLIS.toMap());
+        metrics.put("rowsPerSecond", ROWS_PER_SECOND.toMap());
+        return metrics;
+    }
+}
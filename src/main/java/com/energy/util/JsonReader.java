@@ -0,0 +1,496 @@
+package com.energy.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Потоковый разбор JSON за один проход без регулярных выражений
+ * Читает напрямую из Reader через собственный буфер. Предоставляет pull-интерфейс
+ * (peek/next...) для поэлементной обработки больших массивов и readValue() для разбора
+ * значения целиком. Поддерживает несколько значений верхнего уровня подряд (NDJSON)
+ */
+public class JsonReader {
+    
+    /**
+     * Тип следующего элемента
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+    
+    /**
+     * Ошибка синтаксиса JSON
+     */
+    public static class SyntaxException extends IOException {
+        public SyntaxException(String message) {
+            super(message);
+        }
+    }
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    // Предельная вложенность: readValue/readObject рекурсивны, глубокий ввод не должен переполнять стек
+    private static final int MAX_DEPTH = 64;
+    
+    // Состояния вложенных контейнеров
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private long consumed;
+    
+    private int[] stack = new int[16];
+    private int depth;
+    
+    // Разобранный, но ещё не выданный элемент
+    private Token peeked;
+    private final StringBuilder text = new StringBuilder();
+    private boolean integral;
+    
+    /**
+     * @param in источник JSON
+     */
+    public JsonReader(Reader in) {
+        this.in = in;
+    }
+    
+    /**
+     * Тип следующего элемента без его извлечения
+     */
+    public Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = advance();
+        }
+        return peeked;
+    }
+    
+    /**
+     * Есть ли ещё элементы в текущем массиве или объекте
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+    
+    /**
+     * Есть ли ещё значение верхнего уровня (для NDJSON)
+     */
+    public boolean hasNextDocument() throws IOException {
+        if (depth > 0) {
+            throw syntaxError("Предыдущее значение не дочитано");
+        }
+        return peek() != Token.END_DOCUMENT;
+    }
+    
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+    
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+    
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+    
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+    
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return text.toString();
+    }
+    
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("Ожидалась строка, получено " + token);
+        }
+        peeked = null;
+        return text.toString();
+    }
+    
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return text.charAt(0) == 't';
+    }
+    
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+    
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError("Ожидалось число, получено " + token);
+        }
+        peeked = null;
+        try {
+            return Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Некорректное число: " + text);
+        }
+    }
+    
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw syntaxError("Ожидалось число, получено " + token);
+        }
+        peeked = null;
+        try {
+            return Long.parseLong(text.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Ожидалось целое число: " + text);
+        }
+    }
+    
+    /**
+     * Число в естественном типе: Integer, Long если не помещается в int, Double для дробных
+     */
+    public Number nextNumber() throws IOException {
+        expect(Token.NUMBER);
+        return toNumber();
+    }
+    
+    /**
+     * Пропуск следующего значения вместе с вложенными элементами
+     */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    level++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    level++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    level--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Неожиданный конец данных");
+                default:
+                    break;
+            }
+        } while (level > 0);
+    }
+    
+    /**
+     * Разбор следующего значения целиком
+     * @return Map (с сохранением порядка полей), List, String, Number, Boolean или null
+     */
+    public Object readValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                return readObject();
+            case BEGIN_ARRAY:
+                beginArray();
+                List<Object> list = new ArrayList<>();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Ожидалось значение, получено " + peek());
+        }
+    }
+    
+    /**
+     * Разбор следующего объекта целиком
+     */
+    public Map<String, Object> readObject() throws IOException {
+        beginObject();
+        Map<String, Object> map = new LinkedHashMap<>();
+        while (hasNext()) {
+            String name = nextName();
+            map.put(name, readValue());
+        }
+        endObject();
+        return map;
+    }
+    
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Ожидалось " + expected + ", получено " + token);
+        }
+        peeked = null;
+    }
+    
+    private void push(int state) throws SyntaxException {
+        if (depth == MAX_DEPTH) {
+            throw syntaxError("Превышена вложенность " + MAX_DEPTH);
+        }
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = state;
+    }
+    
+    private Number toNumber() throws SyntaxException {
+        String number = text.toString();
+        try {
+            if (integral) {
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            if (integral && number.matches("-?\\d+")) {
+                // Целое, не помещающееся в long
+                return Double.parseDouble(number);
+            }
+            throw syntaxError("Некорректное число: " + number);
+        }
+    }
+    
+    /**
+     * Разбор следующего элемента с учётом разделителей текущего контейнера
+     */
+    private Token advance() throws IOException {
+        int state = depth > 0 ? stack[depth - 1] : 0;
+        int c = nextNonWhitespace();
+        
+        switch (state) {
+            case EMPTY_ARRAY:
+            case NONEMPTY_ARRAY:
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                if (state == NONEMPTY_ARRAY) {
+                    if (c != ',') {
+                        throw syntaxError("Ожидалась ',' или ']'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                return readValueToken(c);
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (state == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Ожидалась ',' или '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Ожидалось имя поля");
+                }
+                readString();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Ожидалось ':'");
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                return Token.NAME;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return readValueToken(c);
+            default:
+                if (c == -1) {
+                    return Token.END_DOCUMENT;
+                }
+                return readValueToken(c);
+        }
+    }
+    
+    private Token readValueToken(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                readString();
+                return Token.STRING;
+            case 't':
+                readKeyword("true");
+                return Token.BOOLEAN;
+            case 'f':
+                readKeyword("false");
+                return Token.BOOLEAN;
+            case 'n':
+                readKeyword("null");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Неожиданный конец данных");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Неожиданный символ '" + (char) c + "'");
+        }
+    }
+    
+    private void readKeyword(String keyword) throws IOException {
+        for (int i = 1; i < keyword.length(); i++) {
+            if (read() != keyword.charAt(i)) {
+                throw syntaxError("Ожидалось " + keyword);
+            }
+        }
+        text.setLength(0);
+        text.append(keyword);
+    }
+    
+    private void readNumber(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        integral = true;
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                text.append(c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+                text.append(c);
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (text.length() == 1 && first == '-') {
+            throw syntaxError("Некорректное число");
+        }
+    }
+    
+    /**
+     * Чтение строки после открывающей кавычки; неэкранированные участки копируются из буфера целиком
+     */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"') {
+                    text.append(buffer, start, pos - start);
+                    pos++;
+                    return;
+                }
+                if (c == '\\') {
+                    text.append(buffer, start, pos - start);
+                    pos++;
+                    text.append(readEscape());
+                    start = pos;
+                    continue;
+                }
+                if (c < 0x20) {
+                    throw syntaxError("Управляющий символ в строке");
+                }
+                pos++;
+            }
+            text.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Незакрытая строка");
+            }
+        }
+    }
+    
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int h = Character.digit(read(), 16);
+                    if (h < 0) {
+                        throw syntaxError("Некорректная escape-последовательность \\u");
+                    }
+                    value = (value << 4) | h;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Некорректная escape-последовательность");
+        }
+    }
+    
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+    
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+    
+    private boolean fill() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) == 0) {
+            // Reader может вернуть 0 символов - повторяем
+        }
+        if (n < 0) {
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+    
+    private SyntaxException syntaxError(String message) {
+        return new SyntaxException(message + " (позиция " + (consumed + pos) + ")");
+    }
+}
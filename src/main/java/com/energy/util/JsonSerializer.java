@@ -0,0 +1,16 @@
+package com.energy.util;
+
+import java.io.IOException;
+
+/**
+ * Типизированная запись объекта в JSON напрямую через JsonWriter, без промежуточной Map
+ * @param <T> тип сериализуемого объекта
+ */
+@FunctionalInterface
+public interface JsonSerializer<T> {
+    
+    /**
+     * Запись объекта целиком (включая фигурные скобки)
+     */
+    void write(JsonWriter json, T value) throws IOException;
+}
@@ -1,9 +1,13 @@
 package com.energy.util;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.HashMap;
 import java.util.ArrayList;
 
@@ -13,27 +17,49 @@ import java.util.ArrayList;
  */
 public class JsonUtil {
     
+    /**
+     * Потоковая запись значения в JSON (Map, List, строки, числа, логические значения)
+     * @param out поток для записи
+     * @param value значение
+     */
+    public static void writeJson(Writer out, Object value) throws IOException {
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.value(value);
+        }
+    }
+    
+    /**
+     * Потоковая запись объекта через типизированный сериализатор
+     * @param out поток для записи
+     * @param value объект (null записывается как null)
+     * @param serializer сериализатор
+     */
+    public static <T> void writeJson(Writer out, T value, JsonSerializer<? super T> serializer) throws IOException {
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.value(value, serializer);
+        }
+    }
+    
+    /**
+     * Потоковая запись списка объектов в JSON массив через типизированный сериализатор
+     * @param out поток для записи
+     * @param values объекты
+     * @param serializer сериализатор
+     */
+    public static <T> void writeJsonArray(Writer out, Iterable<? extends T> values,
+                                          JsonSerializer<? super T> serializer) throws IOException {
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.array(values, serializer);
+        }
+    }
+    
     /**
      * Преобразование Map в JSON строку
      * @param map карта для преобразования
      * @return JSON строка
      */
     public static String toJson(Map<String, Object> map) {
-        StringBuilder json = new StringBuilder("{");
-        boolean first = true;
-        
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            if (!first) {
-                json.append(",");
-            }
-            first = false;
-            
-            json.append("\"").append(escapeJson(entry.getKey())).append("\":");
-            json.append(valueToJson(entry.getValue()));
-        }
-        
-        json.append("}");
-        return json.toString();
+        return toJsonString(map);
     }
     
     /**
@@ -42,109 +68,77 @@ public class JsonUtil {
      * @return JSON строка массива
      */
     public static String toJsonArray(List<Map<String, Object>> list) {
-        StringBuilder json = new StringBuilder("[");
-        boolean first = true;
-        
-        for (Map<String, Object> item : list) {
-            if (!first) {
-                json.append(",");
-            }
-            first = false;
-            json.append(toJson(item));
+        return toJsonString(list);
+    }
+    
+    private static String toJsonString(Object value) {
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(sw, value);
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new UncheckedIOException(e);
         }
-        
-        json.append("]");
-        return json.toString();
+        return sw.toString();
     }
     
     /**
-     * Преобразование значения в JSON формат
-     * @param value значение для преобразования
-     * @return JSON представление значения
+     * Парсинг JSON строки в Map
+     * @param json JSON строка
+     * @return Map с данными (пустая, если строка не является корректным JSON объектом)
      */
-    private static String valueToJson(Object value) {
-        if (value == null) {
-            return "null";
-        } else if (value instanceof String) {
-            return "\"" + escapeJson((String) value) + "\"";
-        } else if (value instanceof Number) {
-            return value.toString();
-        } else if (value instanceof Boolean) {
-            return value.toString();
-        } else if (value instanceof Map) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> map = (Map<String, Object>) value;
-            return toJson(map);
-        } else if (value instanceof List) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> list = (List<Map<String, Object>>) value;
-            return toJsonArray(list);
-        } else {
-            return "\"" + escapeJson(value.toString()) + "\"";
+    public static Map<String, Object> parseJson(String json) {
+        if (json == null) {
+            return new HashMap<>();
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                return reader.readObject();
+            }
+        } catch (IOException e) {
+            // Некорректный JSON
         }
+        return new HashMap<>();
     }
     
     /**
-     * Экранирование специальных символов JSON
-     * @param str строка для экранирования
-     * @return экранированная строка
+     * Парсинг JSON объекта непосредственно из потока (без буферизации всего тела запроса)
+     * @param in источник JSON
+     * @return Map с данными (пустая для пустого тела)
+     * @throws JsonReader.SyntaxException если тело не является JSON объектом
      */
-    private static String escapeJson(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+    public static Map<String, Object> parseJson(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        if (reader.peek() == JsonReader.Token.END_DOCUMENT) {
+            return new HashMap<>();
+        }
+        return reader.readObject();
     }
     
     /**
-     * Парсинг JSON строки в Map
-     * @param json JSON строка
-     * @return Map с данными
+     * Парсинг JSON массива объектов
+     * @param json JSON строка массива
+     * @return список Map (пустой, если строка не является корректным массивом; элементы-не объекты пропускаются)
      */
-    public static Map<String, Object> parseJson(String json) {
-        Map<String, Object> result = new HashMap<>();
-        if (json == null || json.trim().isEmpty()) {
+    @SuppressWarnings("unchecked")
+    public static List<Map<String, Object>> parseJsonArray(String json) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (json == null) {
             return result;
         }
-        
-        json = json.trim();
-        if (!json.startsWith("{") || !json.endsWith("}")) {
-            return result;
-        }
-        
-        json = json.substring(1, json.length() - 1).trim();
-        
-        // Простой парсер для плоских JSON объектов
-        Pattern pattern = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(\"[^\"]*\"|[-]?\\d+\\.?\\d*|true|false|null)");
-        Matcher matcher = pattern.matcher(json);
-        
-        while (matcher.find()) {
-            String key = matcher.group(1);
-            String value = matcher.group(2);
-            
-            if (value.startsWith("\"") && value.endsWith("\"")) {
-                // Строка - проверяем, может это число в кавычках
-                String strValue = value.substring(1, value.length() - 1);
-                result.put(key, strValue);
-            } else if (value.equals("true")) {
-                result.put(key, true);
-            } else if (value.equals("false")) {
-                result.put(key, false);
-            } else if (value.equals("null") || value.isEmpty()) {
-                result.put(key, null);
-            } else if (value.contains(".")) {
-                result.put(key, Double.parseDouble(value));
-            } else {
-                try {
-                    result.put(key, Integer.parseInt(value));
-                } catch (NumberFormatException e) {
-                    result.put(key, value);
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                for (Object item : (List<Object>) reader.readValue()) {
+                    if (item instanceof Map) {
+                        result.add((Map<String, Object>) item);
+                    }
                 }
             }
+        } catch (IOException e) {
+            // Некорректный JSON
         }
-        
         return result;
     }
     
@@ -174,6 +168,28 @@ public class JsonUtil {
         return toJson(response);
     }
     
+    /**
+     * Создание JSON ответа об успехе с объектом, записанным типизированным сериализатором
+     * @param message сообщение
+     * @param data данные
+     * @param serializer сериализатор данных
+     * @return JSON строка
+     */
+    public static <T> String successResponse(String message, T data, JsonSerializer<? super T> serializer) {
+        StringWriter sw = new StringWriter();
+        try (JsonWriter json = new JsonWriter(sw)) {
+            json.beginObject()
+                .name("success").value(true)
+                .name("message").value(message)
+                .name("data").value(data, serializer)
+                .endObject();
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString();
+    }
+    
     /**
      * Создание JSON ответа об ошибке
      * @param message сообщение об ошибке
@@ -0,0 +1,423 @@
+package com.energy.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Потоковая запись JSON без промежуточных строк
+ * Токены пишутся в буфер символов, который сбрасывается в Writer по заполнении.
+ * Буфер берётся из пула потока и возвращается при close(), поэтому типичный ответ
+ * не выделяет памяти, кроме самих данных
+ */
+public class JsonWriter implements AutoCloseable {
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    // Буфер потока; null пока он занят другим JsonWriter того же потока
+    private static final ThreadLocal<char[]> BUFFERS = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] NULL = "null".toCharArray();
+    private static final char[] TRUE = "true".toCharArray();
+    private static final char[] FALSE = "false".toCharArray();
+    private static final char[] MIN_LONG = Long.toString(Long.MIN_VALUE).toCharArray();
+    
+    // Диапазон, в котором Double.toString не переходит на экспоненциальную запись
+    private static final double PLAIN_MIN = 1e-3;
+    private static final double PLAIN_MAX = 1e7;
+    private static final double FRACTION_SCALE = 1e6;
+    private static final int FRACTION_DIGITS = 6;
+    
+    private final Writer out;
+    private final char[] buffer;
+    private final boolean pooled;
+    private int pos;
+    
+    // Для каждого уровня вложенности: был ли уже записан элемент
+    private boolean[] hasElements = new boolean[16];
+    private int depth;
+    private boolean afterName;
+    
+    /**
+     * @param out поток для записи (не закрывается при close)
+     */
+    public JsonWriter(Writer out) {
+        this.out = out;
+        char[] own = BUFFERS.get();
+        if (own != null) {
+            BUFFERS.set(null);
+            this.buffer = own;
+            this.pooled = true;
+        } else {
+            this.buffer = new char[BUFFER_SIZE];
+            this.pooled = false;
+        }
+    }
+    
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+    
+    public JsonWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+    
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+    
+    public JsonWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+    
+    /**
+     * Имя поля объекта
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+    
+    /**
+     * Имя поля, заранее закодированное через {@link #encodeName(String)}
+     */
+    public JsonWriter name(char[] encodedName) throws IOException {
+        separate();
+        write(encodedName, 0, encodedName.length);
+        afterName = true;
+        return this;
+    }
+    
+    /**
+     * Кодирование имени поля в готовый фрагмент {@code "name":} для многократной записи
+     */
+    public static char[] encodeName(String name) {
+        StringWriter sw = new StringWriter(name.length() + 3);
+        try (JsonWriter json = new JsonWriter(sw)) {
+            json.writeString(name);
+            json.write(':');
+        } catch (IOException e) {
+            // StringWriter не бросает IOException
+            throw new UncheckedIOException(e);
+        }
+        return sw.toString().toCharArray();
+    }
+    
+    public JsonWriter value(CharSequence value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+    
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+    
+    public JsonWriter value(double value) throws IOException {
+        beforeValue();
+        writeDouble(value);
+        return this;
+    }
+    
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        char[] token = value ? TRUE : FALSE;
+        write(token, 0, token.length);
+        return this;
+    }
+    
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        write(NULL, 0, NULL.length);
+        return this;
+    }
+    
+    /**
+     * Готовый фрагмент JSON (записывается без изменений)
+     */
+    public JsonWriter rawValue(CharSequence json) throws IOException {
+        beforeValue();
+        writeRaw(json);
+        return this;
+    }
+    
+    /**
+     * Запись объекта через типизированный сериализатор
+     */
+    public <T> JsonWriter value(T value, JsonSerializer<? super T> serializer) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        serializer.write(this, value);
+        return this;
+    }
+    
+    /**
+     * Запись массива объектов через типизированный сериализатор
+     */
+    public <T> JsonWriter array(Iterable<? extends T> values, JsonSerializer<? super T> serializer) throws IOException {
+        beginArray();
+        for (T value : values) {
+            value(value, serializer);
+        }
+        return endArray();
+    }
+    
+    /**
+     * Запись произвольного значения: строки, числа, логические значения, Map и коллекции
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof CharSequence) {
+            return value((CharSequence) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            return value(((Double) value).doubleValue());
+        } else if (value instanceof Number) {
+            beforeValue();
+            writeRaw(value.toString());
+            return this;
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof Collection) {
+            beginArray();
+            for (Object item : (Collection<?>) value) {
+                value(item);
+            }
+            return endArray();
+        } else {
+            return value(value.toString());
+        }
+    }
+    
+    /**
+     * Сброс накопленных символов в Writer
+     */
+    public void flush() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+    
+    /**
+     * Сброс буфера и возврат его в пул потока; Writer не закрывается
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (pooled) {
+                BUFFERS.set(buffer);
+            }
+        }
+    }
+    
+    private void push() {
+        if (depth == hasElements.length) {
+            hasElements = Arrays.copyOf(hasElements, depth * 2);
+        }
+        hasElements[depth++] = false;
+    }
+    
+    private void separate() throws IOException {
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                write(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+    
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+    
+    /**
+     * Экранирование за один проход: неизменяемые участки копируются целиком
+     */
+    private void writeString(CharSequence text) throws IOException {
+        write('"');
+        int length = text.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            writeRun(text, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"': write('\\'); write('"'); break;
+                case '\\': write('\\'); write('\\'); break;
+                case '\n': write('\\'); write('n'); break;
+                case '\r': write('\\'); write('r'); break;
+                case '\t': write('\\'); write('t'); break;
+                case '\b': write('\\'); write('b'); break;
+                case '\f': write('\\'); write('f'); break;
+                default:
+                    ensure(6);
+                    buffer[pos++] = '\\';
+                    buffer[pos++] = 'u';
+                    buffer[pos++] = '0';
+                    buffer[pos++] = '0';
+                    buffer[pos++] = HEX[c >> 4];
+                    buffer[pos++] = HEX[c & 0xF];
+            }
+        }
+        writeRun(text, runStart, length);
+        write('"');
+    }
+    
+    private void writeRun(CharSequence text, int from, int to) throws IOException {
+        while (from < to) {
+            if (pos == buffer.length) {
+                flush();
+            }
+            int n = Math.min(to - from, buffer.length - pos);
+            if (text instanceof String) {
+                ((String) text).getChars(from, from + n, buffer, pos);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    buffer[pos + i] = text.charAt(from + i);
+                }
+            }
+            pos += n;
+            from += n;
+        }
+    }
+    
+    private void writeRaw(CharSequence text) throws IOException {
+        writeRun(text, 0, text.length());
+    }
+    
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(MIN_LONG, 0, MIN_LONG.length);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        pos = end;
+    }
+    
+    /**
+     * Числа с не более чем шестью знаками после запятой в обычном диапазоне
+     * пишутся из целого представления без создания строк; результат совпадает с Double.toString.
+     * Остальные значения записываются через Double.toString, NaN и бесконечность - как null
+     */
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL, 0, NULL.length);
+            return;
+        }
+        
+        double abs = Math.abs(value);
+        if (abs == 0 || (abs >= PLAIN_MIN && abs < PLAIN_MAX)) {
+            double scaled = Math.rint(abs * FRACTION_SCALE);
+            if (scaled / FRACTION_SCALE == abs) {
+                long units = (long) scaled;
+                long integer = units / (long) FRACTION_SCALE;
+                long fraction = units % (long) FRACTION_SCALE;
+                
+                if (value < 0 || (value == 0 && 1 / value < 0)) {
+                    write('-');
+                }
+                writeLong(integer);
+                write('.');
+                if (fraction == 0) {
+                    write('0');
+                    return;
+                }
+                int digits = FRACTION_DIGITS;
+                while (fraction % 10 == 0) {
+                    fraction /= 10;
+                    digits--;
+                }
+                ensure(FRACTION_DIGITS);
+                for (int i = pos + digits - 1; i >= pos; i--) {
+                    buffer[i] = (char) ('0' + fraction % 10);
+                    fraction /= 10;
+                }
+                pos += digits;
+                return;
+            }
+        }
+        writeRaw(Double.toString(value));
+    }
+    
+    private void write(char c) throws IOException {
+        if (pos == buffer.length) {
+            flush();
+        }
+        buffer[pos++] = c;
+    }
+    
+    private void write(char[] chars, int offset, int length) throws IOException {
+        if (length > buffer.length - pos) {
+            flush();
+            if (length > buffer.length) {
+                out.write(chars, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, offset, buffer, pos, length);
+        pos += length;
+    }
+    
+    private void ensure(int length) throws IOException {
+        if (buffer.length - pos < length) {
+            flush();
+        }
+    }
+}
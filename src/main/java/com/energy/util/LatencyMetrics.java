@@ -0,0 +1,41 @@
+package com.energy.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Реестр гистограмм времени обработки запросов по обработчикам
+ */
+public class LatencyMetrics {
+    
+    private static final ConcurrentMap<String, Histogram> HANDLERS = new ConcurrentHashMap<>();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private LatencyMetrics() {}
+    
+    /**
+     * Запись времени обработки
+     * @param handler имя обработчика
+     * @param startNanos время начала (System.nanoTime)
+     */
+    public static void record(String handler, long startNanos) {
+        HANDLERS.computeIfAbsent(handler, k -> new Histogram())
+                .record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    /**
+     * Снимок гистограмм (в микросекундах) по всем обработчикам
+     * @return карта: обработчик -> сводка гистограммы
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : HANDLERS.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+}
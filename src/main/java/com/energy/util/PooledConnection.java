@@ -0,0 +1,367 @@
+package com.energy.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Физическое соединение, находящееся под управлением {@link ConnectionPool}
+ * Каждая выдача соединения из пула оборачивается в отдельный прокси-объект,
+ * у которого close() возвращает соединение в пул вместо закрытия сокета.
+ * Подготовленные запросы кэшируются на уровне физического соединения (LRU по тексту SQL),
+ * поэтому повторяющиеся запросы DAO разбираются сервером один раз на соединение
+ */
+class PooledConnection {
+    
+    private final ConnectionPool pool;
+    private final Connection physical;
+    private final long createdAt;
+    private final StatementCache statementCache;
+    
+    private volatile long lastReturnedAt;
+    private volatile long leasedAt;
+    private volatile Throwable leaseStack;
+    private volatile boolean leakReported;
+    
+    PooledConnection(ConnectionPool pool, Connection physical, int statementCacheSize) {
+        this.pool = pool;
+        this.physical = physical;
+        this.createdAt = System.currentTimeMillis();
+        this.lastReturnedAt = createdAt;
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+    }
+    
+    /**
+     * Выдача соединения клиенту
+     * @param captureStack сохранить стек вызова для обнаружения утечек
+     * @return прокси, закрытие которого вернёт соединение в пул
+     */
+    Connection lease(boolean captureStack) {
+        leasedAt = System.currentTimeMillis();
+        leaseStack = captureStack ? new Throwable("Соединение получено здесь") : null;
+        leakReported = false;
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                new Lease());
+    }
+    
+    /**
+     * Подготовка соединения к повторному использованию
+     * @return false если соединение непригодно и должно быть закрыто
+     */
+    boolean reset() {
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Проверка работоспособности соединения
+     * @param timeoutSeconds таймаут проверки
+     * @return true если соединение живо
+     */
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return physical.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    void closePhysical() {
+        if (statementCache != null) {
+            statementCache.closeAll();
+        }
+        try {
+            physical.close();
+        } catch (SQLException e) {
+            System.err.println("Ошибка при закрытии соединения: " + e.getMessage());
+        }
+    }
+    
+    void markReturned() {
+        lastReturnedAt = System.currentTimeMillis();
+        leaseStack = null;
+    }
+    
+    long getCreatedAt() {
+        return createdAt;
+    }
+    
+    long getLastReturnedAt() {
+        return lastReturnedAt;
+    }
+    
+    long getLeasedAt() {
+        return leasedAt;
+    }
+    
+    Throwable getLeaseStack() {
+        return leaseStack;
+    }
+    
+    boolean isLeakReported() {
+        return leakReported;
+    }
+    
+    void setLeakReported(boolean leakReported) {
+        this.leakReported = leakReported;
+    }
+    
+    /**
+     * Обработчик вызовов для одной выдачи соединения
+     */
+    private class Lease implements InvocationHandler {
+        
+        private boolean closed;
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            
+            switch (name) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        pool.release(PooledConnection.this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + "]";
+                default:
+                    break;
+            }
+            
+            if (closed) {
+                throw new SQLException("Соединение уже возвращено в пул");
+            }
+            
+            if (statementCache != null && "prepareStatement".equals(name) && isCacheable(args)) {
+                int autoGeneratedKeys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                return statementCache.prepare((Connection) proxy, (String) args[0], autoGeneratedKeys);
+            }
+            
+            try {
+                Object result = method.invoke(physical, args);
+                QueryScope scope = QueryScope.current();
+                if (scope != null && result instanceof Statement) {
+                    scope.register((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+    
+    /**
+     * Кэшируются только prepareStatement(sql) и prepareStatement(sql, autoGeneratedKeys);
+     * варианты с типом курсора или списком колонок передаются драйверу напрямую
+     */
+    private static boolean isCacheable(Object[] args) {
+        return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+    }
+    
+    /**
+     * LRU-кэш подготовленных запросов одного физического соединения
+     * Соединение используется одним потоком, но обращения синхронизированы
+     * на случай закрытия соединения из служебного потока пула
+     */
+    private class StatementCache {
+        
+        private final LinkedHashMap<String, CachedStatement> entries;
+        
+        StatementCache(int maxSize) {
+            this.entries = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > maxSize) {
+                        eldest.getValue().evict();
+                        pool.recordStatementEviction();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+        
+        synchronized PreparedStatement prepare(Connection owner, String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+            CachedStatement cached = entries.get(key);
+            
+            if (cached != null && !cached.inUse) {
+                pool.recordStatementHit();
+                return cached.checkout(owner);
+            }
+            
+            pool.recordStatementMiss();
+            PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                // Тот же запрос уже выполняется на этом соединении - отдаём некэшируемую копию
+                QueryScope scope = QueryScope.current();
+                if (scope != null) {
+                    scope.register(statement);
+                }
+                return statement;
+            }
+            
+            CachedStatement created = new CachedStatement(statement);
+            entries.put(key, created);
+            return created.checkout(owner);
+        }
+        
+        synchronized void closeAll() {
+            Iterator<CachedStatement> it = entries.values().iterator();
+            while (it.hasNext()) {
+                it.next().evict();
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Подготовленный запрос, переживающий логическое закрытие
+     */
+    private class CachedStatement {
+        
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+        
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+        
+        PreparedStatement checkout(Connection owner) {
+            inUse = true;
+            QueryScope scope = QueryScope.current();
+            if (scope != null) {
+                scope.register(statement);
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class},
+                    new StatementLease(this, owner, scope));
+        }
+        
+        /**
+         * Логическое закрытие: запрос остаётся подготовленным на сервере
+         */
+        void checkin() {
+            synchronized (statementCache) {
+                inUse = false;
+                if (evicted) {
+                    closeQuietly();
+                    return;
+                }
+                try {
+                    ResultSet rs = statement.getResultSet();
+                    if (rs != null) {
+                        rs.close();
+                    }
+                    statement.clearParameters();
+                    statement.clearWarnings();
+                } catch (SQLException e) {
+                    evicted = true;
+                    closeQuietly();
+                }
+            }
+        }
+        
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+        
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Соединение могло быть уже закрыто
+            }
+        }
+    }
+    
+    /**
+     * Обработчик вызовов для одной выдачи кэшированного запроса
+     */
+    private static class StatementLease implements InvocationHandler {
+        
+        private final CachedStatement cached;
+        private final Connection owner;
+        private final QueryScope scope;
+        private boolean closed;
+        
+        StatementLease(CachedStatement cached, Connection owner, QueryScope scope) {
+            this.cached = cached;
+            this.owner = owner;
+            this.scope = scope;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        if (scope != null) {
+                            // Закрытый запрос может быть выдан другому потоку - отменять его больше нельзя
+                            scope.unregister(cached.statement);
+                        }
+                        cached.checkin();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                default:
+                    break;
+            }
+            
+            if (closed) {
+                throw new SQLException("Запрос уже закрыт");
+            }
+            
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
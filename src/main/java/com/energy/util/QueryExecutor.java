@@ -0,0 +1,93 @@
+package com.energy.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Общий исполнитель для параллельного выполнения независимых запросов
+ * На Java 21+ использует виртуальные потоки, иначе - фиксированный пул потоков.
+ * Реальное число одновременных запросов к БД дополнительно ограничено пулом соединений
+ */
+public class QueryExecutor {
+    
+    private static final int PARALLELISM = Integer.getInteger("energy.query.parallelism", 8);
+    
+    private static volatile ExecutorService executor = null;
+    private static volatile String mode = null;
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private QueryExecutor() {}
+    
+    /**
+     * Создание группы параллельных запросов с общим сроком выполнения
+     * @param deadlineMs срок выполнения всей группы в миллисекундах
+     * @return группа запросов
+     */
+    public static FanOut fanOut(long deadlineMs) {
+        return new FanOut(getExecutor(), deadlineMs);
+    }
+    
+    /**
+     * Режим работы исполнителя: virtual или fixed
+     */
+    public static String getMode() {
+        getExecutor();
+        return mode;
+    }
+    
+    /**
+     * Остановка исполнителя (при остановке приложения)
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
+    private static ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (QueryExecutor.class) {
+                current = executor;
+                if (current == null) {
+                    current = createVirtualThreadExecutor();
+                    if (current != null) {
+                        mode = "virtual";
+                    } else {
+                        current = createFixedExecutor();
+                        mode = "fixed";
+                    }
+                    executor = current;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Исполнитель на виртуальных потоках (через рефлексию, т.к. проект собирается под Java 11)
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    private static ExecutorService createFixedExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(PARALLELISM, r -> {
+            Thread thread = new Thread(r, "query-executor-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
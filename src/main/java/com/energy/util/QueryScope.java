@@ -0,0 +1,74 @@
+package com.energy.util;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Область выполнения группы запросов
+ * Пока область привязана к потоку, пул соединений регистрирует в ней выдаваемые запросы,
+ * что позволяет отменить (Statement.cancel) все незавершённые запросы группы разом
+ */
+public class QueryScope {
+    
+    private static final ThreadLocal<QueryScope> CURRENT = new ThreadLocal<>();
+    
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+    
+    /**
+     * Текущая область потока
+     * @return область или null
+     */
+    static QueryScope current() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * Привязка области к текущему потоку
+     */
+    void enter() {
+        CURRENT.set(this);
+    }
+    
+    /**
+     * Отвязка области от текущего потока
+     */
+    void exit() {
+        CURRENT.remove();
+    }
+    
+    void register(Statement statement) {
+        statements.add(statement);
+        if (cancelled) {
+            cancelQuietly(statement);
+        }
+    }
+    
+    void unregister(Statement statement) {
+        statements.remove(statement);
+    }
+    
+    /**
+     * Отмена всех зарегистрированных запросов области
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Statement statement : statements) {
+            cancelQuietly(statement);
+        }
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    private static void cancelQuietly(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            // Запрос мог уже завершиться или быть закрыт
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.energy.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш готовых ответов аналитики по ключу (пользователь, путь, параметры)
+ * Запись действительна, пока совпадает ETag версии данных, с которым она построена
+ * (версия пользователя, эпоха, дата/час), и не истёк energy.analyticsCache.ttlMs.
+ * Объём ограничен energy.analyticsCache.maxChars символов тел ответов и energy.analyticsCache.maxEntries
+ * записей; при превышении вытесняются давно не использованные записи (LRU).
+ * Записи пользователя удаляются сразу при изменении его данных (DataVersions.bump).
+ * Одновременные промахи по одному ключу и версии строят ответ один раз (SingleFlight)
+ */
+public class ResponseCache {
+    
+    private static final long TTL_MS = Long.getLong("energy.analyticsCache.ttlMs", 60000);
+    private static final long MAX_CHARS = Long.getLong("energy.analyticsCache.maxChars", 8L * 1024 * 1024);
+    private static final int MAX_ENTRIES = Integer.getInteger("energy.analyticsCache.maxEntries", 20000);
+    
+    // Порядок доступа - голова карты самая давно использованная запись
+    private static final LinkedHashMap<String, Entry> ENTRIES = new LinkedHashMap<>(1024, 0.75f, true);
+    
+    // Ключи записей каждого пользователя для сброса при изменении его данных
+    private static final Map<Integer, Set<String>> KEYS_BY_USER = new HashMap<>();
+    
+    private static long totalChars;
+    
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong EVICTIONS = new AtomicLong();
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+    
+    private static final SingleFlight<String, String> RENDERS = new SingleFlight<>();
+    
+    /**
+     * Приватный конструктор для предотвращения создания экземпляров
+     */
+    private ResponseCache() {}
+    
+    /**
+     * Ключ записи
+     * @param userId ID пользователя
+     * @param path путь обработчика (например, /daily)
+     * @param query строка параметров запроса (может быть null)
+     */
+    public static String key(int userId, String path, String query) {
+        return query == null ? userId + ":" + path : userId + ":" + path + "?" + query;
+    }
+    
+    /**
+     * Готовый ответ, если он построен для той же версии данных и не устарел
+     * @param key ключ записи
+     * @param etag текущий ETag версии данных
+     * @return тело ответа или null
+     */
+    public static String get(String key, String etag) {
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null) {
+                if (entry.etag.equals(etag) && System.currentTimeMillis() < entry.expiresAt) {
+                    HITS.incrementAndGet();
+                    return entry.body;
+                }
+                remove(key);
+            }
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * Готовый ответ или его построение
+     * Запросы, промахнувшиеся одновременно (несколько вкладок, истечение записи), ждут одно построение
+     * и получают его результат или ошибку
+     * @param userId ID пользователя
+     * @param key ключ записи
+     * @param etag ETag версии данных, вычисленный до построения ответа
+     * @param render построение тела ответа
+     * @param timeoutMs срок ожидания построения, начатого другим запросом
+     * @return тело ответа
+     */
+    public static String getOrRender(int userId, String key, String etag, Callable<String> render,
+                                     long timeoutMs) throws Exception {
+        String body = get(key, etag);
+        if (body != null) {
+            return body;
+        }
+        // В ключ построения входит версия: запрос после записи не получит ответ по старым данным
+        return RENDERS.execute(key + "#" + etag, () -> {
+            String rendered = render.call();
+            put(userId, key, etag, rendered);
+            return rendered;
+        }, timeoutMs);
+    }
+    
+    /**
+     * Сохранение ответа
+     * @param userId ID пользователя
+     * @param key ключ записи
+     * @param etag ETag версии данных, вычисленный до построения ответа
+     * @param body тело ответа
+     */
+    public static void put(int userId, String key, String etag, String body) {
+        if (body.length() > MAX_CHARS) {
+            return;
+        }
+        Entry entry = new Entry(userId, etag, body, System.currentTimeMillis() + TTL_MS);
+        synchronized (ENTRIES) {
+            remove(key);
+            ENTRIES.put(key, entry);
+            KEYS_BY_USER.computeIfAbsent(userId, id -> new HashSet<>()).add(key);
+            totalChars += body.length();
+            
+            Iterator<Map.Entry<String, Entry>> it = ENTRIES.entrySet().iterator();
+            while ((totalChars > MAX_CHARS || ENTRIES.size() > MAX_ENTRIES) && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                it.remove();
+                unindex(eldest.getKey(), eldest.getValue());
+                EVICTIONS.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Сброс всех ответов пользователя после изменения его данных
+     * @param userId ID пользователя
+     */
+    public static void invalidate(int userId) {
+        synchronized (ENTRIES) {
+            Set<String> keys = KEYS_BY_USER.remove(userId);
+            if (keys == null) {
+                return;
+            }
+            for (String key : keys) {
+                Entry entry = ENTRIES.remove(key);
+                if (entry != null) {
+                    totalChars -= entry.body.length();
+                    INVALIDATIONS.incrementAndGet();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Сброс всех ответов (например, после пересчёта агрегатов)
+     */
+    public static void clear() {
+        synchronized (ENTRIES) {
+            INVALIDATIONS.addAndGet(ENTRIES.size());
+            ENTRIES.clear();
+            KEYS_BY_USER.clear();
+            totalChars = 0;
+        }
+    }
+    
+    /**
+     * Метрики кэша
+     */
+    public static Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (ENTRIES) {
+            metrics.put("size", ENTRIES.size());
+            metrics.put("chars", totalChars);
+        }
+        metrics.put("maxEntries", MAX_ENTRIES);
+        metrics.put("maxChars", MAX_CHARS);
+        metrics.put("ttlMs", TTL_MS);
+        metrics.put("hits", HITS.get());
+        metrics.put("misses", MISSES.get());
+        metrics.put("evictions", EVICTIONS.get());
+        metrics.put("invalidations", INVALIDATIONS.get());
+        metrics.put("singleFlight", RENDERS.getMetrics());
+        return metrics;
+    }
+    
+    // Вызывается под блокировкой ENTRIES
+    private static void remove(String key) {
+        Entry entry = ENTRIES.remove(key);
+        if (entry != null) {
+            unindex(key, entry);
+        }
+    }
+    
+    // Вызывается под блокировкой ENTRIES
+    private static void unindex(String key, Entry entry) {
+        totalChars -= entry.body.length();
+        Set<String> keys = KEYS_BY_USER.get(entry.userId);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            KEYS_BY_USER.remove(entry.userId);
+        }
+    }
+    
+    private static final class Entry {
+        
+        final int userId;
+        final String etag;
+        final String body;
+        final long expiresAt;
+        
+        Entry(int userId, String etag, String body, long expiresAt) {
+            this.userId = userId;
+            this.etag = etag;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
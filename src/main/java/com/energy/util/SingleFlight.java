@@ -0,0 +1,88 @@
+package com.energy.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Объединение одновременных одинаковых вычислений
+ * Первый поток, запросивший значение по ключу, вычисляет его сам; потоки, пришедшие с тем же ключом
+ * до окончания вычисления, ждут его результат (или ошибку) не дольше заданного срока.
+ * Результат не хранится: после завершения следующий вызов с тем же ключом вычисляет значение заново,
+ * поэтому кэширование остаётся на стороне вызывающего кода
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class SingleFlight<K, V> {
+    
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    
+    /**
+     * Значение по ключу: собственное вычисление или ожидание уже идущего
+     * @param key ключ вычисления (должен включать всё, от чего зависит результат)
+     * @param loader вычисление
+     * @param timeoutMs срок ожидания чужого вычисления
+     * @throws TimeoutException если чужое вычисление не завершилось в срок
+     * @throws Exception ошибка вычисления (общая для всех ожидающих)
+     */
+    public V execute(K key, Callable<V> loader, long timeoutMs) throws Exception {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            shared.incrementAndGet();
+            return await(existing, timeoutMs);
+        }
+        
+        executions.incrementAndGet();
+        try {
+            V value = loader.call();
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+    
+    /**
+     * Метрики: собственные вычисления, присоединившиеся к чужим, истёкшие ожидания
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("executions", executions.get());
+        metrics.put("shared", shared.get());
+        metrics.put("timeouts", timeouts.get());
+        return metrics;
+    }
+    
+    private V await(CompletableFuture<V> flight, long timeoutMs) throws Exception {
+        try {
+            return flight.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            throw new TimeoutException("Превышено время ожидания общего вычисления (" + timeoutMs + " мс)");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
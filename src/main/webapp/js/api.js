@@ -7,6 +7,9 @@ const API = {
     // Базовый URL API
     baseUrl: '/api',
     
+    // Кэш GET ответов: url -> { etag, data }; сервер отвечает 304, если данные не менялись
+    cache: new Map(),
+    
     /**
      * Выполнение HTTP запроса
      * @param {string} endpoint - конечная точка API
@@ -29,9 +32,23 @@ const API = {
             config.body = JSON.stringify(config.body);
         }
         
+        // Условный запрос: сохранённая версия ответа проверяется по ETag
+        const isGet = !config.method || config.method === 'GET';
+        const cached = isGet ? this.cache.get(url) : null;
+        if (isGet) {
+            config.cache = 'no-store';
+            if (cached) {
+                config.headers = { ...config.headers, 'If-None-Match': cached.etag };
+            }
+        }
+        
         try {
             const response = await fetch(url, config);
             
+            if (response.status === 304 && cached) {
+                return cached.data;
+            }
+            
             // Проверка на экспорт файла
             const contentType = response.headers.get('content-type');
             if (contentType && contentType.includes('text/csv')) {
@@ -44,6 +61,11 @@ const API = {
                 throw new Error(data.error || 'Ошибка сервера');
             }
             
+            const etag = response.headers.get('ETag');
+            if (isGet && etag) {
+                this.cache.set(url, { etag, data });
+            }
+            
             return data;
         } catch (error) {
             console.error('API Error:', error);
@@ -60,6 +82,7 @@ const API = {
          * Вход в систему
          */
         async login(username, password) {
+            API.cache.clear();
             return API.request('/auth/login', {
                 method: 'POST',
                 body: { username, password }
@@ -80,6 +103,7 @@ const API = {
          * Выход
          */
         async logout() {
+            API.cache.clear();
             return API.request('/auth/logout', {
                 method: 'POST'
             });